@@ -0,0 +1,636 @@
+package com.metallicim.randomtreasure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <h1>Columnar Hoard</h1>
+ * A hoard of generated treasures stored column by column instead of as a list of treasure trees,
+ * for queries such as "total value by type", "top 20 most valuable items", or "count of contraband
+ * leather" over millions of rows.
+ * <p>
+ * Every row is one treasure. The kind, top-level type, value in cents, index into the kind's main
+ * table, and the race of contraband leather are each kept in their own primitive array, and the
+ * assembled names are dictionary encoded so identical treasures share one String.
+ * <p>
+ * The operators scan the columns in tight loops over the arrays. Filters return a Selection of
+ * matching rows that can be passed to the next operator, and hoards of more than CHUNK_SIZE rows
+ * are split into chunks that are scanned in parallel and merged in row order, so every result is
+ * the same no matter how many threads ran it.
+ *
+ * @since 2021-2-25
+ */
+public class ColumnarHoard {
+
+    /**
+     * The number of rows scanned by one task
+     */
+    static final int CHUNK_SIZE = 1 << 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * The race column of a row that isn't contraband leather
+     */
+    static final int NO_RACE = -1;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "columnar-hoard");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final TreasureKind[] KINDS = TreasureKind.values();
+    private static final TreasureComponentType[] TYPES = TreasureComponentType.values();
+
+    /**
+     * The columns that rows can be grouped by
+     */
+    enum Key {
+        /**
+         * The TreasureKind ordinal
+         */
+        KIND,
+        /**
+         * The TreasureComponentType ordinal of the top-level component
+         */
+        TYPE,
+        /**
+         * The index into the kind's main table. Each kind has its own table, so this is usually
+         * grouped after filtering on one kind.
+         */
+        ENTRY,
+        /**
+         * The index into the race table, rows without a race are left out
+         */
+        RACE
+    }
+
+    /**
+     * The rows that passed a filter, in row order
+     */
+    static final class Selection {
+        private final int[] rows;
+        private final int size;
+
+        private Selection(int[] rows, int size) {
+            this.rows = rows;
+            this.size = size;
+        }
+
+        /**
+         * @return the number of rows selected
+         */
+        int size() { return size; }
+
+        /**
+         * @param index the index within the selection
+         * @return the row at that index
+         */
+        int row(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return rows[index];
+        }
+    }
+
+    private byte[] kind = new byte[INITIAL_CAPACITY];
+    private byte[] type = new byte[INITIAL_CAPACITY];
+    private long[] cents = new long[INITIAL_CAPACITY];
+    private int[] entry = new int[INITIAL_CAPACITY];
+    private byte[] race = new byte[INITIAL_CAPACITY];
+    private int[] name = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * The distinct names, indexed by the codes in the name column
+     */
+    private final ArrayList<String> dictionary = new ArrayList<>();
+    private final HashMap<String, Integer> codes = new HashMap<>();
+
+    /*
+     * The main table of each kind, for finding the entry of a row from its name
+     */
+    private static final HashMap<String, Integer> SPICES = indexes(TreasureBuilder.SPICES);
+    private static final HashMap<String, Integer> FIBERS = indexes(TreasureBuilder.FIBERS);
+    private static final HashMap<String, Integer> MATERIALS = indexes(TreasureBuilder.MATERIALS);
+    private static final HashMap<String, Integer> JEWELS = indexes(JewelTable.NAMES);
+    private static final HashMap<String, Integer> RACES = indexes(RaceTable.NAMES);
+
+    private static HashMap<String, Integer> indexes(String[] table) {
+        HashMap<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < table.length; i++) {
+            indexes.put(table[i], i);
+        }
+        return indexes;
+    }
+
+    /**
+     * Adds a treasure to the hoard as a new row.
+     * @param kind     the kind of the treasure
+     * @param composed the unassembled treasure, such as from TreasureKind.compose()
+     */
+    void add(TreasureKind kind, TreasureComponent composed) {
+        TreasureComponent assembled = composed.assembleTreasure();
+        TreasureComponent principal = TreasureExporter.principal(composed);
+        if (size == cents.length) {
+            grow();
+        }
+        int row = size++;
+        this.kind[row] = (byte) kind.ordinal();
+        this.type[row] = (byte) composed.type().ordinal();
+        this.cents[row] = assembled.costValue();
+        this.entry[row] = entryOf(kind, principal);
+        this.race[row] = (byte) raceOf(principal);
+        this.name[row] = encode(assembled.name());
+    }
+
+    /**
+     * Generates treasures from a seed and adds them as new rows, the same treasures as
+     * TreasureKind.build(seed, index) for every index from first.
+     * @param kind  the kind of treasure
+     * @param seed  the seed of the run
+     * @param first the index of the first treasure
+     * @param count the number of treasures
+     */
+    void add(TreasureKind kind, long seed, long first, int count) {
+        try (Generation generation = Generation.start()) {
+            for (long index = first; index < first + count; index++) {
+                generation.seed(seed, index);
+                add(kind, kind.compose());
+            }
+        }
+    }
+
+    private void grow() {
+        int capacity = cents.length * 2;
+        kind = Arrays.copyOf(kind, capacity);
+        type = Arrays.copyOf(type, capacity);
+        cents = Arrays.copyOf(cents, capacity);
+        entry = Arrays.copyOf(entry, capacity);
+        race = Arrays.copyOf(race, capacity);
+        name = Arrays.copyOf(name, capacity);
+    }
+
+    private int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    private static int entryOf(TreasureKind kind, TreasureComponent principal) {
+        HashMap<String, Integer> table;
+        switch (kind) {
+            case SPICE: {
+                table = SPICES;
+            } break;
+            case FIBER: {
+                table = FIBERS;
+            } break;
+            case MATERIAL: {
+                table = MATERIALS;
+            } break;
+            default: {
+                table = JEWELS;
+            } break;
+        }
+        Integer index = table.get(principal.name());
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Contraband leather has the race it was taken from as one of its types.
+     */
+    private static int raceOf(TreasureComponent principal) {
+        if (principal.type() != TreasureComponentType.FIBER) {
+            return NO_RACE;
+        }
+        for (int i = 0; i < principal.componentCount(); i++) {
+            TreasureComponent component = principal.component(i);
+            if (component.type() == TreasureComponentType.TYPE) {
+                Integer index = RACES.get(component.name());
+                if (index != null) {
+                    return index;
+                }
+            }
+        }
+        return NO_RACE;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    int size() { return size; }
+
+    /**
+     * @return the number of distinct names
+     */
+    int distinctNames() { return dictionary.size(); }
+
+    TreasureKind kind(int row) { return KINDS[kind[check(row)]]; }
+
+    TreasureComponentType type(int row) { return TYPES[type[check(row)]]; }
+
+    long cents(int row) { return cents[check(row)]; }
+
+    int entry(int row) { return entry[check(row)]; }
+
+    int race(int row) { return race[check(row)]; }
+
+    String name(int row) { return dictionary.get(name[check(row)]); }
+
+    private int check(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+        }
+        return row;
+    }
+
+    /*
+     * Filters. Each takes the rows to look at, or null for every row, so filters can be chained.
+     */
+
+    /**
+     * @param in the rows to look at, or null for every row
+     * @param kind the kind to keep
+     * @return the rows of that kind
+     */
+    Selection whereKind(Selection in, TreasureKind kind) {
+        return filter(in, this.kind, kind.ordinal(), true);
+    }
+
+    /**
+     * @param in the rows to look at, or null for every row
+     * @param type the top-level type to keep
+     * @return the rows with that top-level type
+     */
+    Selection whereType(Selection in, TreasureComponentType type) {
+        return filter(in, this.type, type.ordinal(), true);
+    }
+
+    /**
+     * @param in the rows to look at, or null for every row
+     * @param entry the index into the main table of the row's kind
+     * @return the rows drawn from that entry
+     */
+    Selection whereEntry(Selection in, int entry) {
+        return filter(in, this.entry, entry);
+    }
+
+    /**
+     * @param in the rows to look at, or null for every row
+     * @return the rows of contraband leather, which have a race
+     */
+    Selection whereRace(Selection in) {
+        return filter(in, this.race, NO_RACE, false);
+    }
+
+    /**
+     * @param in the rows to look at, or null for every row
+     * @param min the lowest value to keep, in cents
+     * @param max the highest value to keep, in cents
+     * @return the rows worth between min and max inclusive
+     */
+    Selection whereCents(Selection in, final long min, final long max) {
+        final long[] cents = this.cents;
+        return select(in, new Chunk<Selection>() {
+            @Override
+            public Selection run(int[] rows, int from, int to) {
+                int[] out = new int[to - from];
+                int n = 0;
+                for (int i = from; i < to; i++) {
+                    int row = rows == null ? i : rows[i];
+                    long value = cents[row];
+                    // written without a branch, so the loop doesn't stall on unpredictable rows
+                    out[n] = row;
+                    n += (value >= min & value <= max) ? 1 : 0;
+                }
+                return new Selection(out, n);
+            }
+        });
+    }
+
+    private Selection filter(Selection in, final byte[] column, final int value, final boolean equal) {
+        return select(in, new Chunk<Selection>() {
+            @Override
+            public Selection run(int[] rows, int from, int to) {
+                int[] out = new int[to - from];
+                int n = 0;
+                for (int i = from; i < to; i++) {
+                    int row = rows == null ? i : rows[i];
+                    out[n] = row;
+                    n += ((column[row] == value) == equal) ? 1 : 0;
+                }
+                return new Selection(out, n);
+            }
+        });
+    }
+
+    private Selection filter(Selection in, final int[] column, final int value) {
+        return select(in, new Chunk<Selection>() {
+            @Override
+            public Selection run(int[] rows, int from, int to) {
+                int[] out = new int[to - from];
+                int n = 0;
+                for (int i = from; i < to; i++) {
+                    int row = rows == null ? i : rows[i];
+                    out[n] = row;
+                    n += column[row] == value ? 1 : 0;
+                }
+                return new Selection(out, n);
+            }
+        });
+    }
+
+    /**
+     * Runs a filter over every chunk and joins the chunks' rows in order.
+     */
+    private Selection select(Selection in, Chunk<Selection> filter) {
+        List<Selection> parts = forChunks(in, filter);
+        int total = 0;
+        for (Selection part : parts) {
+            total += part.size;
+        }
+        int[] rows = new int[total];
+        int position = 0;
+        for (Selection part : parts) {
+            System.arraycopy(part.rows, 0, rows, position, part.size);
+            position += part.size;
+        }
+        return new Selection(rows, total);
+    }
+
+    /*
+     * Aggregates
+     */
+
+    /**
+     * @param in the rows to add up, or null for every row
+     * @return the total value of the rows in cents
+     * @throws ArithmeticException if the total overflows
+     */
+    long sum(Selection in) {
+        final long[] cents = this.cents;
+        long total = 0;
+        for (long[] part : forChunks(in, new Chunk<long[]>() {
+            @Override
+            public long[] run(int[] rows, int from, int to) {
+                long sum = 0;
+                for (int i = from; i < to; i++) {
+                    sum = Price.addValues(sum, cents[rows == null ? i : rows[i]]);
+                }
+                return new long[] {sum};
+            }
+        })) {
+            total = Price.addValues(total, part[0]);
+        }
+        return total;
+    }
+
+    /**
+     * Adds up the value of the rows in each group.
+     * @param key the column to group by
+     * @param in  the rows to add up, or null for every row
+     * @return the total value in cents of each group, indexed by the key
+     * @throws ArithmeticException if a total overflows
+     */
+    long[] sumBy(Key key, Selection in) {
+        return groupBy(key, in, true);
+    }
+
+    /**
+     * Counts the rows in each group.
+     * @param key the column to group by
+     * @param in  the rows to count, or null for every row
+     * @return the number of rows in each group, indexed by the key
+     */
+    long[] countBy(Key key, Selection in) {
+        return groupBy(key, in, false);
+    }
+
+    private long[] groupBy(Key key, Selection in, final boolean sum) {
+        final long[] cents = this.cents;
+        final int groups;
+        final byte[] byteKeys;
+        final int[] intKeys;
+        switch (key) {
+            case KIND: {
+                groups = KINDS.length;
+                byteKeys = kind;
+                intKeys = null;
+            } break;
+            case TYPE: {
+                groups = TYPES.length;
+                byteKeys = type;
+                intKeys = null;
+            } break;
+            case RACE: {
+                groups = RaceTable.SIZE;
+                byteKeys = race;
+                intKeys = null;
+            } break;
+            default: {
+                groups = Math.max(Math.max(SPICES.size(), FIBERS.size()), Math.max(MATERIALS.size(), JEWELS.size()));
+                byteKeys = null;
+                intKeys = entry;
+            } break;
+        }
+        long[] totals = new long[groups];
+        for (long[] part : forChunks(in, new Chunk<long[]>() {
+            @Override
+            public long[] run(int[] rows, int from, int to) {
+                long[] totals = new long[groups];
+                for (int i = from; i < to; i++) {
+                    int row = rows == null ? i : rows[i];
+                    int group = byteKeys != null ? byteKeys[row] : intKeys[row];
+                    if (group < 0) {
+                        continue;
+                    }
+                    totals[group] = sum ? Price.addValues(totals[group], cents[row]) : totals[group] + 1;
+                }
+                return totals;
+            }
+        })) {
+            for (int group = 0; group < groups; group++) {
+                totals[group] = Price.addValues(totals[group], part[group]);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Finds the most valuable rows. Each chunk keeps a heap of at most k rows, and the heaps are
+     * merged, so the whole hoard is never sorted.
+     * @param k  the number of rows to find
+     * @param in the rows to look at, or null for every row
+     * @return up to k rows, most valuable first, ties in row order
+     */
+    int[] top(final int k, Selection in) {
+        if (k <= 0) {
+            return new int[0];
+        }
+        final long[] cents = this.cents;
+        TopHeap merged = new TopHeap(k, cents);
+        for (TopHeap part : forChunks(in, new Chunk<TopHeap>() {
+            @Override
+            public TopHeap run(int[] rows, int from, int to) {
+                TopHeap heap = new TopHeap(k, cents);
+                for (int i = from; i < to; i++) {
+                    heap.offer(rows == null ? i : rows[i]);
+                }
+                return heap;
+            }
+        })) {
+            for (int i = 0; i < part.size; i++) {
+                merged.offer(part.rows[i]);
+            }
+        }
+        return merged.sorted();
+    }
+
+    /**
+     * A min-heap of the k most valuable rows seen so far, with the least valuable at the root.
+     */
+    private static final class TopHeap {
+        final int[] rows;
+        final long[] cents;
+        int size;
+
+        TopHeap(int k, long[] cents) {
+            this.rows = new int[k];
+            this.cents = cents;
+        }
+
+        /**
+         * @return true if row a is worth less than row b, the later row losing a tie
+         */
+        boolean less(int a, int b) {
+            return cents[a] < cents[b] || (cents[a] == cents[b] && a > b);
+        }
+
+        void offer(int row) {
+            if (size < rows.length) {
+                int i = size++;
+                rows[i] = row;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (!less(rows[i], rows[parent])) {
+                        break;
+                    }
+                    swap(i, parent);
+                    i = parent;
+                }
+            } else if (less(rows[0], row)) {
+                rows[0] = row;
+                siftDown(0, size);
+            }
+        }
+
+        void siftDown(int i, int size) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    return;
+                }
+                if (child + 1 < size && less(rows[child + 1], rows[child])) {
+                    child++;
+                }
+                if (!less(rows[child], rows[i])) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        void swap(int a, int b) {
+            int row = rows[a];
+            rows[a] = rows[b];
+            rows[b] = row;
+        }
+
+        /**
+         * Empties the heap from least to most valuable into the end of the array.
+         * @return the rows, most valuable first
+         */
+        int[] sorted() {
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            return Arrays.copyOf(rows, size);
+        }
+    }
+
+    /*
+     * Running the operators in parallel
+     */
+
+    /**
+     * One operator run over one chunk of rows
+     * @param <T> the partial result
+     */
+    private interface Chunk<T> {
+        /**
+         * @param rows the selected rows, or null for every row
+         * @param from the first index, into rows if there are rows, otherwise the first row
+         * @param to   the index after the last
+         * @return the result for the chunk
+         */
+        T run(int[] rows, int from, int to);
+    }
+
+    /**
+     * Runs an operator over every chunk, on the thread pool if there is more than one chunk.
+     * @return the results of the chunks, in row order
+     */
+    private <T> List<T> forChunks(Selection in, final Chunk<T> chunk) {
+        final int[] rows = in == null ? null : in.rows;
+        int count = in == null ? size : in.size;
+        List<T> results = new ArrayList<>();
+        if (count <= CHUNK_SIZE) {
+            results.add(chunk.run(rows, 0, count));
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>();
+        for (int from = 0; from < count; from += CHUNK_SIZE) {
+            final int start = from;
+            final int end = Math.min(count, from + CHUNK_SIZE);
+            futures.add(EXECUTOR.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    return chunk.run(rows, start, end);
+                }
+            }));
+        }
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning a hoard", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,112 @@
+package com.metallicim.randomtreasure;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Deadline</h1>
+ * A point in time that generation has to stop by, checked cooperatively. Each thread can have a
+ * deadline set, and the builders call check() at points where they could otherwise run on for a
+ * long time, such as a long chain of bigger jewel rolls. Once the deadline has passed, check()
+ * throws Deadline.Exceeded and the treasure being built is abandoned.
+ * <p>
+ * A deadline can also be cancelled, which expires it straight away. Threads without a deadline
+ * never stop, and check() costs a single thread local read.
+ *
+ * @see DeadlineGeneration
+ * @since 2021-3-1
+ */
+public final class Deadline {
+
+    /**
+     * Thrown by check() once the current thread's deadline has passed. It carries no stack trace,
+     * since it is expected and caught close to where it is thrown.
+     */
+    static final class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Exceeded() { super("Deadline exceeded"); }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() { return this; }
+    }
+
+    private static final ThreadLocal<Deadline> current = new ThreadLocal<>();
+
+    /**
+     * When the deadline passes, on the System.nanoTime() clock
+     */
+    private final long expiresAt;
+    private final boolean bounded;
+    private volatile boolean cancelled;
+
+    private Deadline(long expiresAt, boolean bounded) {
+        this.expiresAt = expiresAt;
+        this.bounded = bounded;
+    }
+
+    /**
+     * @param budget how long until the deadline
+     * @param unit   the unit of the budget
+     * @return a deadline that passes once the budget has been used up
+     */
+    static Deadline after(long budget, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(budget), true);
+    }
+
+    /**
+     * @return a deadline that only passes if it is cancelled
+     */
+    static Deadline unbounded() {
+        return new Deadline(0, false);
+    }
+
+    /**
+     * Expires the deadline now, so work checking it stops at the next check.
+     */
+    void cancel() { cancelled = true; }
+
+    /**
+     * @return true if the deadline was cancelled
+     */
+    boolean isCancelled() { return cancelled; }
+
+    /**
+     * @return true if the deadline has passed or was cancelled
+     */
+    boolean expired() {
+        return cancelled || (bounded && System.nanoTime() - expiresAt >= 0);
+    }
+
+    /**
+     * @param unit the unit of the result
+     * @return the time left before the deadline, 0 once it has expired, or Long.MAX_VALUE if it
+     * is unbounded and not cancelled
+     */
+    long remaining(TimeUnit unit) {
+        if (cancelled) return 0;
+        if (!bounded) return Long.MAX_VALUE;
+        return unit.convert(Math.max(0, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the deadline checked by every builder on the current thread.
+     * @param deadline the new deadline, or null for none
+     * @return the deadline that was set before, so it can be restored
+     */
+    static Deadline set(Deadline deadline) {
+        Deadline previous = current.get();
+        current.set(deadline);
+        return previous;
+    }
+
+    /**
+     * Stops the current treasure if the current thread's deadline has expired.
+     * @throws Exceeded if the deadline has expired
+     */
+    static void check() {
+        Deadline deadline = current.get();
+        if (deadline != null && deadline.expired()) {
+            throw new Exceeded();
+        }
+    }
+}
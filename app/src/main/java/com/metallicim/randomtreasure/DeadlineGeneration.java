@@ -0,0 +1,218 @@
+package com.metallicim.randomtreasure;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Deadline Generation</h1>
+ * Generates a job within a time budget, for callers that have to answer in time even when asked
+ * for a large hoard. Treasures are generated in index order on the calling thread until the job is
+ * done or the deadline passes, checking the deadline between treasures and inside long chains of
+ * bigger jewels. Whatever is complete by then is returned, marked partial if the job isn't done.
+ * <p>
+ * Given an executor, the rest of the job keeps being generated in the background, and a follow up
+ * fetch returns everything finished so far. Every treasure only depends on the job's seed and its
+ * index, so a treasure that was abandoned at the deadline comes out the same when it is built
+ * again in the background, and the whole job matches generating it with no deadline.
+ *
+ * @see Deadline
+ * @since 2021-3-1
+ */
+public class DeadlineGeneration {
+
+    /**
+     * The treasures finished when a snapshot was taken
+     */
+    static final class Snapshot {
+        /**
+         * The finished treasures, in index order starting from the first of the job
+         */
+        final TreasureComponent[] treasures;
+        /**
+         * The kind of each finished treasure
+         */
+        final TreasureKind[] kinds;
+        /**
+         * The number of treasures in the whole job
+         */
+        final int total;
+
+        Snapshot(TreasureComponent[] treasures, TreasureKind[] kinds, int total) {
+            this.treasures = treasures;
+            this.kinds = kinds;
+            this.total = total;
+        }
+
+        /**
+         * @return true if some of the job's treasures are missing
+         */
+        boolean isPartial() { return treasures.length < total; }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" + treasures.length + " of " + total + (isPartial() ? ", partial" : "") + '}';
+        }
+    }
+
+    private final GenerationJob job;
+    /**
+     * The tables the generation started with, used by the background fill as well
+     */
+    private final LootTables tables;
+    private final int total;
+    private final TreasureComponent[] treasures;
+    private final TreasureKind[] kinds;
+    /**
+     * The number of treasures finished. Only one thread generates at a time, and it writes each
+     * treasure before publishing it here.
+     */
+    private volatile int completed;
+    private volatile Throwable failure;
+    private final Deadline fill = Deadline.unbounded();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private DeadlineGeneration(GenerationJob job) {
+        if (job.count() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A deadline generation holds at most " + Integer.MAX_VALUE + " treasures");
+        }
+        this.job = job;
+        this.tables = LootTables.current();
+        this.total = (int) job.count();
+        this.treasures = new TreasureComponent[total];
+        this.kinds = new TreasureKind[total];
+    }
+
+    /**
+     * Generates a job until it is done or the budget runs out, without continuing in the background.
+     * @param job    the job to generate
+     * @param budget how long the caller can wait
+     * @param unit   the unit of the budget
+     * @return the treasures finished within the budget
+     */
+    static Snapshot generate(GenerationJob job, long budget, TimeUnit unit) {
+        return start(job, budget, unit, null).snapshot();
+    }
+
+    /**
+     * Generates a job on the calling thread until it is done or the budget runs out, then hands
+     * what is left to the executor.
+     * @param job        the job to generate
+     * @param budget     how long the caller can wait
+     * @param unit       the unit of the budget
+     * @param background where to generate the rest of the job, or null to stop at the deadline
+     * @return the generation, whose snapshot has the treasures finished within the budget
+     */
+    static DeadlineGeneration start(GenerationJob job, long budget, TimeUnit unit, Executor background) {
+        DeadlineGeneration generation = new DeadlineGeneration(job);
+        generation.run(Deadline.after(budget, unit));
+        if (generation.isDone()) {
+            return generation;
+        }
+        if (background == null) {
+            generation.fill.cancel();
+            generation.done.countDown();
+            return generation;
+        }
+        try {
+            background.execute(new Runnable() {
+                @Override
+                public void run() {
+                    generation.run(generation.fill);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            generation.fail(e);
+        }
+        return generation;
+    }
+
+    /**
+     * Generates treasures in order until the job is done or the deadline expires.
+     */
+    private void run(Deadline deadline) {
+        Deadline previous = Deadline.set(deadline);
+        try (Generation generation = Generation.start(tables)) {
+            int index = completed;
+            while (index < total && !deadline.expired()) {
+                TreasureKind kind = job.kindOf(index);
+                generation.seed(job.seed(), index);
+                treasures[index] = kind.build();
+                kinds[index] = kind;
+                completed = ++index;
+            }
+            if (index == total) {
+                done.countDown();
+            } else if (deadline == fill) {
+                // only a cancelled background fill stops early
+                done.countDown();
+            }
+        } catch (Deadline.Exceeded e) {
+            // the treasure that was being built is dropped, and built again by whatever runs next
+            if (deadline == fill) {
+                done.countDown();
+            }
+        } catch (RuntimeException | Error e) {
+            fail(e);
+            throw e;
+        } finally {
+            Deadline.set(previous);
+        }
+    }
+
+    private void fail(Throwable e) {
+        failure = e;
+        fill.cancel();
+        done.countDown();
+    }
+
+    /**
+     * @return the treasures finished so far
+     * @throws IllegalStateException if generating the job failed
+     */
+    Snapshot snapshot() {
+        Throwable cause = failure;
+        if (cause != null) {
+            throw new IllegalStateException("Generation failed", cause);
+        }
+        int count = completed;
+        TreasureComponent[] finished = new TreasureComponent[count];
+        TreasureKind[] finishedKinds = new TreasureKind[count];
+        System.arraycopy(treasures, 0, finished, 0, count);
+        System.arraycopy(kinds, 0, finishedKinds, 0, count);
+        return new Snapshot(finished, finishedKinds, total);
+    }
+
+    /**
+     * Waits for the background fill to finish, up to a timeout, for a follow up fetch.
+     * @param timeout the longest to wait
+     * @param unit    the unit of the timeout
+     * @return the treasures finished by the time it returns
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    Snapshot await(long timeout, TimeUnit unit) throws InterruptedException {
+        done.await(timeout, unit);
+        return snapshot();
+    }
+
+    /**
+     * Stops the background fill at its next check. The treasures already finished stay available.
+     */
+    void cancel() { fill.cancel(); }
+
+    /**
+     * @return the number of treasures finished so far
+     */
+    int completed() { return completed; }
+
+    /**
+     * @return the number of treasures in the job
+     */
+    int total() { return total; }
+
+    /**
+     * @return true once every treasure is finished
+     */
+    boolean isDone() { return completed == total; }
+}
@@ -34,11 +34,11 @@ public class FirstFragment extends Fragment {
      * @param treasure the top level Treasure Component that describes the treasure
      */
     private void treasureHandler(TreasureComponent treasure) {
-        String price = (treasure.cost().value() / 100) + "";
-        if (treasure.cost().value() % 100 != 0)
+        String price = (treasure.costValue() / 100) + "";
+        if (treasure.costValue() % 100 != 0)
             price = new DecimalFormat("#0.00",
                     DecimalFormatSymbols.getInstance(Locale.ENGLISH)).format(
-                    treasure.cost().value() / 100.0);
+                    treasure.costValue() / 100.0);
         String out = "$" + price + ", " + treasure.name();
         treasureText.setText(out);
     }
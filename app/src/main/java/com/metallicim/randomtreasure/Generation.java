@@ -0,0 +1,88 @@
+package com.metallicim.randomtreasure;
+
+import java.io.Closeable;
+
+/**
+ * <h1>Generation</h1>
+ * The thread state a run of treasures is built with: one snapshot of the loot tables, pinned for
+ * the whole run, and the random source of the treasure being built. Starting a generation pins
+ * its tables, and closing it restores the tables and random source the thread had before, so
+ * generations can be nested and a failed build leaves nothing behind.
+ * <pre>
+ * try (Generation generation = Generation.start()) {
+ *     for (long index = first; index &lt; first + count; index++) {
+ *         generation.seed(seed, index);
+ *         add(kind.compose());
+ *     }
+ * }
+ * </pre>
+ * A generation belongs to the thread that started it, and must be closed on that thread.
+ *
+ * @see LootTables
+ * @since 2021-3-5
+ */
+final class Generation implements Closeable {
+
+    private final LootTables tables;
+    private final LootTables previousTables;
+    private final RandomSource previousSource;
+
+    private Generation(LootTables tables) {
+        this.tables = tables;
+        this.previousSource = TreasureBuilder.randomSource();
+        this.previousTables = LootTables.pin(tables);
+    }
+
+    /**
+     * Starts a generation with the current thread's snapshot, so a generation started inside
+     * another keeps its tables.
+     * @return the generation, to be closed when the run is done
+     */
+    static Generation start() {
+        return new Generation(LootTables.current());
+    }
+
+    /**
+     * Starts a generation with a given snapshot.
+     * @param tables the snapshot every draw of the run comes from
+     * @return the generation, to be closed when the run is done
+     */
+    static Generation start(LootTables tables) {
+        if (tables == null) {
+            throw new NullPointerException("tables");
+        }
+        return new Generation(tables);
+    }
+
+    /**
+     * @return the snapshot pinned for the run
+     */
+    LootTables tables() { return tables; }
+
+    /**
+     * Switches to the random source of one treasure of a run, so it is the same treasure as
+     * TreasureKind.build(seed, index).
+     * @param seed  the seed of the run
+     * @param index the index of the treasure in the run
+     */
+    void seed(long seed, long index) {
+        TreasureBuilder.setRandomSource(SeededRandom.forItem(seed, index));
+    }
+
+    /**
+     * Switches to another random source until the next switch or the end of the run.
+     * @param source the new source of random numbers
+     */
+    void use(RandomSource source) {
+        TreasureBuilder.setRandomSource(source);
+    }
+
+    /**
+     * Restores the tables and random source the thread had when the generation started.
+     */
+    @Override
+    public void close() {
+        LootTables.pin(previousTables);
+        TreasureBuilder.setRandomSource(previousSource);
+    }
+}
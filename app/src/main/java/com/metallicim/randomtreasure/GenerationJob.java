@@ -0,0 +1,133 @@
+package com.metallicim.randomtreasure;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <h1>Generation Job</h1>
+ * A batch of treasures described by a mix of kinds, a total count, and a master seed. The kind
+ * and contents of every treasure depend only on the master seed and the treasure's index, so any
+ * range of the job can be generated on its own, in any process, and come out the same.
+ *
+ * @since 2021-2-27
+ */
+public class GenerationJob {
+
+    /**
+     * Mixed into the master seed to pick the kind of each treasure, so the kind's draw doesn't
+     * come from the same sequence as the treasure's own draws.
+     */
+    private static final long KIND_SALT = 0x6B696E642D6D6978L;
+
+    private static final TreasureKind[] KINDS = TreasureKind.values();
+
+    private final int[] mix;
+    private final int mixTotal;
+    private final long count;
+    private final long seed;
+
+    /**
+     * Creates a job
+     * @param mix   the weight of each kind, indexed by TreasureKind ordinal
+     * @param count the number of treasures
+     * @param seed  the master seed
+     * @throws IllegalArgumentException if the mix has no weight, its weights add up to more than
+     * an int holds, or count is negative
+     */
+    GenerationJob(int[] mix, long count, long seed) {
+        if (mix.length != KINDS.length) {
+            throw new IllegalArgumentException("The mix needs a weight for each of the " + KINDS.length + " kinds");
+        }
+        long total = 0;
+        for (int weight : mix) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight in mix");
+            }
+            total += weight;
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The mix's weights add up to more than " + Integer.MAX_VALUE);
+        }
+        if (total == 0 || count < 0) {
+            throw new IllegalArgumentException("A job needs a mix with some weight and a count of at least 0");
+        }
+        this.mix = mix.clone();
+        this.mixTotal = (int) total;
+        this.count = count;
+        this.seed = seed;
+    }
+
+    /**
+     * Reads a mix such as "spice=3,fiber=1,jewel=2". Kinds that aren't named have no weight.
+     * @param mix the mix
+     * @return the weight of each kind, indexed by TreasureKind ordinal
+     * @throws IllegalArgumentException if a kind or weight can't be read
+     */
+    static int[] parseMix(String mix) {
+        int[] weights = new int[KINDS.length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            TreasureKind kind = pair.length == 2 ? TreasureKind.fromName(pair[0].trim()) : null;
+            if (kind == null) {
+                throw new IllegalArgumentException("Unknown kind in mix: " + part);
+            }
+            weights[kind.ordinal()] = Integer.parseInt(pair[1].trim());
+        }
+        return weights;
+    }
+
+    /**
+     * @return the mix written the way parseMix reads it
+     */
+    String mixString() {
+        StringBuilder out = new StringBuilder();
+        for (int k = 0; k < KINDS.length; k++) {
+            if (mix[k] != 0) {
+                out.append(out.length() == 0 ? "" : ",").append(KINDS[k].name().toLowerCase()).append('=').append(mix[k]);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return the number of treasures in the job
+     */
+    long count() { return count; }
+
+    /**
+     * @return the master seed
+     */
+    long seed() { return seed; }
+
+    /**
+     * @param index the index of a treasure in the job
+     * @return the kind of that treasure
+     */
+    TreasureKind kindOf(long index) {
+        int num = SeededRandom.forItem(seed ^ KIND_SALT, index).nextInt(mixTotal);
+        return KINDS[TreasureBuilder.selectFromProbabilityList(mix, num)];
+    }
+
+    /**
+     * Generates a range of the job as NDJSON, the same lines TreasureNdjson writes, and adds the
+     * treasures to the stats.
+     * @param first the index of the first treasure
+     * @param count the number of treasures
+     * @param out   where to write the treasures
+     * @param stats where to count the treasures
+     * @throws IOException if the output could not be written
+     */
+    void generate(long first, long count, OutputStream out, GenerationStats stats) throws IOException {
+        TreasureNdjson.Output lines = new TreasureNdjson.Output(out);
+        try (Generation generation = Generation.start()) {
+            for (long index = first; index < first + count; index++) {
+                TreasureKind kind = kindOf(index);
+                generation.seed(seed, index);
+                TreasureComponent treasure = kind.build();
+                stats.add(kind, treasure.costValue());
+                lines.add(kind, seed, index, treasure);
+            }
+        }
+        lines.finish();
+    }
+}
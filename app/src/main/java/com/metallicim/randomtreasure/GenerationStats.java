@@ -0,0 +1,182 @@
+package com.metallicim.randomtreasure;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * <h1>Generation Stats</h1>
+ * Counts, value totals, and value histograms of the treasures of a generation job, kept for each
+ * kind. Every statistic is a sum of whole numbers, so stats from any split of a job merge to
+ * exactly the same totals as generating the whole job at once.
+ * <p>
+ * The histogram bucket of a value is its number of binary digits, so bucket 0 holds treasures
+ * worth nothing, bucket 1 treasures worth 1 cent, bucket 2 treasures worth 2 or 3 cents, and so on.
+ *
+ * @since 2021-2-27
+ */
+public class GenerationStats {
+
+    /**
+     * The number of histogram buckets, enough for any long value
+     */
+    static final int BUCKETS = 64;
+
+    private static final TreasureKind[] KINDS = TreasureKind.values();
+
+    private final long[] count = new long[KINDS.length];
+    private final long[] cents = new long[KINDS.length];
+    private final long[][] histogram = new long[KINDS.length][BUCKETS];
+
+    /**
+     * Adds one treasure to the stats.
+     * @param kind  the kind of the treasure
+     * @param value the value of the treasure in cents
+     * @throws ArithmeticException if the value total overflows
+     */
+    void add(TreasureKind kind, long value) {
+        int k = kind.ordinal();
+        count[k]++;
+        cents[k] = Price.addValues(cents[k], value);
+        histogram[k][bucket(value)]++;
+    }
+
+    /**
+     * Adds every statistic of other to these stats.
+     * @param other the stats to merge in
+     * @return these stats
+     * @throws ArithmeticException if a value total overflows
+     */
+    GenerationStats merge(GenerationStats other) {
+        for (int k = 0; k < KINDS.length; k++) {
+            count[k] += other.count[k];
+            cents[k] = Price.addValues(cents[k], other.cents[k]);
+            for (int b = 0; b < BUCKETS; b++) {
+                histogram[k][b] += other.histogram[k][b];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @param value a value in cents
+     * @return the histogram bucket of the value
+     */
+    static int bucket(long value) {
+        return value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * @param kind a kind of treasure
+     * @return the number of treasures of that kind
+     */
+    long count(TreasureKind kind) { return count[kind.ordinal()]; }
+
+    /**
+     * @param kind a kind of treasure
+     * @return the total value of the treasures of that kind in cents
+     */
+    long cents(TreasureKind kind) { return cents[kind.ordinal()]; }
+
+    /**
+     * @param kind   a kind of treasure
+     * @param bucket the histogram bucket
+     * @return the number of treasures of that kind in the bucket
+     */
+    long histogram(TreasureKind kind, int bucket) { return histogram[kind.ordinal()][bucket]; }
+
+    /**
+     * @return the number of treasures of every kind
+     */
+    long totalCount() {
+        long total = 0;
+        for (long c : count) {
+            total += c;
+        }
+        return total;
+    }
+
+    /**
+     * Writes the stats as one line per kind: the kind, the count, the value total, and the
+     * histogram buckets, separated by spaces.
+     * @param out where to write the stats
+     * @throws IOException if the stats could not be written
+     */
+    void write(Writer out) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int k = 0; k < KINDS.length; k++) {
+            line.setLength(0);
+            line.append(KINDS[k].name()).append(' ').append(count[k]).append(' ').append(cents[k]);
+            for (int b = 0; b < BUCKETS; b++) {
+                line.append(' ').append(histogram[k][b]);
+            }
+            out.write(line.append('\n').toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads stats written by write.
+     * @param in where to read the stats from
+     * @return the stats
+     * @throws IOException if the stats could not be read or are incomplete
+     */
+    static GenerationStats read(Reader in) throws IOException {
+        GenerationStats stats = new GenerationStats();
+        BufferedReader reader = new BufferedReader(in);
+        boolean[] seen = new boolean[KINDS.length];
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(" ");
+            if (fields.length != 3 + BUCKETS) {
+                throw new IOException("Malformed stats line: " + line);
+            }
+            int k;
+            try {
+                k = TreasureKind.valueOf(fields[0]).ordinal();
+                stats.count[k] = Long.parseLong(fields[1]);
+                stats.cents[k] = Long.parseLong(fields[2]);
+                for (int b = 0; b < BUCKETS; b++) {
+                    stats.histogram[k][b] = Long.parseLong(fields[3 + b]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Malformed stats line: " + line, e);
+            }
+            seen[k] = true;
+        }
+        for (int k = 0; k < KINDS.length; k++) {
+            if (!seen[k]) {
+                throw new IOException("Stats are missing " + KINDS[k]);
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GenerationStats)) return false;
+        GenerationStats other = (GenerationStats) o;
+        return Arrays.equals(count, other.count) && Arrays.equals(cents, other.cents)
+                && Arrays.deepEquals(histogram, other.histogram);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(count) + Arrays.hashCode(cents)) + Arrays.deepHashCode(histogram);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("GenerationStats{");
+        for (int k = 0; k < KINDS.length; k++) {
+            out.append(k == 0 ? "" : ", ").append(KINDS[k].name().toLowerCase())
+                    .append('=').append(count[k]).append('/').append(cents[k]);
+        }
+        return out.append('}').toString();
+    }
+}
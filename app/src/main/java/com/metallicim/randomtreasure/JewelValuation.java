@@ -0,0 +1,150 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Jewel Valuation</h1>
+ * Estimates the expected value of buildJewel by sampling. Plain sampling is noisy, because the
+ * value grows with the square of the carats and every "roll again for a bigger jewel" adds
+ * another die to the carats, so a few rare huge jewels carry much of the average.
+ * <p>
+ * The stratified estimate spreads each run's table draws and dice over a Latin hypercube, and
+ * importance samples the jewel table so the rare bigger jewel result comes up far more often,
+ * weighting those samples down to match. Runs are repeated with different seeds, and the spread
+ * of their averages gives the confidence interval.
+ *
+ * @see StratifiedRandom
+ * @since 2021-2-28
+ */
+public class JewelValuation {
+
+    /**
+     * How often the bigger jewel result is drawn when importance sampling, instead of its real
+     * chance of 1 in 18
+     */
+    static final double BIGGER_PROBABILITY = 0.25;
+    /**
+     * The number of draws stratified in each sample: two jewel draws, the two dice of the base
+     * carats, and the dice of a few bigger rolls
+     */
+    static final int DIMENSIONS = 8;
+
+    private JewelValuation() {}
+
+    /**
+     * An estimate of an expected value
+     */
+    static final class Estimate {
+        /**
+         * The estimated expected value in cents
+         */
+        final double mean;
+        /**
+         * The standard error of the estimate in cents
+         */
+        final double standardError;
+        /**
+         * The number of jewels built to make the estimate
+         */
+        final long builderCalls;
+
+        Estimate(double mean, double standardError, long builderCalls) {
+            this.mean = mean;
+            this.standardError = standardError;
+            this.builderCalls = builderCalls;
+        }
+
+        /**
+         * @param z the number of standard errors, such as 1.96 for 95% confidence
+         * @return half the width of the confidence interval in cents
+         */
+        double halfWidth(double z) { return z * standardError; }
+
+        @Override
+        public String toString() {
+            return "Estimate{" +
+                    "mean=" + mean +
+                    ", standardError=" + standardError +
+                    ", builderCalls=" + builderCalls +
+                    '}';
+        }
+    }
+
+    /**
+     * Estimates the expected value with plain, independent samples.
+     * @param samples the number of jewels to build, at least 2
+     * @param seed    the seed of the estimate
+     * @return the estimate
+     */
+    static Estimate plain(long samples, long seed) {
+        if (samples < 2) {
+            throw new IllegalArgumentException("At least two samples are needed for a confidence interval");
+        }
+        try (Generation generation = Generation.start()) {
+            generation.use(new SeededRandom(seed));
+            double sum = 0;
+            double sumOfSquares = 0;
+            for (long i = 0; i < samples; i++) {
+                double value = TreasureBuilder.buildJewel().costValue();
+                sum += value;
+                sumOfSquares += value * value;
+            }
+            double mean = sum / samples;
+            double variance = (sumOfSquares - sum * mean) / (samples - 1);
+            return new Estimate(mean, Math.sqrt(variance / samples), samples);
+        }
+    }
+
+    /**
+     * Estimates the expected value with stratified, importance sampled runs.
+     * @param samplesPerRun the number of jewels built in each run
+     * @param runs          the number of independent runs, at least 2
+     * @param seed          the seed of the estimate
+     * @return the estimate
+     */
+    static Estimate stratified(int samplesPerRun, int runs, long seed) {
+        if (runs < 2) {
+            throw new IllegalArgumentException("At least two runs are needed for a confidence interval");
+        }
+        double sum = 0;
+        double sumOfSquares = 0;
+        try (Generation generation = Generation.start()) {
+            // the biased table is told apart by identity, so it must come from the pinned snapshot
+            LootTable jewels = generation.tables().jewels;
+            double[] proposal = biggerProposal(jewels);
+            for (int run = 0; run < runs; run++) {
+                StratifiedRandom random = new StratifiedRandom(samplesPerRun, DIMENSIONS, SeededRandom.forItem(seed, run).nextLong());
+                random.bias(jewels, proposal);
+                generation.use(random);
+                double runSum = 0;
+                for (int i = 0; i < samplesPerRun; i++) {
+                    random.startSample(i);
+                    long value = TreasureBuilder.buildJewel().costValue();
+                    runSum += value * random.weight();
+                }
+                double runMean = runSum / samplesPerRun;
+                sum += runMean;
+                sumOfSquares += runMean * runMean;
+            }
+        }
+        double mean = sum / runs;
+        double variance = (sumOfSquares - sum * mean) / (runs - 1);
+        return new Estimate(mean, Math.sqrt(Math.max(variance, 0) / runs), (long) samplesPerRun * runs);
+    }
+
+    /**
+     * The biased distribution over the numbers drawn for the jewel table. The numbers that land
+     * on the bigger jewel entry share BIGGER_PROBABILITY, and the rest share what is left in
+     * proportion to their real chances.
+     * @param jewels the jewel table being valued
+     * @return the probability of drawing each number
+     */
+    static double[] biggerProposal(LootTable jewels) {
+        int biggerNumbers = jewels.weights[0];
+        double[] proposal = new double[jewels.total];
+        for (int n = 0; n < jewels.total; n++) {
+            proposal[n] = n < biggerNumbers
+                    ? BIGGER_PROBABILITY / biggerNumbers
+                    : (1 - BIGGER_PROBABILITY) / (jewels.total - biggerNumbers);
+        }
+        return proposal;
+    }
+}
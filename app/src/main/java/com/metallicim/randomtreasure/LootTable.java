@@ -0,0 +1,189 @@
+package com.metallicim.randomtreasure;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+
+/**
+ * <h1>Loot Table</h1>
+ * One weighted table at run time, such as the jewel table. The compiled tables wrap the classes
+ * LootTableGenerator generates and keep their unrolled search, and tables read while the app is
+ * running search their cumulative weights instead. Both map every number to the same entry as
+ * TreasureBuilder.selectFromProbabilityList.
+ * <p>
+ * A table is never changed once it is made. Definitions are read with TableDefinition, the same
+ * reader LootTableGenerator uses, so a reloaded table has exactly the names and numbers of the
+ * compiled one.
+ *
+ * @see LootTables
+ * @see TableDefinition
+ * @since 2021-3-2
+ */
+final class LootTable {
+
+    /**
+     * Finds the entry a number falls on, for tables with a generated search
+     */
+    interface Selector {
+        /**
+         * @param num a number between 0 and the table's total exclusive
+         * @return the index of the entry
+         */
+        int select(int num);
+    }
+
+    /**
+     * The name of the class generated from the table, such as JewelTable
+     */
+    final String className;
+    /**
+     * The names of the entries, with any prefix or suffix applied
+     */
+    final String[] names;
+    /**
+     * The weight of each entry
+     */
+    final int[] weights;
+    /**
+     * The sum of every weight
+     */
+    final int total;
+
+    private final int[] cumulative;
+    private final HashMap<String, double[]> columns;
+    private final Selector selector;
+
+    private LootTable(String className, String[] names, int[] weights, HashMap<String, double[]> columns, Selector selector) {
+        this.className = className;
+        this.names = names;
+        this.weights = weights;
+        this.columns = columns;
+        this.selector = selector;
+        this.cumulative = new int[weights.length];
+        long total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException(className + ": " + names[i] + " has a negative weight");
+            }
+            total += weights[i];
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(className + ": the weights add up to more than " + Integer.MAX_VALUE);
+            }
+            cumulative[i] = (int) total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException(className + ": the weights add up to 0");
+        }
+        this.total = (int) total;
+    }
+
+    /**
+     * Wraps a compiled table
+     * @param className the name of the generated class
+     * @param names     the generated NAMES
+     * @param weights   the generated WEIGHTS
+     * @param selector  the generated select function
+     * @param column    the name of the table's number column, or null if it has none
+     * @param values    the values of the number column
+     * @return the table
+     */
+    static LootTable compiled(String className, String[] names, int[] weights, Selector selector, String column, double[] values) {
+        HashMap<String, double[]> columns = new HashMap<>();
+        if (column != null) {
+            columns.put(column, values);
+        }
+        return new LootTable(className, names, weights, columns, selector);
+    }
+
+    /**
+     * Finds the entry a number falls on.
+     * @param num a number between 0 and total exclusive
+     * @return the index of the entry, or -1 if num is total or more
+     */
+    int select(int num) {
+        if (selector != null) {
+            return selector.select(num);
+        }
+        if (num >= total) {
+            return -1;
+        }
+        // the first entry whose cumulative weight is more than num
+        int lo = 0;
+        int hi = cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (num < cumulative[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Draws an entry using the current thread's random source.
+     * @return the index of the entry
+     */
+    int draw() {
+        return select(TreasureBuilder.randomInt(this));
+    }
+
+    /**
+     * @param name the name of a number column, such as costFactor
+     * @return the column's value for each entry, or null if the table has no such column
+     */
+    double[] column(String name) { return columns.get(name); }
+
+    /**
+     * @return the number of entries
+     */
+    int size() { return names.length; }
+
+    /**
+     * Reads a table definition.
+     * @param in     the definition
+     * @param source where the definition came from, for error messages
+     * @return the table
+     * @throws IOException if the definition could not be read or is malformed, including a Cost
+     * Factor that isn't a multiple of 1/Price.CF_SCALE
+     */
+    static LootTable read(Reader in, String source) throws IOException {
+        TableDefinition definition = TableDefinition.read(in, source);
+        int size = definition.rows.size();
+        String[] names = new String[size];
+        int[] weights = new int[size];
+        HashMap<String, double[]> columns = new HashMap<>();
+        for (int c = 0; c < definition.columns.size(); c++) {
+            if (definition.isNumberColumn(c)) {
+                columns.put(definition.columns.get(c), new double[size]);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            try {
+                names[i] = definition.name(i);
+                weights[i] = definition.weight(i);
+                for (int c = 0; c < definition.columns.size(); c++) {
+                    double[] values = columns.get(definition.columns.get(c));
+                    if (values != null) {
+                        values[i] = definition.number(c, i);
+                        if (Double.isNaN(values[i]) || Double.isInfinite(values[i]) || values[i] < 0) {
+                            throw new IllegalArgumentException(definition.columns.get(c) + " must be a finite number of at least 0");
+                        }
+                        if (definition.columns.get(c).equals("costFactor") && !Price.isExactCF(values[i])) {
+                            // Cost Factors are summed in fixed point, which must hold them exactly
+                            throw new IllegalArgumentException("costFactor must be a multiple of 1/" + Price.CF_SCALE);
+                        }
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(source + ": entry " + (i + 1) + " (" + definition.baseName(i) + "): " + e.getMessage(), e);
+            }
+        }
+        try {
+            return new LootTable(definition.className, names, weights, columns, null);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(source + ": " + e.getMessage(), e);
+        }
+    }
+}
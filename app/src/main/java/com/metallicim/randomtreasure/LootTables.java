@@ -0,0 +1,261 @@
+package com.metallicim.randomtreasure;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Loot Tables</h1>
+ * A snapshot of every table the builders draw from with tunable weights and prices: the jewels,
+ * the soft and hard embellishments, and the races. Weights, value modifiers, and Cost Factors can
+ * be tuned between sessions by reloading the table definitions, without rebuilding the app.
+ * <p>
+ * A snapshot never changes. A reload reads and validates a whole new snapshot, then publishes it
+ * with a single volatile write, so readers take no locks and a reload never pauses them. If
+ * anything is wrong with the new definitions the reload fails and the published snapshot stays.
+ * <p>
+ * A Generation pins the snapshot it starts with to its thread, and every draw it makes comes from
+ * that snapshot even if another is published part way through. Builders called outside a pinned
+ * generation read the published snapshot.
+ * <p>
+ * A reload can only tune the tables, the entries and their names must stay the same. Traces and
+ * columnar hoards store entries by their index, so the indexes can't move. Journals store the raw
+ * numbers drawn, which only land on the same entries with the same weights, so a journal records
+ * the fingerprint of its snapshot and is only replayed against a snapshot with the same one.
+ *
+ * @see LootTable
+ * @since 2021-3-2
+ */
+public final class LootTables {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final AtomicLong versions = new AtomicLong();
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    /**
+     * The tables compiled into the app
+     */
+    static final LootTables COMPILED = new LootTables(
+            LootTable.compiled("JewelTable", JewelTable.NAMES, JewelTable.WEIGHTS,
+                    JewelTable::select, "valueModifier", JewelTable.VALUE_MODIFIERS),
+            LootTable.compiled("SoftEmbellishmentTable", SoftEmbellishmentTable.NAMES, SoftEmbellishmentTable.WEIGHTS,
+                    SoftEmbellishmentTable::select, "costFactor", SoftEmbellishmentTable.COST_FACTORS),
+            LootTable.compiled("HardEmbellishmentTable", HardEmbellishmentTable.NAMES, HardEmbellishmentTable.WEIGHTS,
+                    HardEmbellishmentTable::select, "costFactor", HardEmbellishmentTable.COST_FACTORS),
+            LootTable.compiled("RaceTable", RaceTable.NAMES, RaceTable.WEIGHTS,
+                    RaceTable::select, null, null));
+
+    private static volatile LootTables published = COMPILED;
+    private static final ThreadLocal<LootTables> pinned = new ThreadLocal<>();
+
+    /**
+     * The jewel table, entry 0 is roll again for a bigger jewel
+     */
+    final LootTable jewels;
+    /**
+     * The value modifier of each jewel
+     */
+    final double[] jewelValueModifiers;
+    /**
+     * The soft embellishment table
+     */
+    final LootTable softEmbellishments;
+    /**
+     * The Cost Factor of each soft embellishment
+     */
+    final double[] softCostFactors;
+    /**
+     * The hard embellishment table
+     */
+    final LootTable hardEmbellishments;
+    /**
+     * The Cost Factor of each hard embellishment, the Jeweled entry is priced by its jewels instead
+     */
+    final double[] hardCostFactors;
+    /**
+     * The race table, for contraband leather
+     */
+    final LootTable races;
+    /**
+     * Counts up with every snapshot made, the compiled tables are version 0
+     */
+    final long version;
+    /**
+     * A hash of every weight and number the builders use, the same in any process for snapshots
+     * that build the same treasures from the same draws
+     */
+    final long fingerprint;
+
+    private LootTables(LootTable jewels, LootTable softEmbellishments, LootTable hardEmbellishments, LootTable races) {
+        this.jewels = jewels;
+        this.jewelValueModifiers = jewels.column("valueModifier");
+        this.softEmbellishments = softEmbellishments;
+        this.softCostFactors = softEmbellishments.column("costFactor");
+        this.hardEmbellishments = hardEmbellishments;
+        this.hardCostFactors = hardEmbellishments.column("costFactor");
+        this.races = races;
+        this.version = versions.getAndIncrement();
+        long hash = FNV_OFFSET_BASIS;
+        hash = fingerprint(hash, jewels, jewelValueModifiers);
+        hash = fingerprint(hash, softEmbellishments, softCostFactors);
+        hash = fingerprint(hash, hardEmbellishments, hardCostFactors);
+        this.fingerprint = fingerprint(hash, races, null);
+    }
+
+    /**
+     * Adds a table's names, weights, and number column to a 64 bit FNV-1a hash, a value at a time.
+     */
+    private static long fingerprint(long hash, LootTable table, double[] column) {
+        hash = (hash ^ table.className.hashCode()) * FNV_PRIME;
+        for (int i = 0; i < table.size(); i++) {
+            hash = (hash ^ table.names[i].hashCode()) * FNV_PRIME;
+            hash = (hash ^ table.weights[i]) * FNV_PRIME;
+            if (column != null) {
+                hash = (hash ^ Double.doubleToLongBits(column[i])) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the snapshot pinned to the current thread, or the published snapshot if none is
+     */
+    static LootTables current() {
+        LootTables tables = pinned.get();
+        return tables != null ? tables : published;
+    }
+
+    /**
+     * @return the snapshot new generations start with
+     */
+    static LootTables published() { return published; }
+
+    /**
+     * Pins a snapshot to the current thread, so every draw comes from it. Runs of treasures pin
+     * through Generation, which restores the previous pin when it is closed.
+     * @param tables the snapshot to pin, or null to follow the published snapshot
+     * @return the snapshot that was pinned before, so it can be restored
+     */
+    static LootTables pin(LootTables tables) {
+        LootTables previous = pinned.get();
+        pinned.set(tables);
+        return previous;
+    }
+
+    /**
+     * Publishes a snapshot for every generation that starts from now on. Generations already
+     * running keep the snapshot they pinned.
+     * @param tables the snapshot to publish
+     */
+    static void publish(LootTables tables) {
+        if (tables == null) {
+            throw new NullPointerException("tables");
+        }
+        published = tables;
+    }
+
+    /**
+     * Reads every .table file in a directory and publishes them.
+     * @param tableDir the directory of table definitions
+     * @return the new published snapshot
+     * @throws IOException if a definition could not be read or isn't valid, in which case the
+     * published snapshot is unchanged
+     */
+    static LootTables reload(File tableDir) throws IOException {
+        LootTables tables = load(tableDir);
+        publish(tables);
+        return tables;
+    }
+
+    /**
+     * Reads every .table file in a directory, without publishing them.
+     * @param tableDir the directory of table definitions
+     * @return the snapshot
+     * @throws IOException if a definition could not be read or isn't valid
+     */
+    static LootTables load(File tableDir) throws IOException {
+        File[] files = tableDir.listFiles();
+        if (files == null) {
+            throw new IOException("No table directory at " + tableDir);
+        }
+        Arrays.sort(files);
+        HashMap<String, LootTable> tables = new HashMap<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".table")) {
+                try (Reader in = new InputStreamReader(new FileInputStream(file), UTF_8)) {
+                    add(tables, LootTable.read(in, file.getName()));
+                }
+            }
+        }
+        return validate(tables);
+    }
+
+    /**
+     * Reads a set of table definitions, without publishing them.
+     * @param definitions one reader for each table
+     * @return the snapshot
+     * @throws IOException if a definition could not be read or isn't valid
+     */
+    static LootTables read(Reader... definitions) throws IOException {
+        HashMap<String, LootTable> tables = new HashMap<>();
+        for (int i = 0; i < definitions.length; i++) {
+            add(tables, LootTable.read(definitions[i], "definition " + (i + 1)));
+        }
+        return validate(tables);
+    }
+
+    private static void add(HashMap<String, LootTable> tables, LootTable table) throws IOException {
+        if (tables.put(table.className, table) != null) {
+            throw new IOException(table.className + " is defined twice");
+        }
+    }
+
+    /**
+     * Checks a full set of tables fits the compiled ones, then makes the snapshot.
+     */
+    private static LootTables validate(HashMap<String, LootTable> tables) throws IOException {
+        LootTable jewels = matching(tables, COMPILED.jewels, "valueModifier");
+        LootTable soft = matching(tables, COMPILED.softEmbellishments, "costFactor");
+        LootTable hard = matching(tables, COMPILED.hardEmbellishments, "costFactor");
+        LootTable races = matching(tables, COMPILED.races, null);
+        if (tables.size() != 4) {
+            tables.keySet().removeAll(Arrays.asList(jewels.className, soft.className, hard.className, races.className));
+            throw new IOException("Unknown tables: " + tables.keySet());
+        }
+        if (jewels.weights[0] == jewels.total) {
+            throw new IOException(jewels.className + ": rolling for a bigger jewel can't be the only entry");
+        }
+        return new LootTables(jewels, soft, hard, races);
+    }
+
+    /**
+     * Finds the table for a compiled table, checking it has the same entries and the number
+     * column the builders use.
+     */
+    private static LootTable matching(HashMap<String, LootTable> tables, LootTable compiled, String column) throws IOException {
+        LootTable table = tables.get(compiled.className);
+        if (table == null) {
+            throw new IOException("Missing " + compiled.className);
+        }
+        if (!Arrays.equals(table.names, compiled.names)) {
+            throw new IOException(table.className + ": the entries must be the same as the compiled table's, "
+                    + "only weights and prices can be tuned");
+        }
+        if (column != null && table.column(column) == null) {
+            throw new IOException(table.className + ": missing the " + column + " column");
+        }
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return "LootTables{version=" + version + ", fingerprint=" + Long.toHexString(fingerprint) + '}';
+    }
+}
@@ -0,0 +1,284 @@
+package com.metallicim.randomtreasure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <h1>Parallel Assembler</h1>
+ * Assembles very large treasures, such as a whole caravan or dragon hoard built as one tree, on
+ * every core. The result is exactly what assembleTreasure gives, the same name, value, and
+ * structural hash, and a value that overflows throws an ArithmeticException just the same.
+ * <p>
+ * The tree is first planned in one walk that only counts components. Runs of neighbouring
+ * children that add up to about GRAIN components become tasks, which are assembled one after the
+ * other as usual, so a wide child list is split into ranges. The components above the tasks are
+ * joins. Once every task is done the joins are finished in order on the calling thread, adding up
+ * their children's values and Cost Factors one child at a time, just as assembleTreasure does.
+ * <p>
+ * The tasks never wait on each other, and the calling thread works through them as well, so an
+ * assembly can't deadlock on a busy or nested pool. With a single thread, or a tree of fewer than
+ * PARALLEL_MIN components, there is too little to share out to pay for planning, so the tree is
+ * assembled on the calling thread with assembleTreasure and is never slower than it.
+ * <p>
+ * When tracing, the events of each task are recorded in the ring of the pool thread that ran it,
+ * not the caller's, so use TreasureTrace.dumpAllThreads rather than dump to see them.
+ *
+ * @see TreasureComponent#assembleTreasure()
+ * @since 2021-3-4
+ */
+public class ParallelAssembler {
+
+    /**
+     * About how many components each task assembles. Large enough that a task takes much longer
+     * than handing it to another thread.
+     */
+    static final int GRAIN = 2048;
+
+    /**
+     * The fewest components a tree needs to be assembled on more than one thread. A smaller tree
+     * makes only one or two tasks, which isn't worth the plan and the hand off.
+     */
+    static final int PARALLEL_MIN = 4 * GRAIN;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "parallel-assembler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Returned by plan for a component that became a join
+     */
+    private static final int JOINED = -1;
+
+    /**
+     * A component whose children are assembled by tasks or by other joins
+     */
+    private static final class Join {
+        final TreasureComponent component;
+        /**
+         * The assembled form of each child, filled in by the tasks and joins below
+         */
+        final TreasureComponent[] assembled;
+        /**
+         * The children in order, each a Task for a range of them or a Join for one of them
+         */
+        final List<Object> parts = new ArrayList<>();
+        /**
+         * The join this component is a child of, null for the root
+         */
+        Join parent;
+        /**
+         * Which child of the parent this component is
+         */
+        int index;
+        TreasureComponent result;
+
+        Join(TreasureComponent component) {
+            this.component = component;
+            this.assembled = new TreasureComponent[component.componentCount()];
+        }
+    }
+
+    /**
+     * A range of a join's children, assembled one after the other
+     */
+    private static final class Task {
+        final Join parent;
+        final int from;
+        final int to;
+        /**
+         * The assembled names of the children, each followed by a space
+         */
+        StringBuilder names;
+
+        Task(Join parent, int from, int to) {
+            this.parent = parent;
+            this.from = from;
+            this.to = to;
+        }
+
+        void run() {
+            StringBuilder out = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                TreasureComponent assembled = parent.component.component(i).assembleTreasure();
+                parent.assembled[i] = assembled;
+                out.append(assembled).append(" ");
+            }
+            names = out;
+        }
+    }
+
+    private ParallelAssembler() {}
+
+    /**
+     * Assembles a treasure using every core.
+     * @param root the root of the treasure
+     * @return the same as root.assembleTreasure()
+     * @throws ArithmeticException if the value overflows, as assembleTreasure does
+     */
+    static TreasureComponent assemble(TreasureComponent root) {
+        return assemble(root, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Assembles a treasure using at most a given number of threads, counting the calling thread.
+     * @param root    the root of the treasure
+     * @param threads the most threads to use
+     * @return the same as root.assembleTreasure()
+     * @throws ArithmeticException if the value overflows, as assembleTreasure does
+     */
+    static TreasureComponent assemble(TreasureComponent root, int threads) {
+        if (threads <= 1 || countUpTo(root, PARALLEL_MIN) < PARALLEL_MIN) {
+            return root.assembleTreasure();
+        }
+        List<Task> tasks = new ArrayList<>();
+        List<Join> joins = new ArrayList<>();
+        if (plan(root, tasks, joins) != JOINED) {
+            return root.assembleTreasure();
+        }
+        runTasks(tasks, threads);
+        // the joins were planned children first, so every join's children are ready before it
+        for (Join join : joins) {
+            int length = 0;
+            for (Object part : join.parts) {
+                length += part instanceof Task ? ((Task) part).names.length() : ((Join) part).result.name().length() + 1;
+            }
+            StringBuilder fullName = new StringBuilder(length + 16);
+            for (Object part : join.parts) {
+                if (part instanceof Task) {
+                    fullName.append(((Task) part).names);
+                } else {
+                    fullName.append(((Join) part).result).append(" ");
+                }
+            }
+            join.result = join.component.assembleFromChildren(join.assembled, fullName);
+            if (join.parent != null) {
+                join.parent.assembled[join.index] = join.result;
+            }
+        }
+        return joins.get(joins.size() - 1).result;
+    }
+
+    /**
+     * Counts the components of a subtree, stopping early once there are enough
+     * @param limit the count to stop at
+     * @return the number of components, or at least limit if there are that many
+     */
+    private static int countUpTo(TreasureComponent component, int limit) {
+        int count = 1;
+        for (int i = 0; i < component.componentCount() && count < limit; i++) {
+            count += countUpTo(component.component(i), limit - count);
+        }
+        return count;
+    }
+
+    /**
+     * Plans the assembly of a subtree, adding tasks and joins for it if it is large enough.
+     * @return the number of components in the subtree if it was left for its parent's task to
+     * assemble, or JOINED if it became a join
+     */
+    private static int plan(TreasureComponent component, List<Task> tasks, List<Join> joins) {
+        int count = component.componentCount();
+        Join join = null;
+        int size = 1;
+        int rangeStart = 0;
+        int rangeSize = 0;
+        for (int i = 0; i < count; i++) {
+            int childSize = plan(component.component(i), tasks, joins);
+            if (childSize == JOINED) {
+                if (join == null) {
+                    join = new Join(component);
+                }
+                addRange(join, rangeStart, i, tasks);
+                Join child = joins.get(joins.size() - 1);
+                child.parent = join;
+                child.index = i;
+                join.parts.add(child);
+                rangeStart = i + 1;
+                rangeSize = 0;
+                continue;
+            }
+            size += childSize;
+            rangeSize += childSize;
+            if (rangeSize >= GRAIN) {
+                if (join == null) {
+                    join = new Join(component);
+                }
+                addRange(join, rangeStart, i + 1, tasks);
+                rangeStart = i + 1;
+                rangeSize = 0;
+            }
+        }
+        if (join == null) {
+            if (size < GRAIN) {
+                // small enough for the task its parent puts it in, or for the caller if it is the root
+                return size;
+            }
+            join = new Join(component);
+        }
+        addRange(join, rangeStart, count, tasks);
+        joins.add(join);
+        return JOINED;
+    }
+
+    private static void addRange(Join join, int from, int to, List<Task> tasks) {
+        if (from < to) {
+            Task task = new Task(join, from, to);
+            join.parts.add(task);
+            tasks.add(task);
+        }
+    }
+
+    /**
+     * Runs every task, on the pool and the calling thread. Each thread takes the next task not
+     * yet taken, and the calling thread only waits for tasks another thread is in the middle of.
+     */
+    private static void runTasks(final List<Task> tasks, int threads) {
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(tasks.size());
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = next.getAndIncrement()) < tasks.size()) {
+                    try {
+                        if (failure.get() == null) {
+                            tasks.get(index).run();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        int helpers = Math.min(threads, tasks.size()) - 1;
+        for (int i = 0; i < helpers; i++) {
+            EXECUTOR.execute(worker);
+        }
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while assembling a treasure", e);
+        }
+        Throwable cause = failure.get();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        if (cause != null) throw new IllegalStateException(cause);
+    }
+}
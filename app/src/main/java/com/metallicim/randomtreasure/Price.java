@@ -5,11 +5,18 @@ package com.metallicim.randomtreasure;
  */
 public class Price {
 
+    /**
+     * Fixed-point scale for Cost Factors held as a long. A fixed-point CF of CF_SCALE is a CF of
+     * 1.0. The builders' own CFs are multiples of 1/2, and a table's CFs are checked with isExactCF
+     * when it is read, so the conversion is exact.
+     */
+    static final long CF_SCALE = 1L << 16;
+
     /**
      * Value, in cents. A value of 100 is $1.00. Values are added together, then added to the
      * parent component's value.
      */
-    private int value;
+    private long value;
     /**
      * Cost Factor, or CF. Cost Factors are added together and then then price is multiplied by them.
      */
@@ -25,12 +32,12 @@ public class Price {
      * @param value the value of the price
      * @param CF    the cost factor of the price
      */
-    Price(int value, double CF) { this.value = value; this.CF = CF; }
+    Price(long value, double CF) { this.value = value; this.CF = CF; }
 
     /**
      * @param value the value to set the price to
      */
-    void setValue(int value) { this.value = value; }
+    void setValue(long value) { this.value = value; }
 
     /**
      * @param CF the cost factor to set
@@ -40,7 +47,7 @@ public class Price {
     /**
      * @return the value in cents of the price
      */
-    int value() { return value; }
+    long value() { return value; }
 
     /**
      * @return the cost factor of the price
@@ -57,6 +64,77 @@ public class Price {
         return new Price(value + other.value, CF + other.CF);
     }
 
+    /**
+     * Converts a Cost Factor to fixed-point.
+     * @param CF the cost factor
+     * @return the cost factor multiplied by CF_SCALE
+     */
+    static long toFixedCF(double CF) { return Math.round(CF * CF_SCALE); }
+
+    /**
+     * @param CF a cost factor
+     * @return true if the cost factor is a multiple of 1/CF_SCALE, so toFixedCF holds it exactly
+     */
+    static boolean isExactCF(double CF) {
+        double scaled = CF * CF_SCALE;
+        return scaled == Math.rint(scaled);
+    }
+
+    /**
+     * Converts a fixed-point Cost Factor back to a double.
+     * @param fixedCF the cost factor multiplied by CF_SCALE
+     * @return the cost factor
+     */
+    static double fromFixedCF(long fixedCF) { return fixedCF / (double) CF_SCALE; }
+
+    /**
+     * Adds two values in cents, without allocating.
+     * @param a the first value in cents
+     * @param b the second value in cents
+     * @return the sum of the two values
+     * @throws ArithmeticException if the sum overflows a long
+     */
+    static long addValues(long a, long b) {
+        long sum = a + b;
+        // overflow only happens if both values have the same sign and the sum has the other sign
+        if (((a ^ sum) & (b ^ sum)) < 0) {
+            throw new ArithmeticException("Price overflow: " + a + " + " + b);
+        }
+        return sum;
+    }
+
+    /**
+     * Multiplies a value in cents by a number of copies, without Math.multiplyExact, which isn't
+     * on older Android.
+     * @param value the value of one copy in cents
+     * @param count the number of copies, at least 0
+     * @return the value of every copy
+     * @throws ArithmeticException if the product overflows a long
+     */
+    static long multiplyValue(long value, long count) {
+        long product = value * count;
+        if (count != 0 && (product / count != value || (value == Long.MIN_VALUE && count == -1))) {
+            throw new ArithmeticException("Price overflow: " + value + " * " + count);
+        }
+        return product;
+    }
+
+    /**
+     * Applies a fixed-point Cost Factor to a value the same way assembleTreasure does: the value is
+     * multiplied by the cost factor plus one, then truncated.
+     * @param value   the value in cents
+     * @param fixedCF the cost factor multiplied by CF_SCALE
+     * @return the CF Value in cents
+     * @throws ArithmeticException if the CF Value does not fit in a long
+     */
+    static long applyCF(long value, long fixedCF) {
+        double CFValue = value * (fromFixedCF(fixedCF) + 1);
+        if (CFValue >= Long.MAX_VALUE || CFValue <= Long.MIN_VALUE) {
+            throw new ArithmeticException("Price overflow: " + value + " * " + fromFixedCF(fixedCF));
+        }
+        return (long) CFValue;
+    }
+
     @Override
     public String toString() {
         return "Price{" +
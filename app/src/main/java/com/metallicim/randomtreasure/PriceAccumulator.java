@@ -0,0 +1,111 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Price Accumulator</h1>
+ * A mutable running total of values and Cost Factors. Unlike Price.add, adding to an accumulator
+ * never allocates, so it can be reused while assembling treasures or totalling whole hoards.
+ * Values are held as a long number of cents and Cost Factors as a fixed-point long, and every
+ * addition is checked for overflow.
+ *
+ * @see Price
+ * @since 2021-2-15
+ */
+public class PriceAccumulator {
+
+    /**
+     * The total value, in cents.
+     */
+    private long value;
+    /**
+     * The total Cost Factor, multiplied by Price.CF_SCALE.
+     */
+    private long fixedCF;
+
+    /**
+     * Creates an accumulator with a value and CF of 0
+     */
+    PriceAccumulator() { value = 0; fixedCF = 0; }
+
+    /**
+     * Adds a value and Cost Factor to the running total.
+     * @param value the value in cents
+     * @param CF    the cost factor
+     * @return this accumulator
+     * @throws ArithmeticException if the total overflows
+     */
+    PriceAccumulator add(long value, double CF) {
+        this.value = Price.addValues(this.value, value);
+        this.fixedCF = Price.addValues(this.fixedCF, Price.toFixedCF(CF));
+        return this;
+    }
+
+    /**
+     * Adds the price of a component to the running total.
+     * @param component the component to add
+     * @return this accumulator
+     * @throws ArithmeticException if the total overflows
+     */
+    PriceAccumulator add(TreasureComponent component) {
+        return add(component.costValue(), component.costCF());
+    }
+
+    /**
+     * Adds the price of every treasure in a hoard to the running total.
+     * @param hoard the treasures to add, usually already assembled
+     * @return this accumulator
+     * @throws ArithmeticException if the total overflows
+     */
+    PriceAccumulator addAll(Iterable<TreasureComponent> hoard) {
+        for (TreasureComponent treasure : hoard) {
+            add(treasure);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the value and CF back to 0 so the accumulator can be reused.
+     */
+    void reset() { value = 0; fixedCF = 0; }
+
+    /**
+     * @return the total value in cents
+     */
+    long value() { return value; }
+
+    /**
+     * @return the total cost factor, multiplied by Price.CF_SCALE
+     */
+    long fixedCF() { return fixedCF; }
+
+    /**
+     * @return the total cost factor
+     */
+    double CF() { return Price.fromFixedCF(fixedCF); }
+
+    /**
+     * @return the total as a new Price object
+     */
+    Price toPrice() { return new Price(value, CF()); }
+
+    /**
+     * Sums the value of every treasure in a hoard.
+     * @param hoard the assembled treasures
+     * @return the total value in cents
+     * @throws ArithmeticException if the total overflows
+     */
+    static long totalValue(Iterable<TreasureComponent> hoard) {
+        long total = 0;
+        for (TreasureComponent treasure : hoard) {
+            total = Price.addValues(total, treasure.costValue());
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "PriceAccumulator{" +
+                "value=" + value +
+                ", CF=" + CF() +
+                '}';
+    }
+}
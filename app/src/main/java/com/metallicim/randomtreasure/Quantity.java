@@ -0,0 +1,85 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Quantity</h1>
+ * A QUANTITY component that keeps its magnitude and unit as numbers instead of only as text, so
+ * a hoard's weight or volume can be totalled without parsing names. The name, such as "1.5 oz."
+ * or "100-sq-foot bolt of", is only rendered the first time it is asked for, which for most
+ * quantities is when the treasure is assembled.
+ *
+ * @see Unit
+ * @see QuantityAccumulator
+ * @since 2021-2-24
+ */
+final class Quantity extends TreasureComponent {
+
+    private final double magnitude;
+    private final Unit unit;
+    /**
+     * What an area is sold as, such as a bolt or bundle. Null for other quantities.
+     */
+    private final String form;
+
+    /**
+     * Creates a quantity
+     * @param id        the unique identifier of the component
+     * @param magnitude the magnitude in the given unit
+     * @param unit      the unit of the magnitude
+     */
+    Quantity(int id, double magnitude, Unit unit) {
+        this(id, magnitude, unit, null);
+    }
+
+    /**
+     * Creates a quantity of something sold in a particular form, such as a 100-sq-foot bolt.
+     * @param id        the unique identifier of the component
+     * @param magnitude the magnitude in the given unit
+     * @param unit      the unit of the magnitude
+     * @param form      what the quantity is sold as, named after the magnitude
+     */
+    Quantity(int id, double magnitude, Unit unit, String form) {
+        super(id, TreasureComponentType.QUANTITY);
+        this.magnitude = magnitude;
+        this.unit = unit;
+        this.form = form;
+    }
+
+    /**
+     * @return the magnitude in the quantity's unit
+     */
+    double magnitude() { return magnitude; }
+
+    /**
+     * @return the unit of the magnitude
+     */
+    Unit unit() { return unit; }
+
+    /**
+     * @return what the quantity measures
+     */
+    Unit.Dimension dimension() { return unit.dimension(); }
+
+    /**
+     * @return the magnitude in pounds, square feet, or gallons
+     */
+    double baseMagnitude() { return unit.toBase(magnitude); }
+
+    /**
+     * Renders the name from the magnitude and unit the first time it is needed. A name set with
+     * setName is used as is.
+     * @return the name of the quantity
+     */
+    @Override
+    String name() {
+        String name = super.name();
+        if (name == null) {
+            StringBuilder out = unit.append(new StringBuilder(), magnitude);
+            if (form != null) {
+                out.append(" ").append(form).append(" of");
+            }
+            name = out.toString();
+            setName(name);
+        }
+        return name;
+    }
+}
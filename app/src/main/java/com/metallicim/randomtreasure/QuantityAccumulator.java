@@ -0,0 +1,128 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Quantity Accumulator</h1>
+ * A mutable running total of the weight, area, and volume of treasures, read from the Quantity
+ * components of unassembled treasure trees. Nothing is parsed from names, and walking a tree
+ * never allocates once the accumulator's stack has grown to the depth of the deepest tree.
+ * <p>
+ * Assembled treasures no longer have their quantities, so a hoard has to be totalled from the
+ * trees returned by TreasureKind.compose() or the compose functions of TreasureBuilder.
+ *
+ * @see Quantity
+ * @since 2021-2-24
+ */
+public class QuantityAccumulator {
+
+    private double weight;
+    private double area;
+    private double volume;
+    /**
+     * The components still to visit, reused between trees
+     */
+    private TreasureComponent[] stack = new TreasureComponent[16];
+
+    /**
+     * Creates an accumulator with every total at 0
+     */
+    QuantityAccumulator() { reset(); }
+
+    /**
+     * Adds every quantity in a treasure tree to the running totals.
+     * @param root the unassembled treasure
+     * @return this accumulator
+     */
+    QuantityAccumulator add(TreasureComponent root) {
+        TreasureComponent[] stack = this.stack;
+        int size = 0;
+        stack[size++] = root;
+        while (size > 0) {
+            TreasureComponent component = stack[--size];
+            stack[size] = null;
+            if (component instanceof Quantity) {
+                Quantity quantity = (Quantity) component;
+                switch(quantity.dimension()) {
+                    case WEIGHT: {
+                        weight += quantity.baseMagnitude();
+                    } break;
+                    case AREA: {
+                        area += quantity.baseMagnitude();
+                    } break;
+                    case VOLUME: {
+                        volume += quantity.baseMagnitude();
+                    } break;
+                }
+            }
+            int count = component.componentCount();
+            if (size + count > stack.length) {
+                TreasureComponent[] grown = new TreasureComponent[Math.max(stack.length * 2, size + count)];
+                System.arraycopy(stack, 0, grown, 0, size);
+                stack = grown;
+                this.stack = grown;
+            }
+            for (int i = 0; i < count; i++) {
+                stack[size++] = component.component(i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds every quantity in a hoard to the running totals.
+     * @param hoard the unassembled treasures
+     * @return this accumulator
+     */
+    QuantityAccumulator addAll(Iterable<TreasureComponent> hoard) {
+        for (TreasureComponent treasure : hoard) {
+            add(treasure);
+        }
+        return this;
+    }
+
+    /**
+     * Sets every total back to 0 so the accumulator can be reused.
+     */
+    void reset() { weight = 0; area = 0; volume = 0; }
+
+    /**
+     * @return the total weight in pounds
+     */
+    double weight() { return weight; }
+
+    /**
+     * @return the total area in square feet
+     */
+    double area() { return area; }
+
+    /**
+     * @return the total volume in gallons
+     */
+    double volume() { return volume; }
+
+    /**
+     * Sums the weight of every treasure in a hoard.
+     * @param hoard the unassembled treasures
+     * @return the total weight in pounds
+     */
+    static double totalWeight(Iterable<TreasureComponent> hoard) {
+        return new QuantityAccumulator().addAll(hoard).weight();
+    }
+
+    /**
+     * Sums the volume of every treasure in a hoard.
+     * @param hoard the unassembled treasures
+     * @return the total volume in gallons
+     */
+    static double totalVolume(Iterable<TreasureComponent> hoard) {
+        return new QuantityAccumulator().addAll(hoard).volume();
+    }
+
+    @Override
+    public String toString() {
+        return "QuantityAccumulator{" +
+                "weight=" + weight +
+                ", area=" + area +
+                ", volume=" + volume +
+                '}';
+    }
+}
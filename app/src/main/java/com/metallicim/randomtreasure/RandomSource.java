@@ -0,0 +1,24 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Random Source</h1>
+ * A source of random numbers for the treasure builders. Every random decision a builder makes goes
+ * through TreasureBuilder.randomInt, which draws from the random source of the current thread.
+ *
+ * @see TreasureBuilder#setRandomSource(RandomSource)
+ * @since 2021-2-16
+ */
+public interface RandomSource {
+
+    /**
+     * The default source, backed by Math.random()
+     */
+    RandomSource MATH_RANDOM = max -> (int) ((max) * Math.random());
+
+    /**
+     * Generates a random integer between 0 and max exclusive
+     * @param max the highest value to be generated
+     * @return a random integer between 0 and max exclusive
+     */
+    int nextInt(int max);
+}
@@ -0,0 +1,363 @@
+package com.metallicim.randomtreasure;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <h1>Roll Journal</h1>
+ * Records every random number a builder draws, so a treasure can be rebuilt exactly later on.
+ * Each treasure is stored as its kind, the number of draws, and then the draws themselves, all as
+ * varints. Most draws are less than 128 so they take a single byte, and a whole treasure usually
+ * takes less than ten bytes.
+ * <p>
+ * The draws only rebuild the same treasures from the same loot tables, so a journal starts with
+ * the 8 byte fingerprint of the snapshot it was recorded with. Every treasure is recorded with
+ * that snapshot pinned, and a reader refuses to replay against a snapshot with another
+ * fingerprint.
+ * <p>
+ * Records are gathered in a large buffer and written to the output stream in chunks, so recording
+ * a treasure costs a few byte writes per draw and no I/O of its own.
+ *
+ * @since 2021-2-18
+ */
+public class RollJournal {
+
+    /**
+     * The size of the write buffer, records are written to the stream once this fills up.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The length of the header, the fingerprint of the loot tables
+     */
+    static final int HEADER_LENGTH = 8;
+
+    /**
+     * The most draws one treasure may record, far more than any builder makes. A reader refuses
+     * larger counts, so a corrupt count can't make it allocate or skip without end.
+     */
+    static final int MAX_DRAWS = 1 << 20;
+
+    private final OutputStream out;
+    private final LootTables tables;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferLength;
+    private final Recorder recorder = new Recorder();
+    private long recorded;
+
+    /**
+     * A random source that passes through to another source, keeping a copy of every draw.
+     */
+    private static final class Recorder extends TableRandomSource {
+        RandomSource source;
+        byte[] draws = new byte[64];
+        int length;
+        int count;
+
+        @Override
+        public int nextInt(int max) {
+            return record(source.nextInt(max));
+        }
+
+        @Override
+        int nextInt(LootTable table) {
+            return record(TableRandomSource.nextInt(source, table));
+        }
+
+        private int record(int value) {
+            if (length + 5 > draws.length) {
+                byte[] grown = new byte[draws.length * 2];
+                System.arraycopy(draws, 0, grown, 0, length);
+                draws = grown;
+            }
+            length = writeVarint(draws, length, value);
+            count++;
+            return value;
+        }
+    }
+
+    /**
+     * Creates a journal that writes to a stream, recording with the current thread's loot tables
+     * @param out where to write the journal
+     */
+    RollJournal(OutputStream out) { this(out, LootTables.current()); }
+
+    /**
+     * Creates a journal that writes to a stream
+     * @param out    where to write the journal
+     * @param tables the loot tables every treasure is recorded with
+     */
+    RollJournal(OutputStream out, LootTables tables) {
+        this.out = out;
+        this.tables = tables;
+        for (int i = 0; i < HEADER_LENGTH; i++) {
+            buffer[bufferLength++] = (byte) (tables.fingerprint >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * Builds a treasure with the current thread's random source and adds its draws to the journal.
+     * @param kind the kind of treasure to build
+     * @return the assembled treasure
+     * @throws IOException if the journal could not be written, or the treasure made more than
+     * MAX_DRAWS draws
+     */
+    TreasureComponent record(TreasureKind kind) throws IOException {
+        recorder.length = 0;
+        recorder.count = 0;
+        TreasureComponent treasure;
+        try (Generation generation = Generation.start(tables)) {
+            recorder.source = TreasureBuilder.randomSource();
+            generation.use(recorder);
+            treasure = kind.build();
+        }
+        if (recorder.count > MAX_DRAWS) {
+            throw new IOException("A " + kind + " made " + recorder.count + " draws, more than a journal record holds");
+        }
+
+        if (bufferLength + recorder.length + 10 > buffer.length) {
+            flushBuffer();
+        }
+        if (recorder.length + 10 > buffer.length) {
+            // a record larger than the whole buffer goes straight to the stream
+            byte[] header = new byte[10];
+            int headerLength = writeVarint(header, writeVarint(header, 0, kind.ordinal()), recorder.count);
+            out.write(header, 0, headerLength);
+            out.write(recorder.draws, 0, recorder.length);
+        } else {
+            bufferLength = writeVarint(buffer, bufferLength, kind.ordinal());
+            bufferLength = writeVarint(buffer, bufferLength, recorder.count);
+            System.arraycopy(recorder.draws, 0, buffer, bufferLength, recorder.length);
+            bufferLength += recorder.length;
+        }
+        recorded++;
+        return treasure;
+    }
+
+    /**
+     * @return the number of treasures recorded so far
+     */
+    long recorded() { return recorded; }
+
+    /**
+     * Writes any buffered records to the stream and flushes it.
+     * @throws IOException if the journal could not be written
+     */
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, bufferLength);
+        bufferLength = 0;
+    }
+
+    /**
+     * <h1>Journal Reader</h1>
+     * Reads a journal back and rebuilds each treasure by replaying its draws through the builders.
+     */
+    static class Reader {
+
+        private static final int KINDS = TreasureKind.values().length;
+
+        private final InputStream in;
+        private final LootTables tables;
+        private boolean headerRead;
+        private int[] draws = new int[64];
+
+        /**
+         * Creates a reader for a journal, replaying with the current thread's loot tables
+         * @param in the journal, ideally buffered
+         */
+        Reader(InputStream in) { this(in, LootTables.current()); }
+
+        /**
+         * Creates a reader for a journal
+         * @param in     the journal, ideally buffered
+         * @param tables the loot tables to replay with, which must be the ones it was recorded with
+         */
+        Reader(InputStream in, LootTables tables) {
+            this.in = in;
+            this.tables = tables;
+        }
+
+        /**
+         * Rebuilds the next treasure in the journal.
+         * @return the treasure exactly as it was originally built, or null at the end of the journal
+         * @throws IOException if the journal could not be read, or doesn't match the builders or
+         * the loot tables
+         */
+        TreasureComponent next() throws IOException {
+            int kind = readKind();
+            if (kind < 0) {
+                return null;
+            }
+            int count = readCount();
+            for (int i = 0; i < count; i++) {
+                if (i == draws.length) {
+                    // grown as the draws arrive, so a journal cut short fails before a big allocation
+                    int[] grown = new int[Math.min(draws.length * 2, MAX_DRAWS)];
+                    System.arraycopy(draws, 0, grown, 0, i);
+                    draws = grown;
+                }
+                draws[i] = readVarint(in, false);
+            }
+            return replay(TreasureKind.fromOrdinal(kind), draws, count, tables);
+        }
+
+        /**
+         * Skips over treasures without rebuilding them.
+         * @param treasures the number of treasures to skip
+         * @throws IOException if the journal could not be read, or doesn't match the loot tables
+         */
+        void skip(long treasures) throws IOException {
+            for (long t = 0; t < treasures; t++) {
+                if (readKind() < 0) {
+                    return;
+                }
+                int count = readCount();
+                for (int i = 0; i < count; i++) {
+                    readVarint(in, false);
+                }
+            }
+        }
+
+        /**
+         * @return the ordinal of the next record's kind, or -1 at the end of the journal
+         * @throws IOException if the ordinal isn't a kind
+         */
+        private int readKind() throws IOException {
+            if (!headerRead) {
+                readHeader();
+            }
+            int kind = readVarint(in, true);
+            if (kind >= KINDS) {
+                throw new IOException("Unknown treasure kind " + kind + " in journal");
+            }
+            return kind;
+        }
+
+        /**
+         * @return the number of draws in the record
+         * @throws IOException if the count is more than MAX_DRAWS
+         */
+        private int readCount() throws IOException {
+            int count = readVarint(in, false);
+            if (count > MAX_DRAWS) {
+                throw new IOException("Journal record has " + count + " draws, more than " + MAX_DRAWS);
+            }
+            return count;
+        }
+
+        /**
+         * Checks the journal was recorded with the reader's loot tables.
+         */
+        private void readHeader() throws IOException {
+            long fingerprint = 0;
+            for (int i = 0; i < HEADER_LENGTH; i++) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Journal ended in its header");
+                }
+                fingerprint = (fingerprint << 8) | b;
+            }
+            if (fingerprint != tables.fingerprint) {
+                throw new IOException("Journal was recorded with loot tables "
+                        + Long.toHexString(fingerprint) + ", not " + Long.toHexString(tables.fingerprint));
+            }
+            headerRead = true;
+        }
+    }
+
+    /**
+     * Rebuilds a treasure from the draws recorded for it, with the current thread's loot tables.
+     * @param kind  the kind of treasure
+     * @param draws the recorded draws
+     * @param count the number of draws
+     * @return the rebuilt treasure
+     * @throws IOException if the builder doesn't use exactly the recorded draws
+     */
+    static TreasureComponent replay(TreasureKind kind, int[] draws, int count) throws IOException {
+        return replay(kind, draws, count, LootTables.current());
+    }
+
+    /**
+     * Rebuilds a treasure from the draws recorded for it.
+     * @param kind   the kind of treasure
+     * @param draws  the recorded draws
+     * @param count  the number of draws
+     * @param tables the loot tables the draws were recorded with
+     * @return the rebuilt treasure
+     * @throws IOException if the builder doesn't use exactly the recorded draws
+     */
+    static TreasureComponent replay(TreasureKind kind, final int[] draws, final int count, LootTables tables) throws IOException {
+        final int[] position = {0};
+        RandomSource replay = max -> {
+            if (position[0] >= count) {
+                throw new IllegalStateException("Journal has only " + count + " draws");
+            }
+            int value = draws[position[0]++];
+            if (value >= max) {
+                throw new IllegalStateException("Journal draw " + value + " is out of range " + max);
+            }
+            return value;
+        };
+        try (Generation generation = Generation.start(tables)) {
+            generation.use(replay);
+            TreasureComponent treasure = kind.build();
+            if (position[0] != count) {
+                throw new IOException("Journal has " + count + " draws, but only " + position[0] + " were used");
+            }
+            return treasure;
+        } catch (IllegalStateException e) {
+            throw new IOException("Journal does not match the " + kind + " builder", e);
+        }
+    }
+
+    /**
+     * Writes a non-negative int as a varint, seven bits at a time with the high bit set on every
+     * byte but the last.
+     * @return the position after the varint
+     */
+    static int writeVarint(byte[] out, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Reads a varint written by writeVarint
+     * @param in        the stream to read from
+     * @param endAllowed true if the stream may end before the varint starts
+     * @return the value, never negative, or -1 if the stream ended and endAllowed is true
+     * @throws IOException if the stream ended in the middle of a varint, or it isn't a varint
+     * writeVarint could have written
+     */
+    static int readVarint(InputStream in, boolean endAllowed) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0 && endAllowed) {
+                    return -1;
+                }
+                throw new EOFException("Journal ended in the middle of a record");
+            }
+            if (shift == 28 && (b & 0xF8) != 0) {
+                // only a negative int or a sixth byte would set these bits, and neither is written
+                throw new IOException("Malformed varint in journal");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in journal");
+    }
+}
@@ -0,0 +1,63 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Seeded Random</h1>
+ * A small, fast, seeded random source using the SplitMix64 generator. The same seed always gives
+ * the same sequence on every platform, so a treasure can be rebuilt from its seed.
+ *
+ * @since 2021-2-16
+ */
+public class SeededRandom implements RandomSource {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    /**
+     * Creates a random source from a seed
+     * @param seed the seed
+     */
+    SeededRandom(long seed) { state = seed; }
+
+    /**
+     * Creates the random source for one item of a larger run. Every item has its own independent
+     * sequence, so items can be generated in any order and still come out the same.
+     * @param seed  the seed of the whole run
+     * @param index the index of the item in the run
+     * @return the random source for that item
+     */
+    static SeededRandom forItem(long seed, long index) {
+        return new SeededRandom(mix(seed + index * GOLDEN_GAMMA));
+    }
+
+    /**
+     * @return the next 64 random bits
+     */
+    long nextLong() {
+        return mix(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * @return a random double between 0 inclusive and 1 exclusive
+     */
+    double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public int nextInt(int max) {
+        // the same scaling as Math.random(), so both sources treat max the same way
+        return (int) ((max) * nextDouble());
+    }
+
+    /**
+     * The SplitMix64 finalizer
+     * @param z the value to mix
+     * @return the mixed value
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
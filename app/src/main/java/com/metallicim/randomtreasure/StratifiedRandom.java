@@ -0,0 +1,154 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Stratified Random</h1>
+ * A random source for valuation runs, which estimate the average of many treasures rather than
+ * build one. The samples of a run share a Latin hypercube: the first draw of every sample is
+ * spread evenly over its range, one sample per stratum, and so is the second draw, the third, and
+ * so on up to a set number of dimensions. Draws past that are plain random. The estimate has the
+ * same expectation as plain sampling with much less variance, since no part of a table or die is
+ * over or under sampled by chance.
+ * <p>
+ * The draws of one loot table can also be importance sampled, drawn from a different distribution
+ * that favours rare but valuable results. The table is told apart by identity, not by its total,
+ * so dice and other tables that happen to share its total are never biased. The sample's weight
+ * is multiplied by how much more likely each biased draw was under the real distribution, so the
+ * weighted average is still unbiased.
+ * <p>
+ * Call startSample before building each sample, then multiply the sample's value by weight().
+ *
+ * @see JewelValuation
+ * @since 2021-2-28
+ */
+public class StratifiedRandom extends TableRandomSource {
+
+    private final int samples;
+    private final int dimensions;
+    /**
+     * The stratum of each sample in each dimension, each row a shuffled permutation
+     */
+    private final int[][] strata;
+    private final SeededRandom random;
+
+    private LootTable biasedTable;
+    private double[] biasedCumulative;
+    private double[] likelihoodRatio;
+
+    private int sample;
+    private int dimension;
+    private double weight;
+
+    /**
+     * Creates the source for one run
+     * @param samples    the number of samples in the run
+     * @param dimensions how many draws of each sample are stratified
+     * @param seed       the seed of the run
+     */
+    StratifiedRandom(int samples, int dimensions, long seed) {
+        if (samples < 1 || dimensions < 0) {
+            throw new IllegalArgumentException("A run needs at least one sample");
+        }
+        this.samples = samples;
+        this.dimensions = dimensions;
+        this.random = new SeededRandom(seed);
+        this.strata = new int[dimensions][samples];
+        for (int d = 0; d < dimensions; d++) {
+            int[] permutation = strata[d];
+            for (int i = 0; i < samples; i++) {
+                permutation[i] = i;
+            }
+            for (int i = samples - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = permutation[i];
+                permutation[i] = permutation[j];
+                permutation[j] = swap;
+            }
+        }
+        startSample(0);
+    }
+
+    /**
+     * Importance samples every draw from a table. A draw of n is made with the given probability
+     * instead of 1 / total, and weights the sample by (1 / total) / probability[n].
+     * @param table         the table whose draws are biased
+     * @param probabilities the probability of drawing each number, every one above 0
+     * @throws IllegalArgumentException if the probabilities don't fit the table's total or don't
+     *                                  add up to 1
+     */
+    void bias(LootTable table, double[] probabilities) {
+        int max = table.total;
+        if (probabilities.length != max) {
+            throw new IllegalArgumentException("Expected " + max + " probabilities");
+        }
+        double[] cumulative = new double[max];
+        double[] ratio = new double[max];
+        double total = 0;
+        for (int n = 0; n < max; n++) {
+            if (!(probabilities[n] > 0)) {
+                throw new IllegalArgumentException("Every number must be possible, " + n + " is not");
+            }
+            total += probabilities[n];
+            cumulative[n] = total;
+            ratio[n] = (1.0 / max) / probabilities[n];
+        }
+        if (Math.abs(total - 1) > 1e-9) {
+            throw new IllegalArgumentException("The probabilities add up to " + total);
+        }
+        biasedTable = table;
+        biasedCumulative = cumulative;
+        likelihoodRatio = ratio;
+    }
+
+    /**
+     * Starts a sample, so its draws come from its strata and its weight starts at 1.
+     * @param sample the index of the sample in the run
+     */
+    void startSample(int sample) {
+        if (sample < 0 || sample >= samples) {
+            throw new IndexOutOfBoundsException("Sample: " + sample + ", Samples: " + samples);
+        }
+        this.sample = sample;
+        this.dimension = 0;
+        this.weight = 1;
+    }
+
+    /**
+     * @return how much the current sample counts towards the estimate
+     */
+    double weight() { return weight; }
+
+    @Override
+    public int nextInt(int max) {
+        return (int) (max * nextUniform());
+    }
+
+    @Override
+    int nextInt(LootTable table) {
+        double u = nextUniform();
+        if (table != biasedTable) {
+            return (int) (table.total * u);
+        }
+        // the inverse of the biased distribution, a short scan since biased tables are small
+        int n = 0;
+        while (n < table.total - 1 && u >= biasedCumulative[n]) {
+            n++;
+        }
+        weight *= likelihoodRatio[n];
+        return n;
+    }
+
+    /**
+     * @return the next draw of the sample between 0 and 1, from its stratum if it is one of the
+     *         stratified draws
+     */
+    private double nextUniform() {
+        double u;
+        if (dimension < dimensions) {
+            u = (strata[dimension][sample] + random.nextDouble()) / samples;
+        } else {
+            u = random.nextDouble();
+        }
+        dimension++;
+        return u;
+    }
+}
@@ -0,0 +1,161 @@
+package com.metallicim.randomtreasure;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <h1>Table Definition</h1>
+ * A loot table definition as written in src/main/tables, read into its class name, columns, and
+ * rows of cells. It is the only reader of the format: LootTableGenerator builds it into buildSrc
+ * to generate the compiled tables, and LootTable.read uses it to reload them while the app is
+ * running, so the two always see the same names and numbers.
+ * <pre>
+ * # comments start with a hash
+ * class SoftEmbellishmentTable
+ * columns name weight costFactor prepend
+ * Fine Material | 2 | 2 | MADEOF
+ * </pre>
+ * The name and weight columns are required. A prepend column (NONE, MADEOF, WITH, or POSTWITH)
+ * is applied to the names, and any other column holds a number for each entry.
+ *
+ * @see LootTable
+ * @since 2021-3-5
+ */
+public final class TableDefinition {
+
+    /**
+     * The name of the class generated from the table, such as JewelTable
+     */
+    public final String className;
+    /**
+     * The names of the columns, in order
+     */
+    public final List<String> columns;
+    /**
+     * The cells of each entry, trimmed, one for each column
+     */
+    public final List<String[]> rows;
+
+    private TableDefinition(String className, List<String> columns, List<String[]> rows) {
+        this.className = className;
+        this.columns = Collections.unmodifiableList(columns);
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Reads a definition.
+     * @param in     the definition
+     * @param source where the definition came from, for error messages
+     * @return the definition
+     * @throws IOException if the definition could not be read, a row has the wrong number of
+     * cells, or the class, name, or weight column is missing
+     */
+    public static TableDefinition read(Reader in, String source) throws IOException {
+        String className = null;
+        List<String> columns = new ArrayList<>();
+        List<String[]> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            if (trimmed.startsWith("class ")) {
+                className = trimmed.substring("class ".length()).trim();
+            } else if (trimmed.startsWith("columns ")) {
+                columns.addAll(Arrays.asList(trimmed.substring("columns ".length()).trim().split("\\s+")));
+            } else {
+                String[] cells = line.split("\\|", -1);
+                if (cells.length != columns.size()) {
+                    throw new IOException(source + ":" + lineNumber + ": expected "
+                            + columns.size() + " columns but found " + cells.length);
+                }
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] = cells[i].trim();
+                }
+                rows.add(cells);
+            }
+        }
+        if (className == null || !columns.contains("name") || !columns.contains("weight")) {
+            throw new IOException(source + ": a table needs a class and name and weight columns");
+        }
+        return new TableDefinition(className, columns, rows);
+    }
+
+    /**
+     * @param name the name of a column
+     * @return the index of the column, or -1 if the table has none
+     */
+    public int column(String name) { return columns.indexOf(name); }
+
+    /**
+     * @param row the index of an entry
+     * @return the entry's name as it appears in the table
+     */
+    public String baseName(int row) { return rows.get(row)[column("name")]; }
+
+    /**
+     * @param row the index of an entry
+     * @return the entry's name with its prefix or suffix applied
+     * @throws IllegalArgumentException if the prepend isn't one of NONE, MADEOF, WITH, or POSTWITH
+     */
+    public String name(int row) {
+        int prependColumn = column("prepend");
+        return prependColumn < 0 ? baseName(row) : prepend(baseName(row), rows.get(row)[prependColumn]);
+    }
+
+    /**
+     * @param row the index of an entry
+     * @return the entry's weight
+     * @throws NumberFormatException if the weight isn't an int
+     */
+    public int weight(int row) { return Integer.parseInt(rows.get(row)[column("weight")]); }
+
+    /**
+     * @param column the index of a number column
+     * @param row    the index of an entry
+     * @return the entry's number in the column
+     * @throws NumberFormatException if the cell isn't a number
+     */
+    public double number(int column, int row) { return Double.parseDouble(rows.get(row)[column]); }
+
+    /**
+     * @param column the index of a column
+     * @return true if the column holds a number for each entry, rather than the name, weight, or
+     * prepend
+     */
+    public boolean isNumberColumn(int column) {
+        String name = columns.get(column);
+        return !name.equals("name") && !name.equals("weight") && !name.equals("prepend");
+    }
+
+    /**
+     * Applies a prepend to a name
+     * @param name    the name as it appears in the table
+     * @param prepend NONE, MADEOF, WITH, or POSTWITH
+     * @return the name with its prefix or suffix
+     * @throws IllegalArgumentException if the prepend is unknown
+     */
+    public static String prepend(String name, String prepend) {
+        switch (prepend) {
+            case "MADEOF":
+                return "made of " + name;
+            case "WITH":
+                return "with " + name;
+            case "POSTWITH":
+                return name + " with";
+            case "NONE":
+                return name;
+            default:
+                throw new IllegalArgumentException("Unknown prepend " + prepend);
+        }
+    }
+}
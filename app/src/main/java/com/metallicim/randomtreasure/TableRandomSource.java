@@ -0,0 +1,33 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Table Random Source</h1>
+ * A random source that is told which loot table it is drawing for, so it can treat some tables
+ * differently, such as a valuation biasing one table. Other random sources only see the table's
+ * total.
+ *
+ * @see StratifiedRandom
+ * @since 2021-2-28
+ */
+abstract class TableRandomSource implements RandomSource {
+
+    /**
+     * Generates a random number to draw an entry of a loot table with
+     * @param table the table being drawn from
+     * @return a random integer between 0 and the table's total exclusive
+     */
+    abstract int nextInt(LootTable table);
+
+    /**
+     * Draws an entry of a loot table from any random source, telling it the table if it can use it
+     * @param source the source to draw from
+     * @param table  the table being drawn from
+     * @return a random integer between 0 and the table's total exclusive
+     */
+    static int nextInt(RandomSource source, LootTable table) {
+        if (source instanceof TableRandomSource) {
+            return ((TableRandomSource) source).nextInt(table);
+        }
+        return source.nextInt(table.total);
+    }
+}
@@ -1,28 +1,132 @@
 package com.metallicim.randomtreasure;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.util.Arrays;
-import java.util.Locale;
-
-import javax.crypto.SealedObject;
 
 /**
  * <h1>Treasure Builder Object</h1>
  * This object holds all of the functions for building all of the treasures. Each function returns
  * a TreasureComponent that has already had all of it's sub-components assembled together.
+ * The compose functions return the same treasure before it is assembled, so a larger treasure can
+ * include it and assemble everything once at the top.
  *
  * @since 2020-1-26
  */
 public class TreasureBuilder {
 
+    /*
+     * The tables are shared by every call rather than rebuilt each time. Components reference the
+     * table entries directly, so a name from a table is never copied.
+     */
+
+    // the jewel, embellishment, and race tables are generated from src/main/tables by
+    // LootTableGenerator, and drawn through the current LootTables so they can be reloaded. Each
+    // builder reads the snapshot once and passes it down, so one treasure never mixes two snapshots
+    private static final int JEWELED_EMBELLISHMENT = Arrays.asList(HardEmbellishmentTable.BASE_NAMES).indexOf("Jeweled");
+
+    private static final String[] COMMON_ANIMALS = {"Seal", "Monkey", "Rabbit", "Fox", "Goat", "Horse", "Ox", "Deer", "Elk", "Reindeer", "Antelope", "Ibex"};
+    private static final String[] EXOTIC_ANIMALS = {"Sable", "Ermine", "Jaguar", "Lion", "Tiger", "Wolf", "Bear", "Wyvern", "Dire Wolf" , "Cave Bear", "Giant Ape", "Frost Snake"};
+
+    private static final String SOFT_CONTAINER = "in a Soft Container";
+    private static final String HARD_CONTAINER = "in a Hard Container";
+
+    static final String[] SPICES = { "Allspice", "Anise", "Annatto", "Asafetida", "Cardamom", "Cassia", "Chiles", "Cinnamon", "Clove", "Coriander", "Cumin", "Dwarven Savory Fungus", "Elven Pepperbark",
+            "Faerie Glimmerseed", "Fennel", "Fenugreek", "Ginger", "Halfling Savory", "Huajiao (Szechuan Pepper)", "Mace", "Mustard", "Nigella", "Nutmeg", "Onion Seed", "Orcish Firegrain",
+            "Black Pepper", "White Pepper", "Poppy Seed", "Saffron", "Salt", "Salt, Black", "Salt, Red", "Sumac", "Tamarind", "Tumericc", "Zeodary"};
+    // in dollars, multiply by 100 to get the component price.
+    private static final int[] SPICE_PRICES = {150, 150, 113, 75, 150, 75, 38, 150, 150, 150, 150, 75, 38, 270, 75, 150, 38, 150, 150, 225, 38, 75, 150, 38, 150, 150, 188, 38, 300, 15, 38, 38, 38, 15, 38, 150};
+    private static final String SPICE_BOOK_REFERENCE = "Dungeon Fantasy 8 p. 11";
+
+    static final String[] FIBERS = {"Cloth", "Fur", "Leather", "Fiber"};
+    private static final String[][] FIBER_TYPES = {
+            {"Otherworldly", "Giant-Spider Silk", "Gauze", "Linen", "Pashmina Wool", "Plain Silk", "Samite", "Satin", "Velvet", "Wool"},
+            {"Common", "Exotic"},
+            {"Common", "Exotic", "Contraband", "Scale-Hide", "Otherworldly"},
+            {"Linen", "Silk", "Wild Silk", "Wool", "Pashmina Wool", "Giant-Spider Silk", "Otherworldly"}};
+    static final int[][] FIBER_PROBABILITIES = {
+            {1, 1, 2, 2, 2, 2, 2, 2, 2, 1},
+            {1, 2},
+            {2, 2, 2, 2, 1},
+            {1, 1, 1, 1, 1, 1, 1}
+    };
+    private static final int[][] FIBER_PRICES = {
+            {20000, 6500, 500, 1400, 4500, 1700, 4200, 7500, 1800, 1500},
+            {20000, 50000},
+            {15000, 25000, 50000, 27500, 100000},
+            {25, 75, 65, 20, 60, 1000, 7}
+    };
+    private static final int[][] FIBER_AREAS = {{100}, {100}, {100}, {}};
+    private static final String[] FIBER_AREA_TYPES = {"bolt","bundle","bundle",""};
+    private static final double[][] FIBER_WEIGHTS = {
+            {7.5, 1, 1.5, 2.5, 4, 2, 3, 2, 5, 6},
+            {75, 75},
+            {50, 50, 25, 50, 50},
+            {}// no weight means the weight is rolled, 2d6*3 hardcoded
+    };
+    private static final SubTable[][] FIBER_SUB_TABLES = {{},
+            {SubTable.COMMONANIMAL, SubTable.EXOTICANIMAL},
+            {SubTable.COMMONANIMAL, SubTable.EXOTICANIMAL, SubTable.RACELEATHER, SubTable.NONE, SubTable.NONE},
+            {}};
+    private static final String[] FIBER_BOOK_REFERENCES = {"Dungeon Fantasy 8 p. 12", "Dungeon Fantasy 8 p. 12", "Dungeon Fantasy 8 p. 12", "Dungeon Fantasy 8 p. 13"};
+    static final int[] FIBER_CATEGORY_PROBABILITIES = {
+            ArraySum(FIBER_PROBABILITIES[0]), ArraySum(FIBER_PROBABILITIES[1]),
+            ArraySum(FIBER_PROBABILITIES[2]), ArraySum(FIBER_PROBABILITIES[3])};
+    private static final int FIBER_PROBABILITY_TOTAL = ArraySum(FIBER_CATEGORY_PROBABILITIES);
+
+    static final String[] MATERIALS = {"Ale", "Distilled Liquor", "Flavored Ale", "Flavored Brandy", "Kumiz", "Mead", "Opium", "Black Tea", "Green Tea", "Date Wine", "Grape Wine",
+            "Rice Wine", "Otherworldly Wine", "Sealing Wax", "Ambergris", "Cedar Resin", "Copal", "Frankincense", "Musk", "Myrrh", "Onycha", "Patchouli", "Sandalwood Gum",
+            "Flower Water", "Perfumed Essence", "Perfumed Oil", "Pomander", "Carmine", "Ochre", "Henna", "Indigo", "Madder", "Murex", "Orpiment", "Woad"};
+    private static final int[] MATERIAL_PRICES = {500, 1600, 750, 2000, 1500, 1100, 2000, 225, 225, 900, 900, 800, 2000, 125, 3500, 1000, 1100, 1600, 2800, 1500, 2000, 900, 850, 500, 1200, 800,
+            900, 4000, 1800, 75, 100, 3200, 200, 2900, 2200, 275};
+    private static final Unit[] MATERIAL_UNITS = {Unit.GALLON, Unit.PINT, Unit.GALLON, Unit.PINT, Unit.GALLON, Unit.GALLON, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.GALLON, Unit.GALLON, Unit.GALLON,
+            Unit.GALLON, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE,
+            Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE, Unit.OUNCE};
+    private static final String MATERIAL_BOOK_REFERENCE = "Dungeon Fantasy 8 p. 13";
+
+    /**
+     * The source of random numbers for each thread, Math.random() unless a builder has been given
+     * a seeded source.
+     */
+    private static final ThreadLocal<RandomSource> randomSource = new ThreadLocal<RandomSource>() {
+        @Override
+        protected RandomSource initialValue() {
+            return RandomSource.MATH_RANDOM;
+        }
+    };
+
     /**
      * Generates a random integer between 0 and max exclusive
      * @param max the highest value to be generated
      * @return a random integer between 0 and max exclusive
      */
     public static int randomInt(int max) {
-        return (int) ((max) * Math.random());
+        return randomSource.get().nextInt(max);
+    }
+
+    /**
+     * Generates a random number to draw an entry of a loot table with
+     * @param table the table being drawn from
+     * @return a random integer between 0 and the table's total exclusive
+     */
+    static int randomInt(LootTable table) {
+        return TableRandomSource.nextInt(randomSource.get(), table);
+    }
+
+    /**
+     * Sets the source of random numbers used by every builder on the current thread.
+     * @param source the new source of random numbers
+     * @return the source that was in use before, so it can be restored
+     */
+    public static RandomSource setRandomSource(RandomSource source) {
+        RandomSource previous = randomSource.get();
+        randomSource.set(source);
+        return previous;
+    }
+
+    /**
+     * @return the source of random numbers used by the builders on the current thread
+     */
+    public static RandomSource randomSource() {
+        return randomSource.get();
     }
 
     /**
@@ -35,6 +139,7 @@ public class TreasureBuilder {
         for (int i = 0; i < count; i++) {
             total += randomInt(6) + 1;
         }
+        TreasureTrace.roll(count, total);
         return total;
     }
 
@@ -107,137 +212,241 @@ public class TreasureBuilder {
      * @return the name, size, and cost of the jewel
      */
     public static TreasureComponent buildJewel() {
-        String[] jewels = {"", "Agate", "Azurite", "Chalcedony", "Hematite", "Jade", "Jet", "Magnetite", "Malachite", "Obsidian", "Quartz", "Amber", "Amethyst", "Calcite",
-                "Sard", "Coral", "Lapis Lazuli", "Onyx", "Tourmaline", "Turquoise", "Aquamarine", "Beryl", "Bloodstone", "Cat's Eye", "Emerald", "Garnet", "Iolite", "Moonstone",
-                "Opal", "Pearl", "Peridot", "Ruby", "Sapphire", "Topaz", "Diamond"};
-        int[] probabilities = {2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
-        double[] valueModifier = {0, 5, 10, 10, 5, 20, 10, 5, 15, 2, 15, 25, 30, 20, 25, 20, 25, 20, 25, 20, 30, 30, 30, 30, 35, 35, 30, 30, 35, 35, 30, 35, 35, 35, 40};
+        return composeJewel().assembleTreasure();
+    }
+
+    /**
+     * Build a jewel without assembling it, so it can be part of a larger treasure.
+     * @return the unassembled jewel, with its weight as a sub-component
+     */
+    static TreasureComponent composeJewel() {
+        TreasureTrace.begin(TreasureTrace.Table.JEWEL);
+        JewelRoll roll = rollJewel();
 
         TreasureComponent decoration = new TreasureComponent(0, TreasureComponentType.JEWEL);
-        TreasureComponent weight = new TreasureComponent(1, TreasureComponentType.QUANTITY);
+        decoration.setName(roll.name());
+        TreasureComponent weight = new Quantity(1, roll.weight, Unit.CARAT);
+        decoration.setCost(roll.cost(), 0);
+        decoration.addComponent(weight);
 
-        int index = selectFromProbabilityList(probabilities, randomInt(ArraySum(probabilities)));
+        return decoration;
+    }
 
-        int bigger = 0;
-        while (index == 0) {
-            index = selectFromProbabilityList(probabilities, randomInt(ArraySum(probabilities)));
-            bigger++;
+    /**
+     * The result of rolling a jewel, before any treasure components are made for it. A parent
+     * that only needs the jewel's name and value can use this directly.
+     */
+    static final class JewelRoll {
+        /**
+         * The index of the jewel in the jewel table
+         */
+        final int index;
+        /**
+         * The weight in carats
+         */
+        final double weight;
+        /**
+         * The value in cents, before truncating
+         */
+        final double costValue;
+
+        JewelRoll(int index, double weight, double costValue) {
+            this.index = index;
+            this.weight = weight;
+            this.costValue = costValue;
         }
 
-        decoration.setName(jewels[index]);
+        /**
+         * @return the name of the jewel, such as Ruby
+         */
+        String name() { return JewelTable.NAMES[index]; }
+
+        /**
+         * @return the value of the jewel in cents
+         */
+        long cost() { return (long) (costValue); }
+
+        /**
+         * Appends the name the jewel would have once assembled, such as "1.5 carat Ruby".
+         * @param out where to append the name
+         * @return out
+         */
+        StringBuilder appendAssembledName(StringBuilder out) {
+            return Unit.CARAT.append(out, weight).append(" ").append(name());
+        }
+    }
 
-        double weightValue = rollD6(2) / 4.0 + rollD6(bigger);
-        weight.setName(weightValue + " carat");
-        double costValue = (weightValue * weightValue + 4 * weightValue) * valueModifier[index] * 100.0;
-        System.out.println(costValue);
-        int cost = (int) (costValue);
-        decoration.setCost(new Price(cost, 0));
-        decoration.addComponent(weight);
+    /**
+     * Draw once from the jewel table. Index 0 means roll again for a bigger jewel.
+     * @return the index drawn from the jewel table
+     */
+    static int drawJewel() {
+        return drawJewel(LootTables.current());
+    }
 
-        return decoration.assembleTreasure();
+    private static int drawJewel(LootTables tables) {
+        int index = tables.jewels.draw();
+        TreasureTrace.draw(TreasureTrace.Table.JEWEL, index);
+        return index;
     }
 
     /**
-     * What to prepend (or in the case of POSTWITH, append) to the description of an embellishment
+     * Roll a jewel's type and weight.
+     * @return the jewel that was rolled
+     * @throws Deadline.Exceeded if the current thread's deadline expires during a chain of bigger jewels
      */
-    private enum decorativePrepend {
-        NONE,
-        MADEOF,
-        WITH,
-        POSTWITH
+    static JewelRoll rollJewel() {
+        return rollJewel(LootTables.current());
+    }
+
+    private static JewelRoll rollJewel(LootTables tables) {
+        double[] valueModifier = tables.jewelValueModifiers;
+
+        int index = drawJewel(tables);
+
+        int bigger = 0;
+        while (index == 0) {
+            // a chain of bigger jewels has no limit, so it is where a deadline can stop a build
+            Deadline.check();
+            index = drawJewel(tables);
+            bigger++;
+        }
+
+        double weightValue = rollD6(2) / 4.0 + rollD6(bigger);
+        double costValue = (weightValue * weightValue + 4 * weightValue) * valueModifier[index] * 100.0;
+        TreasureTrace.value(TreasureTrace.Table.JEWEL, (long) costValue);
+        return new JewelRoll(index, weightValue, costValue);
     }
+
     /**
      * Build a soft embellishment
      * @param id since it's rare for an embellishment to be on it's own, it can take in an ID
      * @return the embellishment and cost factor
      */
     public static TreasureComponent buildSoftEmbellishment(int id) {
-        String[] decorations = {"Fine Material", "Exceptional Material", "Dyed Cheaply", "Dyed", "Dyed Expensively", "Block Printing", "Resist Dyed", "Branding", "Cheap Patchwork", "Expensive Patchwork",
-                "Cheap Fringe", "Expensive Fringe", "Minimal Lace", "Extensive Lace", "Simple Feathers", "Elaborate Feathers", "Cheap Fur Trim", "Expensive Fur Trim", "Minimal Cheap Beading",
-                "Extensive Cheap Beading", "Minimal Expensive Beading", "Extensive Expensive Beading", "Expensive Bells", "Minimal Embroidery", "Extensive Embroidery", "Tattooed Minimally",
-                "Tattooed Extensively", "Tapestry Weaving", "Quilting", "Patchwork Quilt"};
-        int[] probabilities = {2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 2, 1, 2, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
-        double[] costFactors = {2, 19, 1.5, 4, 8, 0.5, 2.5, 0.5, 2, 5, 1, 6, 3.5, 9, 0.5, 4, 3, 8, 1.5, 4, 3, 7, 3, 10, 2, 5, 2, 6, 6, 4, 8};
-        decorativePrepend[] prepend = {decorativePrepend.MADEOF, decorativePrepend.MADEOF, decorativePrepend.NONE, decorativePrepend.NONE, decorativePrepend.NONE, decorativePrepend.WITH,
-                decorativePrepend.NONE, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH,
-                decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH,
-                decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.NONE, decorativePrepend.NONE,
-                decorativePrepend.MADEOF, decorativePrepend.MADEOF, decorativePrepend.MADEOF};
+        return buildSoftEmbellishment(id, LootTables.current());
+    }
 
+    private static TreasureComponent buildSoftEmbellishment(int id, LootTables tables) {
         TreasureComponent decoration = new TreasureComponent(id, TreasureComponentType.SOFTEMBELLISHMENT);
 
-        int index = selectFromProbabilityList(probabilities, randomInt(ArraySum(probabilities)));
+        int index = drawSoftEmbellishment(tables);
 
-        String name = decorations[index];
-        switch(prepend[index]) {
-            case MADEOF: {
-                name = "made of " + name;
-            } break;
-            case WITH: {
-                name = "with " + name;
-            } break;
-            default:
-                break;
-        }
-        decoration.setName(name);
-        decoration.setCost(new Price(0, costFactors[index]));
+        // the prefixed name is shared with every other embellishment from the same table entry
+        decoration.setName(SoftEmbellishmentTable.NAMES[index]);
+        decoration.setCost(0, tables.softCostFactors[index]);
 
         return decoration;
     }
+    /**
+     * Draw from the soft embellishment table.
+     * @return the index drawn
+     */
+    static int drawSoftEmbellishment() {
+        return drawSoftEmbellishment(LootTables.current());
+    }
+
+    private static int drawSoftEmbellishment(LootTables tables) {
+        int index = tables.softEmbellishments.draw();
+        TreasureTrace.draw(TreasureTrace.Table.SOFT_EMBELLISHMENT, index);
+        return index;
+    }
+
     /**
      * Build a hard embellishment
      * @param id since it's rare for an embellishment to be on it's own, it can take in an ID
      * @return the embellishment and cost factor or, for a jewel, the price
      */
     public static TreasureComponent buildHardEmbellishment(int id) {
-        String[] decorations = {"Fine Material", "Exceptional Material", "Cheap Fringe", "Expensive Fringe", "Minimal Beads/Nails", "Extensive Beads/Nails", "Branding",
-                "Minimal Painting/Enamel", "Extensive Painting/Enamel", "Minimal Relief", "Extensive Relief", "Minimal Cheap Inlay", "Extensive Cheap Inlay", "Minimal Expensive Inlay",
-                "Extensive Expensive Inlay", "Silver Plating", "Guilding", "Jeweled"};
-        int[] probabilities = {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
-        double[] costFactors = {2, 19, 0.25, 0.5, 0.75, 2, 1, 2, 5, 1.5, 4, 2.5, 7, 6, 14, 2, 19, 0};
-        decorativePrepend[] prepend = {decorativePrepend.MADEOF, decorativePrepend.MADEOF, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH,
-                decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH,
-                decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH, decorativePrepend.WITH,
-                decorativePrepend.POSTWITH};
+        return buildHardEmbellishment(id, LootTables.current());
+    }
 
+    private static TreasureComponent buildHardEmbellishment(int id, LootTables tables) {
         TreasureComponent decoration = new TreasureComponent(id, TreasureComponentType.HARDEMBELLISHMENT);
 
-        int index = selectFromProbabilityList(probabilities, randomInt(ArraySum(probabilities)));
+        int index = drawHardEmbellishment(tables);
+
+        // a Jewel is a special case, its jewels come from the same snapshot as the embellishment
+        if (index == JEWELED_EMBELLISHMENT) {
+            rollEmbellishmentJewels(decoration, tables);
+        } else {
+            decoration.setName(HardEmbellishmentTable.NAMES[index]);
+            decoration.setCost(0, tables.hardCostFactors[index]);
+        }
+
+        return decoration;
+    }
+
+    /**
+     * Roll the jewels of a Jeweled hard embellishment, and set its name and price from them.
+     * @param decoration the Jeweled embellishment
+     * @param tables     the snapshot to draw the jewels from
+     */
+    private static void rollEmbellishmentJewels(TreasureComponent decoration, LootTables tables) {
+        StringBuilder name = new StringBuilder(HardEmbellishmentTable.NAMES[JEWELED_EMBELLISHMENT]);
+        int count = 0;
+        long cost = 0;
+        name.append(" a");
+        int jewels = randomInt(2) + 1;
+        TreasureTrace.draw(TreasureTrace.Table.JEWEL_COUNT, jewels);
+        for (int i = jewels; i > 0; i--) {
+            count++;
+            // only the name and value of the jewel are needed, so it is never assembled
+            JewelRoll jewel = rollJewel(tables);
+
+            jewel.appendAssembledName(name.append(" ").append(count > 1 ? "and " : ""));
+            cost += jewel.cost();
+        }
+        decoration.setName(name.toString());
+        decoration.setCost(cost, 0);
+    }
 
-        StringBuilder name = new StringBuilder(decorations[index]);
-        switch(prepend[index]) {
-            case MADEOF: {
-                name.insert(0, "made of ");
+    /**
+     * Re-roll a soft or hard embellishment in place, keeping whatever it decorates. The treasure
+     * it belongs to only reassembles the path from it to the root on the next reassemble().
+     * @param decoration the embellishment to re-roll
+     */
+    static void rerollEmbellishment(TreasureComponent decoration) {
+        LootTables tables = LootTables.current();
+        TreasureComponent rolled;
+        switch(decoration.type()) {
+            case SOFTEMBELLISHMENT: {
+                rolled = buildSoftEmbellishment(decoration.ID(), tables);
             } break;
-            case WITH: {
-                name.insert(0, "with ");
+            case HARDEMBELLISHMENT: {
+                rolled = buildHardEmbellishment(decoration.ID(), tables);
             } break;
-            case POSTWITH: {
-                name.append(" with");
-            }break;
             default:
-                break;
+                throw new IllegalArgumentException("Not an embellishment: " + decoration.type());
         }
+        decoration.setName(rolled.name());
+        decoration.setCost(rolled.costValue(), rolled.costCF());
+    }
 
-        // a Jewel is a special case
-        if (decorations[index].equals("Jeweled")) {
-            int count = 0;
-            int cost = 0;
-            name.append(" a");
-            for (int i = randomInt(2) + 1; i > 0; i--) {
-                count++;
-                TreasureComponent jewel = buildJewel();
-
-                name.append(" ").append(count > 1 ? "and " : "").append(jewel.name());
-                cost += jewel.cost().value();
-            }
-            decoration.setCost(new Price(cost, 0));
-        } else {
-            decoration.setCost(new Price(0, costFactors[index]));
+    /**
+     * Re-roll only the jewels of a Jeweled hard embellishment, keeping it Jeweled.
+     * @param decoration the Jeweled embellishment
+     */
+    static void rerollEmbellishmentJewels(TreasureComponent decoration) {
+        if (decoration.type() != TreasureComponentType.HARDEMBELLISHMENT
+                || !decoration.name().startsWith(HardEmbellishmentTable.NAMES[JEWELED_EMBELLISHMENT] + " ")) {
+            throw new IllegalArgumentException("Not a Jeweled embellishment: " + decoration.name());
         }
-        decoration.setName(name.toString());
+        rollEmbellishmentJewels(decoration, LootTables.current());
+    }
 
-        return decoration;
+    /**
+     * Draw from the hard embellishment table.
+     * @return the index drawn
+     */
+    static int drawHardEmbellishment() {
+        return drawHardEmbellishment(LootTables.current());
+    }
+
+    private static int drawHardEmbellishment(LootTables tables) {
+        int index = tables.hardEmbellishments.draw();
+        TreasureTrace.draw(TreasureTrace.Table.HARD_EMBELLISHMENT, index);
+        return index;
     }
 
     /**
@@ -245,11 +454,17 @@ public class TreasureBuilder {
      * @return a fantasy race (including human)
      */
     public static String rollRaceLeather() {
-        String[] races = {"Cat-Folk", "Coleopteran", "Corpse-Eater", "Dark One", "Dwarf", "Half-Elf", "High Elf", "Mountain Elf", "Sea Elf", "Shadow Elf", "Winged Elf", "Wood Elf", "Faun",
-                "Leprecaun", "Nymph", "Pixie", "Gargoyle", "Gnome", "Goblin", "Half-Orc", "Hobgoblin", "Orc", "Halfling", "Celestial", "Elder-Spawn", "Infernal", "Human", "Air-Infused", "Earth-Infused",
-                "Fire-Infused", "Water-Infused", "Minotaur", "Half-Ogre", "Ogre", "Dragon-Blooded", "Lizard Man", "Troll", "Wildman"};
-        int[] probabilities = {1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 1, 4, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
-        return races[selectFromProbabilityList(probabilities, randomInt(ArraySum(probabilities)))];
+        return RaceTable.NAMES[drawRace()];
+    }
+
+    /**
+     * Draw from the race table.
+     * @return the index drawn
+     */
+    static int drawRace() {
+        int index = LootTables.current().races.draw();
+        TreasureTrace.draw(TreasureTrace.Table.RACE, index);
+        return index;
     }
 
     /**
@@ -258,14 +473,15 @@ public class TreasureBuilder {
      * @return a Treasure Component with it's name equal to the randomly generated animal
      */
     public static TreasureComponent buildAnimal(SubTable type) {
-        String[] commonAnimals = {"Seal", "Monkey", "Rabbit", "Fox", "Goat", "Horse", "Ox", "Deer", "Elk", "Reindeer", "Antelope", "Ibex"};
-        String[] exoticAnimals = {"Sable", "Ermine", "Jaguar", "Lion", "Tiger", "Wolf", "Bear", "Wyvern", "Dire Wolf" , "Cave Bear", "Giant Ape", "Frost Snake"};
-        String[] animals = commonAnimals;
+        String[] animals = COMMON_ANIMALS;
         if (type == SubTable.EXOTICANIMAL) {
-            animals = exoticAnimals;
+            animals = EXOTIC_ANIMALS;
         }
         TreasureComponent animal = new TreasureComponent(0, TreasureComponentType.TYPE);
-        animal.setName(animals[randomInt(animals.length)]);
+        int index = randomInt(animals.length);
+        TreasureTrace.draw(type == SubTable.EXOTICANIMAL ?
+                TreasureTrace.Table.EXOTIC_ANIMAL : TreasureTrace.Table.COMMON_ANIMAL, index);
+        animal.setName(animals[index]);
 
         return animal;
     }
@@ -276,15 +492,20 @@ public class TreasureBuilder {
      * @return the embellished container
      */
     public static TreasureComponent buildMaterialContainer(TreasureComponent contents) {
+        return buildMaterialContainer(contents, LootTables.current());
+    }
+
+    private static TreasureComponent buildMaterialContainer(TreasureComponent contents, LootTables tables) {
         TreasureComponent embellishment;
         boolean softMaterial = randomInt(2) == 0;
+        TreasureTrace.draw(TreasureTrace.Table.CONTAINER, softMaterial ? 0 : 1);
         if (softMaterial) { // flip a coin
-            embellishment = buildSoftEmbellishment(2);
+            embellishment = buildSoftEmbellishment(2, tables);
         } else {
-            embellishment = buildHardEmbellishment(2);
+            embellishment = buildHardEmbellishment(2, tables);
         }
         TreasureComponent container = new TreasureComponent(3, TreasureComponentType.CONTAINER);
-        container.setName("in a " + (softMaterial ? "Soft" : "Hard") + " Container");
+        container.setName(softMaterial ? SOFT_CONTAINER : HARD_CONTAINER);
         container.addComponent(contents);
         embellishment.addComponent(container);
         return embellishment;
@@ -296,42 +517,98 @@ public class TreasureBuilder {
      *         value of the spice set as the cost.
      */
     public static TreasureComponent buildSpice() {
+        return composeSpice().assembleTreasure();
+    }
+
+    /**
+     * Build a spice without assembling it, so it can be part of a larger treasure.
+     * @return the unassembled spice, in its container if it is decorative
+     */
+    static TreasureComponent composeSpice() {
+        TreasureTrace.begin(TreasureTrace.Table.SPICE);
         // apply properties from the parent treasure table
+        int properties = rollProperties();
+        int multiplier = propertiesMultiplier(properties);
+        boolean decorative = propertiesDecorative(properties);
+
+        TreasureComponent spice = buildSpice(drawSpice());
+        addSpiceWeight(spice, multiplier);
+
+        return decorative ? buildMaterialContainer(spice) : spice;
+    }
+
+    /**
+     * Roll on the parent treasure table for the properties of a spice, fiber, or other material.
+     * @return the properties roll, see propertiesMultiplier and propertiesDecorative
+     */
+    static int rollProperties() {
         int properties = randomInt(12);
+        TreasureTrace.draw(TreasureTrace.Table.PROPERTIES, properties);
+        return properties;
+    }
+
+    /**
+     * @param properties the properties roll
+     * @return how many times larger than normal the quantity is
+     */
+    static int propertiesMultiplier(int properties) {
         int multiplier = 1;
         if (properties >= 6 && properties <= 8) {
             multiplier = 2;
         } else if (properties >= 9) {
             multiplier = 3;
         }
-        int decorative = 0;
-        if (properties == 5 || properties == 8 || properties == 11) {
-            decorative = 1;
-        }
+        return multiplier;
+    }
+
+    /**
+     * @param properties the properties roll
+     * @return true if the material comes in a decorated container
+     */
+    static boolean propertiesDecorative(int properties) {
+        return properties == 5 || properties == 8 || properties == 11;
+    }
+
+    /**
+     * Draw from the spice table.
+     * @return the index of the spice
+     */
+    static int drawSpice() {
+        int spiceNum = randomInt(SPICES.length);
+        TreasureTrace.draw(TreasureTrace.Table.SPICE, spiceNum);
+        return spiceNum;
+    }
 
-        String[] spices = { "Allspice", "Anise", "Annatto", "Asafetida", "Cardamom", "Cassia", "Chiles", "Cinnamon", "Clove", "Coriander", "Cumin", "Dwarven Savory Fungus", "Elven Pepperbark",
-                "Faerie Glimmerseed", "Fennel", "Fenugreek", "Ginger", "Halfling Savory", "Huajiao (Szechuan Pepper)", "Mace", "Mustard", "Nigella", "Nutmeg", "Onion Seed", "Orcish Firegrain",
-                "Black Pepper", "White Pepper", "Poppy Seed", "Saffron", "Salt", "Salt, Black", "Salt, Red", "Sumac", "Tamarind", "Tumericc", "Zeodary"};
-        // in dollars, multiply by 100 to get the component price.
-        int[] prices = {150, 150, 113, 75, 150, 75, 38, 150, 150, 150, 150, 75, 38, 270, 75, 150, 38, 150, 150, 225, 38, 75, 150, 38, 150, 150, 188, 38, 300, 15, 38, 38, 38, 15, 38, 150};
+    /**
+     * Build a spice from its index in the table, without a weight.
+     * @param spiceNum the index drawn by drawSpice
+     * @return the spice, with its name, price, and book reference set
+     */
+    static TreasureComponent buildSpice(int spiceNum) {
+        String[] spices = SPICES;
+        int[] prices = SPICE_PRICES;
         // generate the spice
         TreasureComponent spice = new TreasureComponent(0, TreasureComponentType.SPICE);
-        int spiceNum = randomInt(spices.length);
         spice.setName(spices[spiceNum]);
-        spice.setCost(new Price(prices[spiceNum]*100, 0));
-        spice.setBookReference("Dungeon Fantasy 8 p. 11");
+        spice.setCost(prices[spiceNum]*100, 0);
+        spice.setBookReference(SPICE_BOOK_REFERENCE);
+        return spice;
+    }
 
+    /**
+     * Roll the weight of a spice and add it to the spice.
+     * @param spice      the spice built by buildSpice
+     * @param multiplier the multiplier from the properties roll
+     */
+    static void addSpiceWeight(TreasureComponent spice, int multiplier) {
         // generate the weight
-        TreasureComponent weight = new TreasureComponent(1, TreasureComponentType.QUANTITY);
         double weightValue = rollD6(1) / 2.0;
         weightValue *= multiplier;
-        weight.setName(new DecimalFormat("0.0", DecimalFormatSymbols.getInstance(Locale.ENGLISH)).format(weightValue) + " oz");
-        weight.setCost(new Price(0, weightValue - 1));
+        TreasureComponent weight = new Quantity(1, weightValue, Unit.SPICE_OUNCE);
+        weight.setCost(0, weightValue - 1);
 
         // apply the weight to the spice
         spice.addComponent(weight);
-
-        return decorative > 0 ? buildMaterialContainer(spice).assembleTreasure() : spice.assembleTreasure();
     }
 
     /* For debugging
@@ -360,94 +637,90 @@ public class TreasureBuilder {
      * describing it's cost, type, weight, and area if applicable.
      */
     public static TreasureComponent buildFiber() {
+        return composeFiber().assembleTreasure();
+    }
+
+    /**
+     * Build a fiber, fabric, leather, or fur without assembling it, so it can be part of a larger
+     * treasure.
+     * @return the unassembled fiber
+     */
+    static TreasureComponent composeFiber() {
+        TreasureTrace.begin(TreasureTrace.Table.FIBER);
         // apply properties from the parent treasure table
-        int properties = randomInt(12);
-        int multiplier = 1;
-        if (properties >= 6 && properties <= 8) {
-            multiplier = 2;
-        } else if (properties >= 9) {
-            multiplier = 3;
-        }
+        int multiplier = propertiesMultiplier(rollProperties());
 
-        String[] fibers = {"Cloth", "Fur", "Leather", "Fiber"};
-        String[][] types = {
-                {"Otherworldly", "Giant-Spider Silk", "Gauze", "Linen", "Pashmina Wool", "Plain Silk", "Samite", "Satin", "Velvet", "Wool"},
-                {"Common", "Exotic"},
-                {"Common", "Exotic", "Contraband", "Scale-Hide", "Otherworldly"},
-                {"Linen", "Silk", "Wild Silk", "Wool", "Pashmina Wool", "Giant-Spider Silk", "Otherworldly"}};
-        int[][] probabilities = {
-                {1, 1, 2, 2, 2, 2, 2, 2, 2, 1},
-                {1, 2},
-                {2, 2, 2, 2, 1},
-                {1, 1, 1, 1, 1, 1, 1}
-        };
-        int[][] prices = {
-                {20000, 6500, 500, 1400, 4500, 1700, 4200, 7500, 1800, 1500},
-                {20000, 50000},
-                {15000, 25000, 50000, 27500, 100000},
-                {25, 75, 65, 20, 60, 1000, 7}
-        };
-        int[][] areas = {{100}, {100}, {100}, {}};
-        String[] areaType = {"bolt","bundle","bundle",""};
-        double[][] weights = {
-                {7.5, 1, 1.5, 2.5, 4, 2, 3, 2, 5, 6},
-                {75, 75},
-                {50, 50, 25, 50, 50},
-                {}// no weight means the weight is rolled, 2d6*3 hardcoded
-        };
-        SubTable[][] subTable = {{},
-                {SubTable.COMMONANIMAL, SubTable.EXOTICANIMAL},
-                {SubTable.COMMONANIMAL, SubTable.EXOTICANIMAL, SubTable.RACELEATHER, SubTable.NONE, SubTable.NONE},
-                {}};
-        int[] page = {12, 12, 12, 13};
-
-        // create a list of how probable each category is
-        int[] probabilityCategories = new int[probabilities.length];
-        for (int i = 0; i < probabilityCategories.length; i++) {
-            probabilityCategories[i] += ArraySum(probabilities[i]);
-        }
+        // select a random element from the table
+        int num = drawFiber();
+
+        return buildFiber(num, multiplier);
+    }
+
+    /**
+     * Draw from the fiber table. The number drawn selects both the category and the entry.
+     * @return the number drawn, to be passed to buildFiber
+     */
+    static int drawFiber() {
+        int num = randomInt(FIBER_PROBABILITY_TOTAL);
+        TreasureTrace.draw(TreasureTrace.Table.FIBER, num);
+        return num;
+    }
+
+    /**
+     * Build a fiber, fabric, leather, or fur from a number drawn from the fiber table. This rolls
+     * the weight and any sub table, but does not assemble the treasure.
+     * @param num        the number drawn by drawFiber
+     * @param multiplier the multiplier from the properties roll
+     * @return the unassembled fiber
+     */
+    static TreasureComponent buildFiber(int num, int multiplier) {
+        String[] fibers = FIBERS;
+        String[][] types = FIBER_TYPES;
+        int[][] probabilities = FIBER_PROBABILITIES;
+        int[][] prices = FIBER_PRICES;
+        int[][] areas = FIBER_AREAS;
+        String[] areaType = FIBER_AREA_TYPES;
+        double[][] weights = FIBER_WEIGHTS;
+        SubTable[][] subTable = FIBER_SUB_TABLES;
+
+        // how probable each category is
+        int[] probabilityCategories = FIBER_CATEGORY_PROBABILITIES;
 
         // create all of the components that are likely to be used with this treasure
         int id = 0;
         TreasureComponent fiber = new TreasureComponent(id++, TreasureComponentType.FIBER);
-        TreasureComponent weight = new TreasureComponent(id++, TreasureComponentType.QUANTITY);
-        TreasureComponent area = new TreasureComponent(0, TreasureComponentType.QUANTITY);
         TreasureComponent type = new TreasureComponent(0, TreasureComponentType.TYPE);
 
-        // select a random element from the table
-        int num = randomInt(ArraySum(probabilityCategories));
+        // find the element drawn from the table
         int fiberCategory = selectFromProbabilityList(probabilityCategories, num);
         fiber.setName(fibers[fiberCategory]);
         int index = selectFromProbabilityList(
                 probabilities[fiberCategory], num - PartialArraySum(probabilityCategories, fiberCategory));
 
         // book reference
-        fiber.setBookReference("Dungeon Fantasy 8 p. " + page[fiberCategory]);
+        fiber.setBookReference(FIBER_BOOK_REFERENCES[fiberCategory]);
 
         // cost
-        fiber.setCost(new Price(prices[fiberCategory][index], 0));
+        fiber.setCost(prices[fiberCategory][index], 0);
 
         // weight
         double weightValue;
+        double weightCF = 0;
         if (weights[fiberCategory].length == 0) {
             weightValue = rollD6(2) * 3;
-            weight.setCost(new Price(0, weightValue - 1));
+            weightCF = weightValue - 1;
         } else {
             weightValue = weights[fiberCategory][index];
         }
         weightValue *= multiplier;
-        if (weightValue == 1) {
-            weight.setName("1 lb.");
-        } else {
-            weight.setName(weightValue + " lbs.");
-        }
+        TreasureComponent weight = new Quantity(id++, weightValue, Unit.POUND);
+        weight.setCost(0, weightCF);
         fiber.addComponent(weight);
 
         // area
         if (areas[fiberCategory].length != 0) {
-            area.setName((areas[fiberCategory][0] * multiplier) + "-sq-foot " + areaType[fiberCategory] + " of");
-            area.setID(id++);
-            area.setCost(new Price(0, multiplier - 1));
+            TreasureComponent area = new Quantity(id++, areas[fiberCategory][0] * multiplier, Unit.SQUARE_FOOT, areaType[fiberCategory]);
+            area.setCost(0, multiplier - 1);
             fiber.addComponent(area);
         }
 
@@ -472,74 +745,71 @@ public class TreasureBuilder {
             }
         }
 
-        return fiber.assembleTreasure();
+        return fiber;
     }
 
-    /**
-     * Unit enum used for the buildOtherMaterial function
-     */
-    private enum unit {
-        NONE,
-        GALLON,
-        PINT,
-        OZ
-    }
     /**
      * Build another material such as a beverage, perfume, dye, etc.
      * @return the material, cost, and quantity
      */
     public static TreasureComponent buildOtherMaterial() {
+        return composeOtherMaterial().assembleTreasure();
+    }
+
+    /**
+     * Build another material without assembling it, so it can be part of a larger treasure.
+     * @return the unassembled material, in its container if it is decorative
+     */
+    static TreasureComponent composeOtherMaterial() {
+        TreasureTrace.begin(TreasureTrace.Table.MATERIAL);
         // apply properties from the parent treasure table
-        int properties = randomInt(12);
-        int multiplier = 1;
-        if (properties >= 6 && properties <= 8) {
-            multiplier = 2;
-        } else if (properties >= 9) {
-            multiplier = 3;
-        }
-        int decorative = 0;
-        if (properties == 5 || properties == 8 || properties == 11) {
-            decorative = 1;
-        }
+        int properties = rollProperties();
+        int multiplier = propertiesMultiplier(properties);
+        boolean decorative = propertiesDecorative(properties);
+
+        int index = drawOtherMaterial();
+        TreasureComponent material = buildOtherMaterial(index);
+        addOtherMaterialQuantity(material, index, multiplier);
 
-        String[] materials = {"Ale", "Distilled Liquor", "Flavored Ale", "Flavored Brandy", "Kumiz", "Mead", "Opium", "Black Tea", "Green Tea", "Date Wine", "Grape Wine",
-        "Rice Wine", "Otherworldly Wine", "Sealing Wax", "Ambergris", "Cedar Resin", "Copal", "Frankincense", "Musk", "Myrrh", "Onycha", "Patchouli", "Sandalwood Gum",
-        "Flower Water", "Perfumed Essence", "Perfumed Oil", "Pomander", "Carmine", "Ochre", "Henna", "Indigo", "Madder", "Murex", "Orpiment", "Woad"};
-        int[] prices = {500, 1600, 750, 2000, 1500, 1100, 2000, 225, 225, 900, 900, 800, 2000, 125, 3500, 1000, 1100, 1600, 2800, 1500, 2000, 900, 850, 500, 1200, 800,
-                900, 4000, 1800, 75, 100, 3200, 200, 2900, 2200, 275};
-        unit[] units = {unit.GALLON, unit.PINT, unit.GALLON, unit.PINT, unit.GALLON, unit.GALLON, unit.OZ, unit.OZ, unit.OZ, unit.GALLON, unit.GALLON, unit.GALLON,
-                unit.GALLON, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ,
-                unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ, unit.OZ};
+        return decorative ? buildMaterialContainer(material) : material;
+    }
+
+    /**
+     * Draw from the other material table.
+     * @return the index of the material
+     */
+    static int drawOtherMaterial() {
+        int index = randomInt(MATERIALS.length);
+        TreasureTrace.draw(TreasureTrace.Table.MATERIAL, index);
+        return index;
+    }
 
+    /**
+     * Build another material from its index in the table, without a quantity.
+     * @param index the index drawn by drawOtherMaterial
+     * @return the material, with its name, price, and book reference set
+     */
+    static TreasureComponent buildOtherMaterial(int index) {
         // generate the material
         TreasureComponent material = new TreasureComponent(0, TreasureComponentType.MATERIAL);
-        int index = randomInt(materials.length);
-        material.setName(materials[index]);
-        material.setCost(new Price(prices[index], 0));
-        material.setBookReference("Dungeon Fantasy 8 p. 13");
+        material.setName(MATERIALS[index]);
+        material.setCost(MATERIAL_PRICES[index], 0);
+        material.setBookReference(MATERIAL_BOOK_REFERENCE);
+        return material;
+    }
 
+    /**
+     * Roll the quantity of another material and add it to the material.
+     * @param material   the material built by buildOtherMaterial
+     * @param index      the index of the material in the table
+     * @param multiplier the multiplier from the properties roll
+     */
+    static void addOtherMaterialQuantity(TreasureComponent material, int index, int multiplier) {
         // generate the quantity
-        TreasureComponent quantity = new TreasureComponent(1, TreasureComponentType.QUANTITY);
         double quantityValue = rollD6(1) + 1;
         quantityValue *= multiplier;
-        StringBuilder unitString = new StringBuilder();
-        switch(units[index]) {
-            case OZ: {
-                unitString.append("oz.");
-            } break;
-            case GALLON: {
-                unitString.append("gallon").append(quantityValue == 1 ? "" : "s");
-            } break;
-            case PINT: {
-                unitString.append("pint").append(quantityValue == 1 ? "" : "s");
-            } break;
-            default:
-                break;
-        }
-        quantity.setName(new DecimalFormat("0.0", DecimalFormatSymbols.getInstance(Locale.ENGLISH)).format(quantityValue) + " " + unitString.toString());
-        quantity.setCost(new Price(0, quantityValue - 1));
+        TreasureComponent quantity = new Quantity(1, quantityValue, MATERIAL_UNITS[index]);
+        quantity.setCost(0, quantityValue - 1);
         material.addComponent(quantity);
-
-        return decorative > 0 ? buildMaterialContainer(material).assembleTreasure() : material.assembleTreasure();
     }
 }
@@ -0,0 +1,311 @@
+package com.metallicim.randomtreasure;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Treasure Cache</h1>
+ * A bounded, thread safe cache of seeded treasures, keyed by kind and seed. A shared campaign link
+ * resolves to the same treasure every time, so once it is built it can be served from here.
+ * <p>
+ * The key also holds the version of the loot tables the treasure was built from, so a treasure is
+ * never served from a snapshot other than the current one. Treasures of older snapshots are no
+ * longer found after a publish, and are evicted as they fall out of use.
+ * <p>
+ * Each treasure is weighed by the number of components it was built from, and the least recently
+ * used treasures are evicted once the total weight goes over the limit. When several threads miss
+ * on the same key at once only one of them builds the treasure, the rest wait for it.
+ * <p>
+ * A large cache is split into stripes by key, each with its own lock, its own share of the weight
+ * limit, and its own least recently used order, so lookups of different keys rarely wait on each
+ * other. A cache too small to give each stripe a useful share has a single stripe.
+ * <p>
+ * Every lookup returns a copy of the cached treasure, so a caller that renames or re-rolls what it
+ * got changes only its own copy, never the treasure other callers are served.
+ *
+ * @since 2021-2-21
+ */
+public class TreasureCache {
+
+    /**
+     * A kind, a seed, and the version of the tables
+     */
+    private static final class Key {
+        final TreasureKind kind;
+        final long seed;
+        final long version;
+
+        Key(TreasureKind kind, long seed, long version) {
+            this.kind = kind;
+            this.seed = seed;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return kind == other.kind && seed == other.seed && version == other.version;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * kind.ordinal() + (int) (seed ^ (seed >>> 32))) + (int) version;
+        }
+    }
+
+    /**
+     * A cached treasure and its weight
+     */
+    private static final class Entry {
+        final TreasureComponent treasure;
+        final int weight;
+
+        Entry(TreasureComponent treasure, int weight) {
+            this.treasure = treasure;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * One stripe of the cache. Guarded by itself.
+     */
+    private static final class Stripe {
+        /**
+         * The stripe's treasures, least recently used first
+         */
+        final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long weight;
+    }
+
+    /**
+     * The most stripes a cache is split into
+     */
+    static final int MAX_STRIPES = 16;
+    /**
+     * The least weight each stripe may hold, so the treasures evicted from a stripe are close to
+     * the least recently used of the whole cache
+     */
+    static final long MIN_STRIPE_WEIGHT = 1024;
+
+    private final long stripeMaxWeight;
+    private final Stripe[] stripes;
+    /**
+     * Treasures that are being built right now
+     */
+    private final ConcurrentHashMap<Key, FutureTask<Entry>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache
+     * @param maxWeight the most components the cached treasures may have been built from in total
+     */
+    TreasureCache(long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be positive");
+        }
+        int stripeCount = 1;
+        while (stripeCount < MAX_STRIPES && maxWeight / (stripeCount * 2) >= MIN_STRIPE_WEIGHT) {
+            stripeCount *= 2;
+        }
+        this.stripeMaxWeight = maxWeight / stripeCount;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Gets the treasure for a kind and seed, building it if it isn't cached.
+     * @param kind the kind of treasure
+     * @param seed the seed
+     * @return a copy of the assembled treasure, the same as kind.build(seed, 0), for the caller
+     * to keep or change
+     */
+    TreasureComponent get(final TreasureKind kind, final long seed) {
+        final LootTables tables = LootTables.current();
+        final Key key = new Key(kind, seed, tables.version);
+        Entry entry = lookup(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.treasure.copyAssembled();
+        }
+        misses.incrementAndGet();
+
+        FutureTask<Entry> task = new FutureTask<>(new Callable<Entry>() {
+            @Override
+            public Entry call() {
+                // another thread may have finished loading the key between the lookup missing and
+                // this thread claiming it, and its entry is inserted before it stops loading
+                Entry cached = lookup(key);
+                if (cached != null) {
+                    return cached;
+                }
+                loads.incrementAndGet();
+                Entry loaded = load(kind, seed, tables);
+                insert(key, loaded);
+                return loaded;
+            }
+        });
+        FutureTask<Entry> existing = loading.putIfAbsent(key, task);
+        if (existing != null) {
+            return await(existing).treasure.copyAssembled();
+        }
+        try {
+            task.run();
+            return await(task).treasure.copyAssembled();
+        } finally {
+            // the entry is inserted before it stops loading, so other threads always find one
+            loading.remove(key, task);
+        }
+    }
+
+    private Stripe stripeOf(Key key) {
+        // spread the seed's low bits, which neighbouring seeds share, over the stripes
+        int hash = key.hashCode() * 0x9E3779B9;
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * @return the cached entry for a key, marking it recently used, or null if there is none
+     */
+    private Entry lookup(Key key) {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.entries.get(key);
+        }
+    }
+
+    /**
+     * Builds a treasure and weighs it by the number of components it was built from
+     */
+    private static Entry load(TreasureKind kind, long seed, LootTables tables) {
+        try (Generation generation = Generation.start(tables)) {
+            generation.seed(seed, 0);
+            TreasureComponent composed = kind.compose();
+            return new Entry(composed.assembleTreasure(), countComponents(composed));
+        }
+    }
+
+    private static Entry await(FutureTask<Entry> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a treasure", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void insert(Key key, Entry entry) {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            Entry replaced = stripe.entries.put(key, entry);
+            if (replaced != null) {
+                stripe.weight -= replaced.weight;
+            }
+            stripe.weight += entry.weight;
+            Iterator<Map.Entry<Key, Entry>> eldest = stripe.entries.entrySet().iterator();
+            while (stripe.weight > stripeMaxWeight && eldest.hasNext()) {
+                Map.Entry<Key, Entry> evicted = eldest.next();
+                if (evicted.getValue() == entry) {
+                    // never evict the treasure that was just added
+                    continue;
+                }
+                stripe.weight -= evicted.getValue().weight;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Counts a component and all of its sub-components
+     * @param component the root of the tree
+     * @return the number of components in the tree
+     */
+    static int countComponents(TreasureComponent component) {
+        int count = 1;
+        for (int i = 0; i < component.componentCount(); i++) {
+            count += countComponents(component.component(i));
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of treasures in the cache
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the total weight of the treasures in the cache
+     */
+    long weight() {
+        long weight = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                weight += stripe.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * @return the number of stripes the cache is split into
+     */
+    int stripes() { return stripes.length; }
+
+    /**
+     * @return the number of lookups that found a cached treasure
+     */
+    long hits() { return hits.get(); }
+
+    /**
+     * @return the number of lookups that did not find a cached treasure
+     */
+    long misses() { return misses.get(); }
+
+    /**
+     * @return the number of treasures built, which is less than misses when lookups shared a build
+     */
+    long loads() { return loads.get(); }
+
+    /**
+     * @return the number of treasures evicted to stay under the weight limit
+     */
+    long evictions() { return evictions.get(); }
+
+    @Override
+    public String toString() {
+        return "TreasureCache{" +
+                "size=" + size() +
+                ", weight=" + weight() +
+                ", hits=" + hits() +
+                ", misses=" + misses() +
+                ", loads=" + loads() +
+                ", evictions=" + evictions() +
+                '}';
+    }
+}
@@ -1,7 +1,5 @@
 package com.metallicim.randomtreasure;
 
-import java.util.LinkedList;
-
 /**
  * <h1>Treasure Component</h1>
  * The treasure component holds information about each individual
@@ -14,13 +12,90 @@ import java.util.LinkedList;
 
 public class TreasureComponent {
 
+    /**
+     * The initial size of the child array, most components have at most two children.
+     */
+    private static final int INITIAL_CAPACITY = 2;
+
     private int id;
     private TreasureComponentType type;
+    /**
+     * The name of the component. Names that come from a table are references to the shared table
+     * entry rather than copies, so every Salt shares the same String.
+     */
     private String name;
     private String bookReference;
     private String description;
-    private Price cost;
-    private LinkedList<TreasureComponent> components;
+    /**
+     * The value of the component in cents, held inline rather than in a Price object.
+     */
+    private long value;
+    /**
+     * The cost factor of the component, held inline rather than in a Price object.
+     */
+    private double CF;
+    /**
+     * The child components. This is null until the first child is added, since most components
+     * are leaves such as quantities and types.
+     */
+    private TreasureComponent[] components;
+    private int componentCount;
+    /**
+     * The cached assembly of this subtree, made by reassemble(). This is null for trees that are
+     * only ever assembled once with assembleTreasure, so they pay for a single reference.
+     */
+    private Aggregate aggregate;
+    /**
+     * For an assembled treasure, the structural hash of the tree it was assembled from. It is
+     * worked out alongside the name and value, so it costs no extra walk of the tree. It fits in
+     * what was padding, so it adds nothing to the size of a component.
+     */
+    private int sourceHash;
+
+    /**
+     * What assembling a subtree produced, kept so a change to one component only reassembles
+     * the components between it and the root.
+     * <p>
+     * A node's name is never stored on its own. Instead the root keeps the full name, and every
+     * node keeps the span of it that its subtree produced, relative to the start of its parent's
+     * span. A clean subtree keeps the same relative spans wherever it moves to in the full name,
+     * so it can be copied from the old name in one piece.
+     */
+    static final class Aggregate {
+        /**
+         * The parent when the subtree was last assembled, null for the root
+         */
+        TreasureComponent parent;
+        /**
+         * True if this component or one of its descendants has changed since it was assembled.
+         * A dirty component always has dirty ancestors.
+         */
+        boolean dirty = true;
+        /**
+         * The assembled value in cents
+         */
+        long value;
+        /**
+         * The sum of the immediate children's cost factors, multiplied by Price.CF_SCALE
+         */
+        long childFixedCF;
+        /**
+         * Where the subtree's name starts within the parent's name
+         */
+        int nameOffset;
+        /**
+         * The length of the subtree's name
+         */
+        int nameLength;
+        /**
+         * The structural hash of the subtree
+         */
+        int hash;
+        /**
+         * The full assembled name, only kept on the root
+         */
+        String name;
+    }
 
     /**
      * This method creates a default empty treasure component with an ID 0 and a type of EMPTY.
@@ -28,8 +103,6 @@ public class TreasureComponent {
     TreasureComponent(){
         id = 0;
         type = TreasureComponentType.EMPTY;
-        components = new LinkedList<>();
-        cost = new Price();
     }
 
     /**
@@ -41,8 +114,6 @@ public class TreasureComponent {
     TreasureComponent(int id, TreasureComponentType type){
         this.id = id;
         this.type = type;
-        components = new LinkedList<>();
-        cost = new Price();
     }
 
     /**
@@ -59,7 +130,7 @@ public class TreasureComponent {
     /**
      * @param name the name or value of the component
      */
-    void setName(String name) { this.name = name; }
+    void setName(String name) { this.name = name; invalidate(); }
 
     /**
      * @param bookReference The book reference of the component. This should be in the style of
@@ -78,12 +149,64 @@ public class TreasureComponent {
      * @param cost The monetary value of the component, or the amount that the component modifies
      *             the monetary value of the parent component.
      */
-    void setCost(Price cost) { this.cost = cost; }
+    void setCost(Price cost) { this.value = cost.value(); this.CF = cost.CF(); invalidate(); }
+
+    /**
+     * Sets the value and cost factor directly, without going through a Price object.
+     * @param value the value in cents
+     * @param CF    the cost factor
+     */
+    void setCost(long value, double CF) { this.value = value; this.CF = CF; invalidate(); }
 
     /**
      * @param component the component to add as a child of this component
      */
-    void addComponent(TreasureComponent component) { components.addLast(component); }
+    void addComponent(TreasureComponent component) {
+        if (components == null) {
+            components = new TreasureComponent[INITIAL_CAPACITY];
+        } else if (componentCount == components.length) {
+            TreasureComponent[] grown = new TreasureComponent[componentCount * 2];
+            System.arraycopy(components, 0, grown, 0, componentCount);
+            components = grown;
+        }
+        components[componentCount++] = component;
+        invalidate();
+    }
+
+    /**
+     * Replaces one child with a new subtree, such as a re-rolled part of the treasure. Only the
+     * new subtree and the components between this one and the root are reassembled by the next
+     * call to reassemble().
+     * @param index       the index of the child to replace
+     * @param replacement the new child
+     * @return the child that was replaced
+     */
+    TreasureComponent replaceComponent(int index, TreasureComponent replacement) {
+        TreasureComponent replaced = component(index);
+        if (replaced.aggregate != null) {
+            // its span is no longer in the full name
+            replaced.aggregate.parent = null;
+        }
+        components[index] = replacement;
+        invalidate();
+        return replaced;
+    }
+
+    /**
+     * @return the number of child components
+     */
+    int componentCount() { return componentCount; }
+
+    /**
+     * @param index the index of the child, in the order it was added
+     * @return the child component at that index
+     */
+    TreasureComponent component(int index) {
+        if (index < 0 || index >= componentCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + componentCount);
+        }
+        return components[index];
+    }
 
     /**
      * @return the unique identifier of the component
@@ -116,7 +239,17 @@ public class TreasureComponent {
      * @return returns the monetary value of the component, or the amount that the component
      *         modifies the monetary value of the parent component.
      */
-    Price cost() { return cost; }
+    Price cost() { return new Price(value, CF); }
+
+    /**
+     * @return the value in cents of the component, without allocating a Price
+     */
+    long costValue() { return value; }
+
+    /**
+     * @return the cost factor of the component, without allocating a Price
+     */
+    double costCF() { return CF; }
 
     /**
      * This function assembles the full name and price of the treasure, taking into account all
@@ -125,33 +258,227 @@ public class TreasureComponent {
      */
     TreasureComponent assembleTreasure() {
         StringBuilder fullName = new StringBuilder();
-        Price costAccumulator  = new Price();
-        TreasureComponent out  = new TreasureComponent();
+        PriceAccumulator costAccumulator = new PriceAccumulator();
+        int hash = localHash();
 
-        for (TreasureComponent component : components) {
+        for (int i = 0; i < componentCount; i++) {
+            TreasureComponent component = components[i];
             TreasureComponent assembled = component.assembleTreasure();
             fullName.append(assembled).append(" ");
-            costAccumulator = costAccumulator.add(
-                    new Price (assembled.cost().value(), component.cost().CF()));
+            costAccumulator.add(assembled.value, component.CF);
+            hash = 31 * hash + assembled.sourceHash;
+        }
+
+        return finishAssembly(costAccumulator, hash, fullName);
+    }
+
+    /**
+     * Finishes assembling this component once its children have been assembled somewhere else,
+     * giving exactly what assembleTreasure gives. ParallelAssembler uses this for the components
+     * whose children it assembled in parallel.
+     * @param assembled the assembled form of each child, in order
+     * @param fullName  the assembled names of the children, each followed by a space
+     * @return a new treasure component with all the costs and names combined together
+     */
+    TreasureComponent assembleFromChildren(TreasureComponent[] assembled, StringBuilder fullName) {
+        PriceAccumulator costAccumulator = new PriceAccumulator();
+        int hash = localHash();
+        for (int i = 0; i < componentCount; i++) {
+            costAccumulator.add(assembled[i].value, components[i].CF);
+            hash = 31 * hash + assembled[i].sourceHash;
         }
+        return finishAssembly(costAccumulator, hash, fullName);
+    }
+
+    /**
+     * Applies this component's value and name on top of its assembled children.
+     */
+    private TreasureComponent finishAssembly(PriceAccumulator costAccumulator, int hash, StringBuilder fullName) {
+        TreasureComponent out  = new TreasureComponent();
 
         // CF Value is the value of the component multiplied by the cost factor plus one
         // only the Cost Factor of the immediate children affect the CF value. This is
         // intentional and desirable.
-        int CFValue = (int) (cost.value() * (costAccumulator.CF() + 1));
+        TreasureTrace.applyCF(type, costAccumulator.fixedCF());
+        long CFValue = Price.applyCF(value, costAccumulator.fixedCF());
         // first the CF Value is calculated, then the value of the sub-components are added to that.
         // it is important the sub-component values are not added before the CFValue is calculated.
-        out.setCost(new Price(CFValue + costAccumulator.value(), 0));
+        out.setCost(Price.addValues(CFValue, costAccumulator.value()), 0);
 
-        out.setName(fullName.append(name).toString());
+        out.setName(fullName.append(name()).toString());
+        out.sourceHash = hash;
 
         return out;
     }
 
+    /**
+     * Copies an assembled treasure, so the copy can be changed without changing a treasure that
+     * is shared, such as one in a TreasureCache.
+     * @return a new component with the same fields and sourceHash
+     * @throws IllegalStateException if this component has children, as only assembled treasures
+     * can be copied
+     */
+    TreasureComponent copyAssembled() {
+        if (componentCount > 0) {
+            throw new IllegalStateException("Only an assembled treasure can be copied");
+        }
+        TreasureComponent copy = new TreasureComponent(id, type);
+        copy.name = name();
+        copy.bookReference = bookReference;
+        copy.description = description;
+        copy.value = value;
+        copy.CF = CF;
+        copy.sourceHash = sourceHash;
+        return copy;
+    }
+
+    /**
+     * Marks this component and its ancestors as needing to be reassembled. The ancestors of a
+     * dirty component are already dirty, so this stops at the first one it finds.
+     */
+    void invalidate() {
+        for (TreasureComponent component = this;
+             component != null && component.aggregate != null && !component.aggregate.dirty;
+             component = component.aggregate.parent) {
+            component.aggregate.dirty = true;
+        }
+    }
+
+    /**
+     * Assembles the treasure like assembleTreasure, but keeps what each component assembled to.
+     * After a change to part of the tree, only the changed components and the path from them to
+     * the root are assembled again, and the rest of the name is copied in one piece.
+     * <p>
+     * This should be called on the root of the treasure. Calling it on a component that was
+     * assembled as part of a larger treasure makes that component a root of its own.
+     * @return a new treasure component with the same name and value assembleTreasure gives
+     */
+    TreasureComponent reassemble() {
+        if (aggregate == null) {
+            aggregate = new Aggregate();
+        }
+        if (aggregate.dirty || aggregate.parent != null) {
+            // copied out once so clean spans can be appended in bulk
+            char[] old = aggregate.parent == null && aggregate.name != null ? aggregate.name.toCharArray() : null;
+            StringBuilder fullName = new StringBuilder(old == null ? 64 : old.length + 64);
+            refresh(null, old, 0, 0, fullName);
+            aggregate.name = fullName.toString();
+        }
+        TreasureComponent out = new TreasureComponent();
+        out.setCost(aggregate.value, 0);
+        out.setName(aggregate.name);
+        out.sourceHash = aggregate.hash;
+        return out;
+    }
+
+    /**
+     * Brings the aggregate of this subtree up to date and appends its name.
+     * @param parent      the parent component, or null for the root
+     * @param old         the full name from the last assembly, or null if the subtree wasn't in it
+     * @param oldStart    where this subtree's name started in the old full name
+     * @param parentStart where the parent's name starts in the new full name
+     * @param fullName    the new full name
+     */
+    private void refresh(TreasureComponent parent, char[] old, int oldStart, int parentStart, StringBuilder fullName) {
+        Aggregate aggregate = this.aggregate;
+        if (aggregate == null) {
+            aggregate = this.aggregate = new Aggregate();
+        }
+        // a subtree that was moved here from somewhere else can't be copied from the old name
+        if (aggregate.parent != parent) {
+            old = null;
+        }
+        int start = fullName.length();
+        if (!aggregate.dirty && old != null) {
+            fullName.append(old, oldStart, aggregate.nameLength);
+        } else {
+            PriceAccumulator costAccumulator = new PriceAccumulator();
+            int hash = localHash();
+            for (int i = 0; i < componentCount; i++) {
+                TreasureComponent component = components[i];
+                Aggregate child = component.aggregate;
+                int childStart = old == null || child == null ? 0 : oldStart + child.nameOffset;
+                component.refresh(this, old, childStart, start, fullName);
+                fullName.append(" ");
+                costAccumulator.add(component.aggregate.value, component.CF);
+                hash = 31 * hash + component.aggregate.hash;
+            }
+            aggregate.hash = hash;
+            aggregate.childFixedCF = costAccumulator.fixedCF();
+            long CFValue = Price.applyCF(value, aggregate.childFixedCF);
+            aggregate.value = Price.addValues(CFValue, costAccumulator.value());
+            fullName.append(name());
+            aggregate.nameLength = fullName.length() - start;
+            aggregate.dirty = false;
+        }
+        aggregate.parent = parent;
+        aggregate.nameOffset = start - parentStart;
+    }
+
+    /**
+     * @return for an assembled treasure, the structural hash of the tree it was assembled from,
+     * the same as structuralHash() on that tree. 0 for components that weren't made by assembly.
+     */
+    int sourceHash() { return sourceHash; }
+
+    /**
+     * Works out the structural hash of this tree, from every component's type, name, value, Cost
+     * Factor, book reference, and description, and the order of the children. IDs are left out,
+     * since they only tell components apart. Assembling the tree gives the same hash as sourceHash.
+     * @return the structural hash
+     */
+    int structuralHash() {
+        int hash = localHash();
+        for (int i = 0; i < componentCount; i++) {
+            hash = 31 * hash + components[i].structuralHash();
+        }
+        return hash;
+    }
+
+    /**
+     * The hash of this component's own fields, without its children
+     */
+    private int localHash() {
+        int hash = type.ordinal();
+        hash = 31 * hash + hashOf(name());
+        hash = 31 * hash + (int) (value ^ (value >>> 32));
+        long bits = Double.doubleToLongBits(CF);
+        hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+        hash = 31 * hash + hashOf(bookReference);
+        hash = 31 * hash + hashOf(description);
+        return 31 * hash + componentCount;
+    }
+
+    /**
+     * Checks two trees have the same structure, the same fields structuralHash is worked out from.
+     * @param other the root of the other tree
+     * @return true if the trees are structurally equal
+     */
+    boolean structurallyEquals(TreasureComponent other) {
+        if (other == this) return true;
+        if (other == null || type != other.type || value != other.value || componentCount != other.componentCount
+                || Double.doubleToLongBits(CF) != Double.doubleToLongBits(other.CF)
+                || !equal(name(), other.name()) || !equal(bookReference, other.bookReference)
+                || !equal(description, other.description)) {
+            return false;
+        }
+        for (int i = 0; i < componentCount; i++) {
+            if (!components[i].structurallyEquals(other.components[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // java.util.Objects isn't available before Android API 19
+    private static int hashOf(String s) { return s == null ? 0 : s.hashCode(); }
+
+    private static boolean equal(String a, String b) { return a == null ? b == null : a.equals(b); }
+
     /**
      * Converts TreasureComponent to a string.
      * @return the name of the TreasureComponent
      */
     @Override
-    public String toString() { return name; }
+    public String toString() { return name(); }
 }
@@ -13,6 +13,7 @@ public enum TreasureComponentType {
     EMPTY,
     /**
      * The quantity of the parent component. Could be the weight in lbs or oz, area in square feet, or volume in gallons.
+     * Quantities built by TreasureBuilder are Quantity components, with the magnitude and unit as numbers.
      */
     QUANTITY,
     /**
@@ -0,0 +1,383 @@
+package com.metallicim.randomtreasure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <h1>Treasure Exporter</h1>
+ * Writes treasures as CSV or JSON straight to a channel. Text is encoded as UTF-8 directly into a
+ * single buffer that is reused for the whole export, and the buffer is only written to the
+ * channel when it fills up, so exporting a large hoard never builds the whole dump in memory. A
+ * caller that exports often can pass in one buffer for every export rather than have each
+ * exporter allocate its own.
+ * <p>
+ * Each treasure is written with its full name, value in cents, type, and book reference, and
+ * optionally its component tree. The exporter takes treasures before they are assembled, since
+ * assembling a treasure drops everything but the name and value.
+ *
+ * @since 2021-2-22
+ */
+public class TreasureExporter {
+
+    /**
+     * The size of the output buffer an exporter allocates when it isn't given one
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * The smallest buffer an exporter can be given, room for any one UTF-8 character
+     */
+    static final int MIN_BUFFER_SIZE = 4;
+
+    /**
+     * The formats a hoard can be exported in
+     */
+    enum Format {
+        /**
+         * A header row, then one row per treasure
+         */
+        CSV,
+        /**
+         * A JSON array with one object per treasure, one per line
+         */
+        JSON
+    }
+
+    private final WritableByteChannel channel;
+    private final Format format;
+    private final boolean includeTree;
+    private final ByteBuffer buffer;
+    /**
+     * Reused for each JSON string, escaped before it is encoded
+     */
+    private final StringBuilder jsonString = new StringBuilder();
+    private long items;
+    private long bytes;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * Creates an exporter with a buffer of its own. Nothing is written until the first treasure or
+     * finish.
+     * @param channel     where to write the export
+     * @param format      CSV or JSON
+     * @param includeTree true to include each treasure's component tree
+     */
+    TreasureExporter(WritableByteChannel channel, Format format, boolean includeTree) {
+        this(channel, format, includeTree, ByteBuffer.allocateDirect(BUFFER_SIZE));
+    }
+
+    /**
+     * Creates an exporter that writes through the caller's buffer, which can be reused for the
+     * next export once this one is finished. Nothing is written until the first treasure or finish.
+     * @param channel     where to write the export
+     * @param format      CSV or JSON
+     * @param includeTree true to include each treasure's component tree
+     * @param buffer      the buffer to encode into, whatever it holds is discarded
+     * @throws IllegalArgumentException if the buffer is smaller than MIN_BUFFER_SIZE
+     */
+    TreasureExporter(WritableByteChannel channel, Format format, boolean includeTree, ByteBuffer buffer) {
+        if (buffer.capacity() < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("The buffer must hold at least " + MIN_BUFFER_SIZE + " bytes");
+        }
+        this.channel = channel;
+        this.format = format;
+        this.includeTree = includeTree;
+        this.buffer = buffer;
+        buffer.clear();
+    }
+
+    /**
+     * Writes the start of the export, the header row or opening bracket
+     */
+    private void start() throws IOException {
+        started = true;
+        if (format == Format.CSV) {
+            put(includeTree ? "name,cents,type,bookReference,tree\n" : "name,cents,type,bookReference\n");
+        } else {
+            put('[');
+        }
+    }
+
+    /**
+     * Assembles a treasure and writes it.
+     * @param composed the unassembled treasure
+     * @throws IOException if the channel could not be written
+     * @throws IllegalStateException if the export is finished
+     */
+    void write(TreasureComponent composed) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The export is already finished");
+        }
+        if (!started) {
+            start();
+        }
+        TreasureComponent assembled = composed.assembleTreasure();
+        TreasureComponent principal = principal(composed);
+        if (format == Format.CSV) {
+            putCsvString(assembled.name());
+            put(',');
+            putLong(assembled.costValue());
+            put(',');
+            put(principal.type().name());
+            put(',');
+            putCsvString(principal.bookReference());
+            if (includeTree) {
+                put(',');
+                put('"');
+                putCsvTree(composed);
+                put('"');
+            }
+        } else {
+            put(items == 0 ? "\n" : ",\n");
+            put("{\"name\":");
+            putJsonString(assembled.name());
+            put(",\"cents\":");
+            putLong(assembled.costValue());
+            put(",\"type\":\"");
+            put(principal.type().name());
+            put("\",\"bookReference\":");
+            putJsonString(principal.bookReference());
+            if (includeTree) {
+                put(",\"tree\":");
+                putJsonTree(composed);
+            }
+            put('}');
+        }
+        if (format == Format.CSV) {
+            put('\n');
+        }
+        items++;
+    }
+
+    /**
+     * Generates treasures from a seed and writes each one as soon as it is built.
+     * @param kind  the kind of treasure
+     * @param seed  the seed of the run
+     * @param first the index of the first treasure
+     * @param count the number of treasures
+     * @throws IOException if the channel could not be written
+     * @throws IllegalStateException if the export is finished
+     */
+    void export(TreasureKind kind, long seed, long first, long count) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The export is already finished");
+        }
+        try (Generation generation = Generation.start()) {
+            for (long index = first; index < first + count; index++) {
+                generation.seed(seed, index);
+                write(kind.compose());
+            }
+        }
+    }
+
+    /**
+     * Writes the end of the export and flushes everything to the channel. The channel is left open,
+     * and finishing again only flushes.
+     * @throws IOException if the channel could not be written
+     */
+    void finish() throws IOException {
+        if (!started) {
+            start();
+        }
+        if (!finished) {
+            if (format == Format.JSON) {
+                put("\n]\n");
+            }
+            finished = true;
+        }
+        flushBuffer();
+    }
+
+    /**
+     * @return the number of treasures written
+     */
+    long items() { return items; }
+
+    /**
+     * @return the number of bytes written to the channel so far
+     */
+    long bytes() { return bytes; }
+
+    /**
+     * The component that gives a treasure its type and book reference: the first spice, fiber,
+     * material, or jewel in the tree, or the root if there isn't one. A decorated spice has an
+     * embellishment at its root, but it is still a spice.
+     */
+    static TreasureComponent principal(TreasureComponent root) {
+        TreasureComponent found = findPrincipal(root);
+        return found != null ? found : root;
+    }
+
+    private static TreasureComponent findPrincipal(TreasureComponent component) {
+        switch (component.type()) {
+            case SPICE:
+            case FIBER:
+            case MATERIAL:
+            case JEWEL:
+                return component;
+            default:
+                break;
+        }
+        for (int i = 0; i < component.componentCount(); i++) {
+            TreasureComponent found = findPrincipal(component.component(i));
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a tree as TYPE:name[child; child], inside an already quoted CSV field
+     */
+    private void putCsvTree(TreasureComponent component) throws IOException {
+        put(component.type().name());
+        put(':');
+        putEscaped(component.name(), '"', "\"\"");
+        if (component.componentCount() > 0) {
+            put('[');
+            for (int i = 0; i < component.componentCount(); i++) {
+                if (i > 0) put("; ");
+                putCsvTree(component.component(i));
+            }
+            put(']');
+        }
+    }
+
+    private void putJsonTree(TreasureComponent component) throws IOException {
+        put("{\"type\":\"");
+        put(component.type().name());
+        put("\",\"name\":");
+        putJsonString(component.name());
+        put(",\"cents\":");
+        putLong(component.costValue());
+        put(",\"CF\":");
+        put(Double.toString(component.costCF()));
+        if (component.componentCount() > 0) {
+            put(",\"components\":[");
+            for (int i = 0; i < component.componentCount(); i++) {
+                if (i > 0) put(',');
+                putJsonTree(component.component(i));
+            }
+            put(']');
+        }
+        put('}');
+    }
+
+    private void putCsvString(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        put('"');
+        putEscaped(value, '"', "\"\"");
+        put('"');
+    }
+
+    /**
+     * Writes a JSON string, escaped the same way as TreasureNdjson's
+     */
+    private void putJsonString(String value) throws IOException {
+        jsonString.setLength(0);
+        TreasureNdjson.appendString(jsonString, value);
+        for (int i = 0; i < jsonString.length(); i++) {
+            putChar(jsonString, i);
+            if (Character.isHighSurrogate(jsonString.charAt(i)) && i + 1 < jsonString.length()) i++;
+        }
+    }
+
+    /**
+     * Writes a string, replacing one character with a replacement string
+     */
+    private void putEscaped(String value, char special, String replacement) throws IOException {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == special) {
+                put(replacement);
+            } else {
+                putChar(value, i);
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()) i++;
+            }
+        }
+    }
+
+    /**
+     * Writes a decimal number without going through a String
+     */
+    private void putLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            put(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            put((char) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    /**
+     * Writes an ASCII string. Only used for text this class controls.
+     */
+    private void put(String ascii) throws IOException {
+        for (int i = 0; i < ascii.length(); i++) {
+            put(ascii.charAt(i));
+        }
+    }
+
+    /**
+     * Writes an ASCII character
+     */
+    private void put(char ascii) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put((byte) ascii);
+    }
+
+    /**
+     * Writes the character at an index as UTF-8, combining it with the next character if they are
+     * a surrogate pair
+     */
+    private void putChar(CharSequence value, int index) throws IOException {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            put(c);
+            return;
+        }
+        int codePoint = Character.codePointAt(value, index);
+        if (buffer.remaining() < 4) {
+            flushBuffer();
+        }
+        if (codePoint < 0x800) {
+            buffer.put((byte) (0xC0 | (codePoint >> 6)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        } else if (codePoint < 0x10000) {
+            buffer.put((byte) (0xE0 | (codePoint >> 12)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        } else {
+            buffer.put((byte) (0xF0 | (codePoint >> 18)));
+            buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,119 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Treasure Hoard</h1>
+ * A hoard of whole treasures that keeps each distinct treasure once, with a count of how many of
+ * it there are. Large hoards hold many identical treasures, such as several 3.0 oz Salts or the
+ * same plain container, and those take the memory and the lines of a single treasure.
+ * <p>
+ * Treasures are rendered grouped, one line for each distinct treasure in the order it was first
+ * added, such as "3.0 oz Salt &times;4".
+ *
+ * @see TreasureInterner
+ * @since 2021-3-3
+ */
+public class TreasureHoard {
+
+    private final TreasureInterner interner = new TreasureInterner();
+    private int[] counts = new int[64];
+    private long total;
+
+    /**
+     * Adds a treasure to the hoard.
+     * @param composed the unassembled treasure, such as from TreasureKind.compose()
+     * @return the index of the treasure's group
+     */
+    int add(TreasureComponent composed) {
+        int index = interner.intern(composed);
+        if (index == counts.length) {
+            int[] grown = new int[counts.length * 2];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+        counts[index]++;
+        total++;
+        return index;
+    }
+
+    /**
+     * Generates treasures from a seed and adds them, the same treasures as
+     * TreasureKind.build(seed, index) for every index from first.
+     * @param kind  the kind of treasure
+     * @param seed  the seed of the run
+     * @param first the index of the first treasure
+     * @param count the number of treasures
+     */
+    void add(TreasureKind kind, long seed, long first, int count) {
+        try (Generation generation = Generation.start()) {
+            for (long index = first; index < first + count; index++) {
+                generation.seed(seed, index);
+                add(kind.compose());
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct treasures
+     */
+    int size() { return interner.size(); }
+
+    /**
+     * @return the number of treasures added, counting every copy
+     */
+    long totalCount() { return total; }
+
+    /**
+     * @param index the index of a group
+     * @return the treasure of the group, unassembled
+     */
+    TreasureComponent treasure(int index) { return interner.tree(index); }
+
+    /**
+     * @param index the index of a group
+     * @return the treasure of the group, assembled
+     */
+    TreasureComponent assembled(int index) { return interner.assembled(index); }
+
+    /**
+     * @param index the index of a group
+     * @return how many copies of the treasure are in the hoard
+     */
+    int count(int index) {
+        interner.tree(index);
+        return counts[index];
+    }
+
+    /**
+     * @return the value of every treasure in the hoard in cents, counting every copy
+     * @throws ArithmeticException if the total overflows
+     */
+    long totalValue() {
+        long value = 0;
+        for (int index = 0; index < interner.size(); index++) {
+            value = Price.addValues(value, Price.multiplyValue(interner.assembled(index).costValue(), counts[index]));
+        }
+        return value;
+    }
+
+    /**
+     * Renders the hoard one line for each distinct treasure, with a count after the ones there
+     * are several of.
+     * @param out where to append the lines
+     * @return out
+     */
+    StringBuilder render(StringBuilder out) {
+        for (int index = 0; index < interner.size(); index++) {
+            out.append(interner.assembled(index).name());
+            if (counts[index] > 1) {
+                out.append(" \u00D7").append(counts[index]);
+            }
+            out.append('\n');
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return render(new StringBuilder()).toString();
+    }
+}
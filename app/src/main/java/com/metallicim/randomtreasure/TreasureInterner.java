@@ -0,0 +1,128 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Treasure Interner</h1>
+ * An interning table of treasure trees. Each structurally distinct tree is kept once, and every
+ * tree equal to it is looked up to the same canonical copy and index. Trees are found by the
+ * structural hash assembly already works out, and only compared in full when the hashes match.
+ * <p>
+ * Whole treasures are interned rather than their subtrees, so a canonical tree is never shared as
+ * part of another tree. Reassembling a tree relies on each component having a single parent.
+ *
+ * @see TreasureHoard
+ * @since 2021-3-3
+ */
+public class TreasureInterner {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The canonical trees in the order they were first seen
+     */
+    private TreasureComponent[] trees = new TreasureComponent[INITIAL_CAPACITY];
+    /**
+     * The assembled form of each canonical tree
+     */
+    private TreasureComponent[] assembled = new TreasureComponent[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size;
+    /**
+     * Open addressing table of index + 1, 0 for an empty slot. Kept at most half full.
+     */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * Interns a tree, assembling it to get its structural hash.
+     * @param composed the unassembled tree
+     * @return the index of the canonical tree
+     */
+    int intern(TreasureComponent composed) {
+        return intern(composed, composed.assembleTreasure());
+    }
+
+    /**
+     * Interns a tree that has already been assembled.
+     * @param composed  the unassembled tree
+     * @param assembled what the tree assembled to
+     * @return the index of the canonical tree, which is composed itself if it is new
+     */
+    int intern(TreasureComponent composed, TreasureComponent assembled) {
+        int hash = assembled.sourceHash();
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        for (int entry; (entry = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            int index = entry - 1;
+            if (hashes[index] == hash && trees[index].structurallyEquals(composed)) {
+                return index;
+            }
+        }
+        if (size == trees.length) {
+            grow();
+            return intern(composed, assembled);
+        }
+        int index = size++;
+        trees[index] = composed;
+        this.assembled[index] = assembled;
+        hashes[index] = hash;
+        slots[slot] = index + 1;
+        return index;
+    }
+
+    /**
+     * @param index the index of a canonical tree
+     * @return the canonical tree
+     */
+    TreasureComponent tree(int index) { return trees[checkIndex(index)]; }
+
+    /**
+     * @param index the index of a canonical tree
+     * @return what the canonical tree assembled to
+     */
+    TreasureComponent assembled(int index) { return assembled[checkIndex(index)]; }
+
+    /**
+     * @return the number of distinct trees
+     */
+    int size() { return size; }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+
+    /**
+     * Doubles the capacity and rebuilds the slots. The structural hashes are kept, so no tree is
+     * hashed again.
+     */
+    private void grow() {
+        int capacity = trees.length * 2;
+        TreasureComponent[] grownTrees = new TreasureComponent[capacity];
+        TreasureComponent[] grownAssembled = new TreasureComponent[capacity];
+        int[] grownHashes = new int[capacity];
+        System.arraycopy(trees, 0, grownTrees, 0, size);
+        System.arraycopy(assembled, 0, grownAssembled, 0, size);
+        System.arraycopy(hashes, 0, grownHashes, 0, size);
+        trees = grownTrees;
+        assembled = grownAssembled;
+        hashes = grownHashes;
+        slots = new int[capacity * 2];
+        int mask = slots.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = mix(hashes[index]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = index + 1;
+        }
+    }
+
+    /**
+     * Spreads the high bits of a hash into the low bits the slots are picked by
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
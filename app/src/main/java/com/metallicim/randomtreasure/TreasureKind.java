@@ -0,0 +1,96 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Treasure Kind</h1>
+ * The kinds of treasure that can be built on their own, each tied to its builder function.
+ *
+ * @since 2021-2-18
+ */
+public enum TreasureKind {
+    /**
+     * A spice, see TreasureBuilder.buildSpice()
+     */
+    SPICE {
+        @Override
+        TreasureComponent compose() { return TreasureBuilder.composeSpice(); }
+    },
+    /**
+     * A fiber, fabric, leather, or fur, see TreasureBuilder.buildFiber()
+     */
+    FIBER {
+        @Override
+        TreasureComponent compose() { return TreasureBuilder.composeFiber(); }
+    },
+    /**
+     * Another material such as a beverage, perfume, or dye, see TreasureBuilder.buildOtherMaterial()
+     */
+    MATERIAL {
+        @Override
+        TreasureComponent compose() { return TreasureBuilder.composeOtherMaterial(); }
+    },
+    /**
+     * A jewel, see TreasureBuilder.buildJewel()
+     */
+    JEWEL {
+        @Override
+        TreasureComponent compose() { return TreasureBuilder.composeJewel(); }
+    };
+
+    private static final TreasureKind[] KINDS = values();
+
+    /**
+     * Builds the treasure without assembling it, using the current thread's random source.
+     * @return the unassembled treasure
+     */
+    abstract TreasureComponent compose();
+
+    /**
+     * Builds and assembles a treasure of this kind, exactly as its TreasureBuilder function does.
+     * @return the assembled treasure
+     */
+    TreasureComponent build() {
+        switch (this) {
+            case SPICE:
+                return TreasureBuilder.buildSpice();
+            case FIBER:
+                return TreasureBuilder.buildFiber();
+            case MATERIAL:
+                return TreasureBuilder.buildOtherMaterial();
+            default:
+                return TreasureBuilder.buildJewel();
+        }
+    }
+
+    /**
+     * Builds and assembles a treasure of this kind from a seed.
+     * @param seed the seed of the run
+     * @param index the index of the treasure in the run
+     * @return the assembled treasure, the same every time for the same seed and index
+     */
+    TreasureComponent build(long seed, long index) {
+        try (Generation generation = Generation.start()) {
+            generation.seed(seed, index);
+            return build();
+        }
+    }
+
+    /**
+     * @param ordinal the ordinal of a kind
+     * @return the kind with that ordinal
+     */
+    static TreasureKind fromOrdinal(int ordinal) { return KINDS[ordinal]; }
+
+    /**
+     * Finds a kind by its lower case name, as used in links and requests.
+     * @param name the name of the kind, such as "spice"
+     * @return the kind, or null if there is no kind with that name
+     */
+    static TreasureKind fromName(String name) {
+        for (TreasureKind kind : KINDS) {
+            if (kind.name().equalsIgnoreCase(name)) {
+                return kind;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,163 @@
+package com.metallicim.randomtreasure;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * <h1>Treasure NDJSON</h1>
+ * Writes generated treasures as newline delimited JSON, one treasure per line. Treasures are
+ * generated and written one at a time and sent on in small chunks, so a large run never holds
+ * more than a chunk of output in memory, and the reader sees the first treasures while the rest
+ * are still being generated.
+ *
+ * @since 2021-2-20
+ */
+public class TreasureNdjson {
+
+    /**
+     * The output is sent on once this many characters are waiting.
+     */
+    static final int CHUNK_SIZE = 8 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TreasureNdjson() {}
+
+    /**
+     * Generates treasures from a seed and writes them as NDJSON.
+     * @param out   where to write the treasures
+     * @param kind  the kind of treasure
+     * @param seed  the seed of the run
+     * @param first the index of the first treasure
+     * @param count the number of treasures
+     * @throws IOException if the output could not be written
+     */
+    static void write(OutputStream out, TreasureKind kind, long seed, long first, long count) throws IOException {
+        Output lines = new Output(out);
+        for (long index = first; index < first + count; index++) {
+            lines.add(kind, seed, index, kind.build(seed, index));
+        }
+        lines.finish();
+    }
+
+    /**
+     * <h1>NDJSON Output</h1>
+     * Gathers treasures as NDJSON lines and sends them on a chunk at a time, for any run of
+     * treasures, such as a job that mixes kinds.
+     */
+    static final class Output {
+
+        private final OutputStream out;
+        private final StringBuilder chunk = new StringBuilder(CHUNK_SIZE + 512);
+
+        /**
+         * @param out where to write the treasures
+         */
+        Output(OutputStream out) { this.out = out; }
+
+        /**
+         * Adds one treasure as a line, sending the chunk on once it is full.
+         * @param kind     the kind of treasure
+         * @param seed     the seed the treasure was built from
+         * @param index    the index of the treasure in its run
+         * @param treasure the assembled treasure
+         * @throws IOException if the output could not be written
+         */
+        void add(TreasureKind kind, long seed, long index, TreasureComponent treasure) throws IOException {
+            appendJson(chunk, kind, seed, index, treasure).append('\n');
+            if (chunk.length() >= CHUNK_SIZE) {
+                send();
+            }
+        }
+
+        /**
+         * Sends the lines still waiting and flushes the output.
+         * @throws IOException if the output could not be written
+         */
+        void finish() throws IOException { send(); }
+
+        private void send() throws IOException {
+            out.write(chunk.toString().getBytes(UTF_8));
+            out.flush();
+            chunk.setLength(0);
+        }
+    }
+
+    /**
+     * Appends one treasure as a JSON object.
+     * @param out      where to append the JSON
+     * @param kind     the kind of treasure
+     * @param seed     the seed the treasure was built from
+     * @param index    the index of the treasure in its run
+     * @param treasure the assembled treasure
+     * @return out
+     */
+    static StringBuilder appendJson(StringBuilder out, TreasureKind kind, long seed, long index, TreasureComponent treasure) {
+        out.append("{\"kind\":\"").append(kind.name().toLowerCase()).append('"');
+        out.append(",\"seed\":").append(seed);
+        out.append(",\"index\":").append(index);
+        out.append(",\"name\":");
+        appendString(out, treasure.name());
+        out.append(",\"cents\":").append(treasure.costValue());
+        out.append('}');
+        return out;
+    }
+
+    /**
+     * Appends a JSON string, escaping quotes, backslashes, control characters, and surrogates that
+     * aren't half of a pair, so the string stays valid once encoded as UTF-8. This is the one JSON
+     * string escaper, the exporter and the server use it too.
+     * @param out   where to append the string
+     * @param value the string, or null
+     * @return out
+     */
+    static StringBuilder appendString(StringBuilder out, String value) {
+        if (value == null) {
+            return out.append("null");
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': {
+                    out.append("\\\"");
+                } break;
+                case '\\': {
+                    out.append("\\\\");
+                } break;
+                case '\n': {
+                    out.append("\\n");
+                } break;
+                case '\r': {
+                    out.append("\\r");
+                } break;
+                case '\t': {
+                    out.append("\\t");
+                } break;
+                default: {
+                    if (c < 0x20 || isLoneSurrogate(value, i)) {
+                        out.append("\\u");
+                        for (int shift = 12; shift >= 0; shift -= 4) {
+                            out.append(Character.forDigit((c >> shift) & 0xF, 16));
+                        }
+                    } else {
+                        out.append(c);
+                    }
+                } break;
+            }
+        }
+        return out.append('"');
+    }
+
+    /**
+     * @return true if the character at an index is a surrogate without its other half
+     */
+    private static boolean isLoneSurrogate(String value, int index) {
+        char c = value.charAt(index);
+        if (Character.isHighSurrogate(c)) {
+            return index + 1 == value.length() || !Character.isLowSurrogate(value.charAt(index + 1));
+        }
+        return Character.isLowSurrogate(c) && (index == 0 || !Character.isHighSurrogate(value.charAt(index - 1)));
+    }
+}
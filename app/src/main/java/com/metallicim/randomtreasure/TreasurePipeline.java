@@ -0,0 +1,199 @@
+package com.metallicim.randomtreasure;
+
+/**
+ * <h1>Treasure Pipeline</h1>
+ * Builds treasures as a series of stages: the properties roll, the table draw, the quantity, the
+ * decorated container, and finally assembly. A single treasure runs every stage one after the
+ * other, but a bulk run performs each stage across a whole batch of treasures before moving on to
+ * the next stage, so the tables and code for one stage stay hot while it runs.
+ * <p>
+ * Every treasure in a run draws from its own seeded random source, so the treasure at a given
+ * index comes out the same no matter how the run is batched, and the same as building it with
+ * TreasureBuilder using SeededRandom.forItem(seed, index).
+ * <p>
+ * When tracing, each treasure is begun in the trace with its index the first time its random
+ * source is switched to, and resumed every time after, so the events of a batch can be told apart.
+ *
+ * @since 2021-2-16
+ */
+public class TreasurePipeline {
+
+    /**
+     * The number of treasures that go through a stage together. Small enough that the columns of a
+     * batch stay in cache.
+     */
+    static final int BATCH_SIZE = 256;
+
+    /**
+     * One step of building a treasure, applied to a single item of a batch.
+     */
+    interface Stage {
+        /**
+         * @param batch the batch being built
+         * @param item  the index of the item in the batch
+         */
+        void run(Batch batch, int item);
+    }
+
+    /**
+     * The state of a batch of treasures between stages, held column by column.
+     */
+    static final class Batch {
+        final RandomSource[] random;
+        final int[] multiplier;
+        final boolean[] decorative;
+        final int[] draw;
+        final TreasureComponent[] treasure;
+        int size;
+
+        Batch(int capacity) {
+            random = new RandomSource[capacity];
+            multiplier = new int[capacity];
+            decorative = new boolean[capacity];
+            draw = new int[capacity];
+            treasure = new TreasureComponent[capacity];
+        }
+    }
+
+    /**
+     * Roll the properties from the parent treasure table
+     */
+    static final Stage PROPERTIES = (batch, item) -> {
+        int properties = TreasureBuilder.rollProperties();
+        batch.multiplier[item] = TreasureBuilder.propertiesMultiplier(properties);
+        batch.decorative[item] = TreasureBuilder.propertiesDecorative(properties);
+    };
+    /**
+     * Draw a spice from the spice table
+     */
+    static final Stage SPICE_TABLE = (batch, item) ->
+            batch.treasure[item] = TreasureBuilder.buildSpice(TreasureBuilder.drawSpice());
+    /**
+     * Roll the weight of a spice
+     */
+    static final Stage SPICE_WEIGHT = (batch, item) ->
+            TreasureBuilder.addSpiceWeight(batch.treasure[item], batch.multiplier[item]);
+    /**
+     * Draw from the fiber table
+     */
+    static final Stage FIBER_TABLE = (batch, item) -> batch.draw[item] = TreasureBuilder.drawFiber();
+    /**
+     * Build the fiber drawn from the table, rolling its weight and any sub table
+     */
+    static final Stage FIBER_DETAILS = (batch, item) ->
+            batch.treasure[item] = TreasureBuilder.buildFiber(batch.draw[item], batch.multiplier[item]);
+    /**
+     * Draw from the other material table
+     */
+    static final Stage MATERIAL_TABLE = (batch, item) -> {
+        batch.draw[item] = TreasureBuilder.drawOtherMaterial();
+        batch.treasure[item] = TreasureBuilder.buildOtherMaterial(batch.draw[item]);
+    };
+    /**
+     * Roll the quantity of another material
+     */
+    static final Stage MATERIAL_QUANTITY = (batch, item) ->
+            TreasureBuilder.addOtherMaterialQuantity(batch.treasure[item], batch.draw[item], batch.multiplier[item]);
+    /**
+     * Put decorative materials in an embellished container
+     */
+    static final Stage CONTAINER = (batch, item) -> {
+        if (batch.decorative[item]) {
+            batch.treasure[item] = TreasureBuilder.buildMaterialContainer(batch.treasure[item]);
+        }
+    };
+    /**
+     * Assemble the finished treasure
+     */
+    static final Stage ASSEMBLE = (batch, item) -> batch.treasure[item] = batch.treasure[item].assembleTreasure();
+
+    /**
+     * Builds spices, the same as TreasureBuilder.buildSpice()
+     */
+    static final TreasurePipeline SPICE =
+            new TreasurePipeline(TreasureTrace.Table.SPICE, PROPERTIES, SPICE_TABLE, SPICE_WEIGHT, CONTAINER, ASSEMBLE);
+    /**
+     * Builds fibers, the same as TreasureBuilder.buildFiber()
+     */
+    static final TreasurePipeline FIBER =
+            new TreasurePipeline(TreasureTrace.Table.FIBER, PROPERTIES, FIBER_TABLE, FIBER_DETAILS, ASSEMBLE);
+    /**
+     * Builds other materials, the same as TreasureBuilder.buildOtherMaterial()
+     */
+    static final TreasurePipeline OTHER_MATERIAL =
+            new TreasurePipeline(TreasureTrace.Table.MATERIAL, PROPERTIES, MATERIAL_TABLE, MATERIAL_QUANTITY, CONTAINER, ASSEMBLE);
+
+    private final TreasureTrace.Table table;
+    private final Stage[] stages;
+
+    /**
+     * Creates a pipeline that runs the given stages in order
+     * @param table  the table its treasures are begun with in the trace
+     * @param stages the stages of the pipeline
+     */
+    TreasurePipeline(TreasureTrace.Table table, Stage... stages) {
+        this.table = table;
+        this.stages = stages;
+    }
+
+    /**
+     * Builds a single treasure, running every stage before moving on.
+     * @param seed  the seed of the run
+     * @param index the index of the treasure in the run
+     * @return the assembled treasure
+     */
+    TreasureComponent buildOne(long seed, long index) {
+        Batch batch = new Batch(1);
+        batch.size = 1;
+        batch.random[0] = SeededRandom.forItem(seed, index);
+        try (Generation generation = Generation.start()) {
+            for (int s = 0; s < stages.length; s++) {
+                runStage(s, batch, index, generation);
+            }
+        }
+        return batch.treasure[0];
+    }
+
+    /**
+     * Builds many treasures, one stage at a time across each batch.
+     * @param seed  the seed of the run
+     * @param first the index of the first treasure in the run
+     * @param count the number of treasures to build
+     * @return the assembled treasures, in order
+     */
+    TreasureComponent[] build(long seed, long first, int count) {
+        TreasureComponent[] out = new TreasureComponent[count];
+        Batch batch = new Batch(Math.min(count, BATCH_SIZE));
+        try (Generation generation = Generation.start()) {
+            for (int start = 0; start < count; start += BATCH_SIZE) {
+                batch.size = Math.min(BATCH_SIZE, count - start);
+                for (int item = 0; item < batch.size; item++) {
+                    batch.random[item] = SeededRandom.forItem(seed, first + start + item);
+                }
+                for (int s = 0; s < stages.length; s++) {
+                    runStage(s, batch, first + start, generation);
+                }
+                System.arraycopy(batch.treasure, 0, out, start, batch.size);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Runs one stage across every item of a batch, switching to each item's random source.
+     * @param s     the index of the stage
+     * @param first the index in the run of the batch's first item
+     */
+    private void runStage(int s, Batch batch, long first, Generation generation) {
+        Stage stage = stages[s];
+        for (int item = 0; item < batch.size; item++) {
+            generation.use(batch.random[item]);
+            if (s == 0) {
+                TreasureTrace.begin(table, first + item);
+            } else {
+                TreasureTrace.resume(first + item);
+            }
+            stage.run(batch, item);
+        }
+    }
+}
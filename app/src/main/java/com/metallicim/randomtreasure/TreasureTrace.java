@@ -0,0 +1,300 @@
+package com.metallicim.randomtreasure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <h1>Treasure Trace</h1>
+ * Records how each treasure was generated: every table draw, dice roll, value, and Cost Factor
+ * applied. Events go into a fixed size ring buffer for each thread, allocated once, so recording
+ * never allocates. When tracing is off every record function returns after checking a single flag.
+ * <p>
+ * Tracing is off by default. Turn it on with setEnabled, then call dump to see the events of the
+ * last few treasures built on the current thread. A treasure is begun when it is composed, so
+ * every path that builds one, from TreasureBuilder to TreasureKind.compose and the hoards, starts
+ * it with a BEGIN.
+ * <p>
+ * Work handed to other threads, such as ParallelAssembler's tasks, is recorded in those threads'
+ * rings. Call dumpAllThreads once that work has finished to see every thread's events.
+ *
+ * @since 2021-2-17
+ */
+public final class TreasureTrace {
+
+    /**
+     * The number of events each thread keeps. Must be a power of two.
+     */
+    static final int CAPACITY = 4096;
+
+    /**
+     * The tables and rolls that can be traced
+     */
+    enum Table {
+        PROPERTIES,
+        SPICE,
+        FIBER,
+        MATERIAL,
+        JEWEL,
+        JEWEL_COUNT,
+        SOFT_EMBELLISHMENT,
+        HARD_EMBELLISHMENT,
+        CONTAINER,
+        RACE,
+        COMMON_ANIMAL,
+        EXOTIC_ANIMAL
+    }
+
+    /**
+     * The kinds of event in the trace
+     */
+    private enum Event {
+        /**
+         * A new treasure was started, first is the table of the treasure and second its index in
+         * a run, or -1 if it has none
+         */
+        BEGIN,
+        /**
+         * A treasure begun earlier carries on after another's events, second is its index in the
+         * run
+         */
+        RESUME,
+        /**
+         * A table was drawn from, first is the table and second the index drawn
+         */
+        DRAW,
+        /**
+         * Dice were rolled, first is the number of dice and second the total
+         */
+        ROLL,
+        /**
+         * A value was calculated, first is the table and second the value in cents
+         */
+        VALUE,
+        /**
+         * Cost Factors were applied during assembly, first is the component type and second the
+         * fixed-point CF
+         */
+        APPLY_CF
+    }
+
+    private static final Event[] EVENTS = Event.values();
+    private static final Table[] TABLES = Table.values();
+    private static final TreasureComponentType[] TYPES = TreasureComponentType.values();
+
+    /**
+     * Whether events are being recorded
+     */
+    private static volatile boolean enabled;
+
+    /**
+     * The ring of every thread that has recorded, forgotten once the thread is gone
+     */
+    private static final Map<Thread, Ring> allRings = new WeakHashMap<>();
+
+    private static final ThreadLocal<Ring> rings = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            Ring ring = new Ring();
+            synchronized (allRings) {
+                allRings.put(Thread.currentThread(), ring);
+            }
+            return ring;
+        }
+    };
+
+    /**
+     * The events of one thread, held in parallel arrays that wrap around.
+     */
+    private static final class Ring {
+        final byte[] event = new byte[CAPACITY];
+        final int[] first = new int[CAPACITY];
+        final long[] second = new long[CAPACITY];
+        long position;
+
+        void add(Event kind, int a, long b) {
+            int slot = (int) (position++ & (CAPACITY - 1));
+            event[slot] = (byte) kind.ordinal();
+            first[slot] = a;
+            second[slot] = b;
+        }
+    }
+
+    private TreasureTrace() {}
+
+    /**
+     * @param on true to start recording events, false to stop
+     */
+    static void setEnabled(boolean on) { enabled = on; }
+
+    /**
+     * @return true if events are being recorded
+     */
+    static boolean isEnabled() { return enabled; }
+
+    /**
+     * Marks the start of a new treasure
+     * @param table the table the treasure comes from
+     */
+    static void begin(Table table) {
+        if (enabled) rings.get().add(Event.BEGIN, table.ordinal(), -1);
+    }
+
+    /**
+     * Marks the start of a treasure that is built in turns with others, such as by a pipeline
+     * @param table the table the treasure comes from
+     * @param index the index of the treasure in the run, which tags the BEGIN and later RESUMEs
+     */
+    static void begin(Table table, long index) {
+        if (enabled) rings.get().add(Event.BEGIN, table.ordinal(), index);
+    }
+
+    /**
+     * Marks that the events that follow belong to a treasure begun earlier, until the next BEGIN
+     * or RESUME
+     * @param index the index the treasure was begun with
+     */
+    static void resume(long index) {
+        if (enabled) rings.get().add(Event.RESUME, 0, index);
+    }
+
+    /**
+     * Records a draw from a table
+     * @param table the table drawn from
+     * @param index the index drawn
+     */
+    static void draw(Table table, int index) {
+        if (enabled) rings.get().add(Event.DRAW, table.ordinal(), index);
+    }
+
+    /**
+     * Records a roll of some d6 dice
+     * @param count the number of dice
+     * @param total the total rolled
+     */
+    static void roll(int count, int total) {
+        if (enabled) rings.get().add(Event.ROLL, count, total);
+    }
+
+    /**
+     * Records a calculated value
+     * @param table the table the value belongs to
+     * @param value the value in cents
+     */
+    static void value(Table table, long value) {
+        if (enabled) rings.get().add(Event.VALUE, table.ordinal(), value);
+    }
+
+    /**
+     * Records the Cost Factors applied to a component during assembly. A CF of 0 isn't recorded.
+     * @param type    the type of the component
+     * @param fixedCF the sum of the children's cost factors, multiplied by Price.CF_SCALE
+     */
+    static void applyCF(TreasureComponentType type, long fixedCF) {
+        if (enabled && fixedCF != 0) rings.get().add(Event.APPLY_CF, type.ordinal(), fixedCF);
+    }
+
+    /**
+     * Forgets every event recorded on the current thread
+     */
+    static void clear() { rings.get().position = 0; }
+
+    /**
+     * Describes the events of the last few treasures built on the current thread, oldest first.
+     * Only events still in the ring are included.
+     * @param treasures the number of treasures to describe
+     * @return one line per event, with each treasure starting at a BEGIN line. Treasures built
+     * in turns are tagged with their index, and the events after a RESUME line belong to the
+     * treasure it names.
+     */
+    static String dump(int treasures) {
+        Ring ring = rings.get();
+        long oldest = Math.max(0, ring.position - CAPACITY);
+        // walk back to the BEGIN of the oldest treasure wanted, a treasure only partly left in
+        // the ring is skipped
+        long start = ring.position;
+        int found = 0;
+        for (long i = ring.position - 1; i >= oldest && found < treasures; i--) {
+            if (EVENTS[ring.event[(int) (i & (CAPACITY - 1))]] == Event.BEGIN) {
+                start = i;
+                found++;
+            }
+        }
+
+        StringBuilder out = new StringBuilder();
+        describe(ring, start, out);
+        return out.toString();
+    }
+
+    /**
+     * Describes every event still in the ring of every thread, one thread after another. A thread
+     * that only does part of the work, such as assembling a subtree, has no BEGIN of its own, so
+     * its events are all included. Only call this once the traced work has finished, as the rings
+     * of threads still recording can't be read safely.
+     * @return a THREAD line for each thread with events, followed by its events as dump describes
+     * them
+     */
+    static String dumpAllThreads() {
+        List<Map.Entry<Thread, Ring>> threads;
+        synchronized (allRings) {
+            threads = new ArrayList<>(allRings.entrySet());
+        }
+        Collections.sort(threads, new Comparator<Map.Entry<Thread, Ring>>() {
+            @Override
+            public int compare(Map.Entry<Thread, Ring> a, Map.Entry<Thread, Ring> b) {
+                long difference = a.getKey().getId() - b.getKey().getId();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<Thread, Ring> thread : threads) {
+            Ring ring = thread.getValue();
+            if (ring.position > 0) {
+                out.append("THREAD ").append(thread.getKey().getName()).append('\n');
+                describe(ring, Math.max(0, ring.position - CAPACITY), out);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Describes the events of a ring from a position to the newest, one line each.
+     */
+    private static void describe(Ring ring, long start, StringBuilder out) {
+        for (long i = start; i < ring.position; i++) {
+            int slot = (int) (i & (CAPACITY - 1));
+            Event kind = EVENTS[ring.event[slot]];
+            int a = ring.first[slot];
+            long b = ring.second[slot];
+            switch (kind) {
+                case BEGIN: {
+                    out.append("BEGIN ").append(TABLES[a]);
+                    if (b >= 0) {
+                        out.append(" #").append(b);
+                    }
+                } break;
+                case RESUME: {
+                    out.append("RESUME #").append(b);
+                } break;
+                case DRAW: {
+                    out.append("  DRAW ").append(TABLES[a]).append(" [").append(b).append(']');
+                } break;
+                case ROLL: {
+                    out.append("  ROLL ").append(a).append("d6 = ").append(b);
+                } break;
+                case VALUE: {
+                    out.append("  VALUE ").append(TABLES[a]).append(" = ").append(b);
+                } break;
+                case APPLY_CF: {
+                    out.append("  CF ").append(TYPES[a]).append(" = ").append(Price.fromFixedCF(b));
+                } break;
+                default:
+                    break;
+            }
+            out.append('\n');
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.metallicim.randomtreasure;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * <h1>Unit</h1>
+ * The units a quantity can be measured in. Every unit has a dimension and a conversion to the
+ * base unit of that dimension, so quantities in different units can be totalled: pounds for
+ * weight, square feet for area, and gallons for volume.
+ *
+ * @see Quantity
+ * @since 2021-2-24
+ */
+public enum Unit {
+    CARAT(Dimension.WEIGHT, 0.2 / 453.59237),
+    /**
+     * Ounces of another material, such as "3.0 oz."
+     */
+    OUNCE(Dimension.WEIGHT, 1 / 16.0),
+    /**
+     * Ounces of a spice, which the spice table has always written without a period, such as
+     * "1.5 oz"
+     */
+    SPICE_OUNCE(Dimension.WEIGHT, 1 / 16.0),
+    POUND(Dimension.WEIGHT, 1),
+    SQUARE_FOOT(Dimension.AREA, 1),
+    PINT(Dimension.VOLUME, 1 / 8.0),
+    GALLON(Dimension.VOLUME, 1);
+
+    /**
+     * What a unit measures
+     */
+    public enum Dimension {
+        WEIGHT,
+        AREA,
+        VOLUME
+    }
+
+    private final Dimension dimension;
+    private final double toBase;
+
+    Unit(Dimension dimension, double toBase) {
+        this.dimension = dimension;
+        this.toBase = toBase;
+    }
+
+    /**
+     * @return what the unit measures
+     */
+    public Dimension dimension() { return dimension; }
+
+    /**
+     * Converts a magnitude in this unit to the base unit of its dimension.
+     * @param magnitude the magnitude in this unit
+     * @return the magnitude in pounds, square feet, or gallons
+     */
+    public double toBase(double magnitude) { return magnitude * toBase; }
+
+    /**
+     * Appends a magnitude and this unit the way they appear in a treasure's name, such as
+     * "1.5 carat" or "3.0 gallons".
+     * @param out       where to append the text
+     * @param magnitude the magnitude in this unit
+     * @return out
+     */
+    StringBuilder append(StringBuilder out, double magnitude) {
+        switch(this) {
+            case CARAT: {
+                out.append(magnitude).append(" carat");
+            } break;
+            case OUNCE: {
+                out.append(decimal(magnitude)).append(" oz.");
+            } break;
+            case SPICE_OUNCE: {
+                out.append(decimal(magnitude)).append(" oz");
+            } break;
+            case POUND: {
+                if (magnitude == 1) {
+                    out.append("1 lb.");
+                } else {
+                    out.append(magnitude).append(" lbs.");
+                }
+            } break;
+            case SQUARE_FOOT: {
+                out.append((long) magnitude).append("-sq-foot");
+            } break;
+            case PINT: {
+                out.append(decimal(magnitude)).append(magnitude == 1 ? " pint" : " pints");
+            } break;
+            case GALLON: {
+                out.append(decimal(magnitude)).append(magnitude == 1 ? " gallon" : " gallons");
+            } break;
+        }
+        return out;
+    }
+
+    private static String decimal(double magnitude) {
+        return new DecimalFormat("0.0", DecimalFormatSymbols.getInstance(Locale.ENGLISH)).format(magnitude);
+    }
+}
@@ -0,0 +1,193 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Columnar Hoard Unit Tests</h1>
+ * Builds a hoard large enough to be scanned in several parallel chunks, and checks every operator
+ * against the same query written as a walk over a list of treasure trees.
+ *
+ * @since 2021-2-25
+ */
+public class ColumnarHoardTest {
+
+    private static final long SEED = 38;
+    private static final int PER_KIND = 80000;
+
+    private static ColumnarHoard hoard;
+    /**
+     * The same hoard as treasure trees, in row order
+     */
+    private static List<TreasureComponent> composed;
+    private static List<TreasureComponent> assembled;
+
+    @BeforeClass
+    public static void buildHoard() {
+        hoard = new ColumnarHoard();
+        composed = new ArrayList<>();
+        assembled = new ArrayList<>();
+        RandomSource previous = TreasureBuilder.randomSource();
+        try {
+            for (TreasureKind kind : TreasureKind.values()) {
+                hoard.add(kind, SEED, 0, PER_KIND);
+                for (int index = 0; index < PER_KIND; index++) {
+                    TreasureBuilder.setRandomSource(SeededRandom.forItem(SEED, index));
+                    TreasureComponent treasure = kind.compose();
+                    composed.add(treasure);
+                    assembled.add(treasure.assembleTreasure());
+                }
+            }
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+    }
+
+    /**
+     * Every row holds the treasure it was built from.
+     */
+    @Test
+    public void rows_matchTreasures() {
+        assertEquals(composed.size(), hoard.size());
+        assertTrue(hoard.size() > ColumnarHoard.CHUNK_SIZE * 2);
+        for (int row = 0; row < hoard.size(); row += 997) {
+            assertEquals(assembled.get(row).name(), hoard.name(row));
+            assertEquals(assembled.get(row).costValue(), hoard.cents(row));
+            assertEquals(composed.get(row).type(), hoard.type(row));
+            assertEquals(TreasureKind.fromOrdinal(row / PER_KIND), hoard.kind(row));
+        }
+        assertEquals(TreasureKind.SPICE.build(SEED, 5).name(), hoard.name(5));
+        assertTrue(hoard.distinctNames() < hoard.size());
+    }
+
+    /**
+     * Total value by top-level type.
+     */
+    @Test
+    public void sumByType_matchesTreeWalk() {
+        long[] expected = new long[TreasureComponentType.values().length];
+        long total = 0;
+        for (int i = 0; i < composed.size(); i++) {
+            expected[composed.get(i).type().ordinal()] += assembled.get(i).costValue();
+            total += assembled.get(i).costValue();
+        }
+        assertArrayEquals(expected, hoard.sumBy(ColumnarHoard.Key.TYPE, null));
+        assertEquals(total, hoard.sum(null));
+    }
+
+    /**
+     * The top 20 most valuable items.
+     */
+    @Test
+    public void top_matchesSort() {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < assembled.size(); row++) {
+            rows.add(row);
+        }
+        Collections.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byValue = Long.compare(assembled.get(b).costValue(), assembled.get(a).costValue());
+                return byValue != 0 ? byValue : Integer.compare(a, b);
+            }
+        });
+        int[] expected = new int[20];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = rows.get(i);
+        }
+        assertArrayEquals(expected, hoard.top(20, null));
+        assertEquals(0, hoard.top(0, null).length);
+    }
+
+    /**
+     * The count of contraband leather, and its value by race.
+     */
+    @Test
+    public void contrabandLeather_matchesTreeWalk() {
+        int expected = 0;
+        long expectedValue = 0;
+        for (int i = 0; i < composed.size(); i++) {
+            TreasureComponent fiber = TreasureExporter.principal(composed.get(i));
+            for (int c = 0; c < fiber.componentCount(); c++) {
+                if ("Contraband".equals(fiber.component(c).name())) {
+                    expected++;
+                    expectedValue += assembled.get(i).costValue();
+                }
+            }
+        }
+        ColumnarHoard.Selection contraband = hoard.whereRace(null);
+        assertTrue(expected > 0);
+        assertEquals(expected, contraband.size());
+        assertEquals(expectedValue, hoard.sum(contraband));
+
+        long[] byRace = hoard.sumBy(ColumnarHoard.Key.RACE, null);
+        long total = 0;
+        for (long value : byRace) {
+            total += value;
+        }
+        assertEquals(expectedValue, total);
+    }
+
+    /**
+     * Chained filters give the rows a tree walk finds, in row order.
+     */
+    @Test
+    public void chainedFilters_matchTreeWalk() {
+        int salt = -1;
+        for (int i = 0; i < TreasureBuilder.SPICES.length; i++) {
+            if (TreasureBuilder.SPICES[i].equals("Salt")) salt = i;
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int row = 0; row < composed.size(); row++) {
+            long cents = assembled.get(row).costValue();
+            if (TreasureExporter.principal(composed.get(row)).name().equals("Salt") && cents >= 1000 && cents <= 5000) {
+                expected.add(row);
+            }
+        }
+        ColumnarHoard.Selection spices = hoard.whereKind(null, TreasureKind.SPICE);
+        ColumnarHoard.Selection selected = hoard.whereCents(hoard.whereEntry(spices, salt), 1000, 5000);
+        assertEquals(expected.size(), selected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals((int) expected.get(i), selected.row(i));
+        }
+        assertEquals(PER_KIND, hoard.countBy(ColumnarHoard.Key.KIND, null)[TreasureKind.JEWEL.ordinal()]);
+        assertEquals(hoard.whereType(null, TreasureComponentType.CONTAINER).size(),
+                hoard.countBy(ColumnarHoard.Key.TYPE, null)[TreasureComponentType.CONTAINER.ordinal()]);
+    }
+
+    /**
+     * Reports how fast the columns can be scanned compared to walking the trees.
+     */
+    @Test
+    public void benchmark() {
+        for (int warmup = 0; warmup < 5; warmup++) {
+            hoard.sumBy(ColumnarHoard.Key.TYPE, null);
+            hoard.top(20, null);
+        }
+        long start = System.nanoTime();
+        long[] byType = hoard.sumBy(ColumnarHoard.Key.TYPE, null);
+        int[] top = hoard.top(20, null);
+        long columnNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long[] walked = new long[TreasureComponentType.values().length];
+        for (int i = 0; i < composed.size(); i++) {
+            walked[composed.get(i).type().ordinal()] += assembled.get(i).costValue();
+        }
+        long walkNanos = System.nanoTime() - start;
+
+        assertArrayEquals(walked, byType);
+        assertEquals(20, top.length);
+        System.out.println("columnar hoard of " + hoard.size() + " rows: group-by and top 20 in "
+                + columnNanos / 1000000.0 + " ms, tree walk group-by in " + walkNanos / 1000000.0 + " ms");
+    }
+}
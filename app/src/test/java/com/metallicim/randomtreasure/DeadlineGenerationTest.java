@@ -0,0 +1,166 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Deadline Generation Unit Tests</h1>
+ * Checks generation stops at its deadline with the finished treasures marked partial, that the
+ * background fill finishes the job exactly as generating it without a deadline would, and that a
+ * chain of bigger jewels can be stopped part way.
+ *
+ * @since 2021-3-1
+ */
+public class DeadlineGenerationTest {
+
+    private static final long SEED = 42;
+
+    private static GenerationJob job(long count) {
+        return new GenerationJob(GenerationJob.parseMix("spice=1,fiber=1,material=1,jewel=1"), count, SEED);
+    }
+
+    private static void assertMatchesJob(GenerationJob job, DeadlineGeneration.Snapshot snapshot) {
+        for (int index = 0; index < snapshot.treasures.length; index++) {
+            TreasureKind kind = job.kindOf(index);
+            TreasureComponent expected = kind.build(job.seed(), index);
+            assertEquals(kind, snapshot.kinds[index]);
+            assertEquals(expected.toString(), snapshot.treasures[index].toString());
+            assertEquals(expected.costValue(), snapshot.treasures[index].costValue());
+        }
+    }
+
+    /**
+     * With time to spare the whole job is generated and it is not partial.
+     */
+    @Test
+    public void generousBudget_isComplete() {
+        GenerationJob job = job(500);
+        DeadlineGeneration.Snapshot snapshot = DeadlineGeneration.generate(job, 1, TimeUnit.MINUTES);
+        assertFalse(snapshot.isPartial());
+        assertEquals(500, snapshot.treasures.length);
+        assertMatchesJob(job, snapshot);
+    }
+
+    /**
+     * A large job with a short budget returns on time with what was finished, marked partial.
+     */
+    @Test
+    public void shortBudget_isPartialAndOnTime() {
+        GenerationJob job = job(2000000);
+        long start = System.nanoTime();
+        DeadlineGeneration.Snapshot snapshot = DeadlineGeneration.generate(job, 50, TimeUnit.MILLISECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(snapshot.toString(), snapshot.isPartial());
+        assertTrue(snapshot.treasures.length < snapshot.total);
+        assertTrue("took " + elapsed + "ms", elapsed < 50 + 250);
+        assertMatchesJob(job, snapshot);
+
+        DeadlineGeneration.Snapshot expired = DeadlineGeneration.generate(job, 0, TimeUnit.MILLISECONDS);
+        assertTrue(expired.isPartial());
+        assertEquals(0, expired.treasures.length);
+    }
+
+    /**
+     * The background fill finishes the job, and a follow up fetch returns all of it.
+     */
+    @Test
+    public void backgroundFill_completesJob() throws InterruptedException {
+        GenerationJob job = job(5000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            DeadlineGeneration generation = DeadlineGeneration.start(job, 0, TimeUnit.MILLISECONDS, executor);
+            assertTrue(generation.snapshot().isPartial());
+            DeadlineGeneration.Snapshot snapshot = generation.await(1, TimeUnit.MINUTES);
+            assertTrue(generation.isDone());
+            assertFalse(snapshot.isPartial());
+            assertEquals(5000, snapshot.treasures.length);
+            assertMatchesJob(job, snapshot);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A cancelled background fill stops, keeping what was finished.
+     */
+    @Test
+    public void cancel_stopsBackgroundFill() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // hold the executor's only thread so the fill can't start before it is cancelled
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            DeadlineGeneration generation = DeadlineGeneration.start(job(5000), 0, TimeUnit.MILLISECONDS, executor);
+            generation.cancel();
+            release.countDown();
+            DeadlineGeneration.Snapshot snapshot = generation.await(1, TimeUnit.MINUTES);
+            assertTrue(snapshot.isPartial());
+            assertEquals(0, generation.completed());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A jewel that keeps rolling bigger is stopped at the deadline instead of running forever.
+     */
+    @Test
+    public void biggerJewelChain_stopsAtDeadline() {
+        RandomSource alwaysBigger = max -> 0;
+        RandomSource previousSource = TreasureBuilder.setRandomSource(alwaysBigger);
+        Deadline previous = Deadline.set(Deadline.after(20, TimeUnit.MILLISECONDS));
+        try {
+            TreasureBuilder.buildJewel();
+            fail("the jewel should have been stopped");
+        } catch (Deadline.Exceeded e) {
+            // expected
+        } finally {
+            Deadline.set(previous);
+            TreasureBuilder.setRandomSource(previousSource);
+        }
+    }
+
+    /**
+     * Deadlines expire when they pass or are cancelled, and unbounded ones only when cancelled.
+     */
+    @Test
+    public void deadline_expiry() {
+        Deadline unbounded = Deadline.unbounded();
+        assertFalse(unbounded.expired());
+        assertEquals(Long.MAX_VALUE, unbounded.remaining(TimeUnit.NANOSECONDS));
+        unbounded.cancel();
+        assertTrue(unbounded.expired());
+        assertEquals(0, unbounded.remaining(TimeUnit.NANOSECONDS));
+
+        assertTrue(Deadline.after(0, TimeUnit.NANOSECONDS).expired());
+        Deadline later = Deadline.after(1, TimeUnit.HOURS);
+        assertFalse(later.expired());
+        assertTrue(later.remaining(TimeUnit.MINUTES) > 58);
+
+        Deadline previous = Deadline.set(later);
+        try {
+            Deadline.check();
+        } finally {
+            Deadline.set(previous);
+        }
+    }
+}
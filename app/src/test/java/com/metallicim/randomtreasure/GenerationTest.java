@@ -0,0 +1,65 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Generation Unit Tests</h1>
+ * Verifies that a generation pins its tables, builds the same treasures as TreasureKind.build, and
+ * restores the thread's tables and random source when it closes, even after a failed build.
+ *
+ * @since 2021-3-5
+ */
+public class GenerationTest {
+
+    /**
+     * Closing a generation, nested or not, puts back what the thread had before.
+     */
+    @Test
+    public void close_restoresThreadState() {
+        RandomSource source = new SeededRandom(43);
+        RandomSource previous = TreasureBuilder.setRandomSource(source);
+        try {
+            try (Generation outer = Generation.start(LootTables.COMPILED)) {
+                assertSame(LootTables.COMPILED, LootTables.current());
+                try (Generation inner = Generation.start()) {
+                    assertSame(LootTables.COMPILED, inner.tables());
+                    inner.seed(43, 1);
+                    throw new IllegalStateException("a failed build");
+                } catch (IllegalStateException expected) {
+                    // the inner generation was closed first
+                }
+                assertSame(source, TreasureBuilder.randomSource());
+                assertSame(LootTables.COMPILED, outer.tables());
+            }
+            assertSame(source, TreasureBuilder.randomSource());
+            assertSame(LootTables.published(), LootTables.current());
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+    }
+
+    /**
+     * Seeding a treasure gives the same treasure as building it from its seed and index.
+     */
+    @Test
+    public void seed_matchesKindBuild() {
+        try (Generation generation = Generation.start()) {
+            for (TreasureKind kind : TreasureKind.values()) {
+                for (long index = 0; index < 50; index++) {
+                    generation.seed(43, index);
+                    assertEquals(kind.build(43, index).toString(), kind.build().toString());
+                }
+            }
+        }
+        try {
+            Generation.start(null);
+            fail("started a generation without tables");
+        } catch (NullPointerException expected) {
+            // a generation needs tables
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Jewel Valuation Unit Tests</h1>
+ * Works out the exact expected value of a jewel from the tables, then checks both estimates land
+ * on it, and that the stratified estimate needs far fewer jewels for the same confidence interval.
+ *
+ * @since 2021-2-28
+ */
+public class JewelValuationTest {
+
+    /**
+     * The most bigger jewel rolls counted in the exact value, past which the chance is negligible
+     */
+    private static final int MAX_BIGGER = 40;
+
+    /**
+     * @return the expected value of buildJewel in cents, by going through every roll
+     */
+    private static double exactValue() {
+        double biggerChance = (double) JewelTable.WEIGHTS[0] / JewelTable.TOTAL;
+        double[] base = dice(2);
+        double expected = 0;
+        for (int bigger = 0; bigger <= MAX_BIGGER; bigger++) {
+            double chance = Math.pow(biggerChance, bigger) * (1 - biggerChance);
+            double[] extra = dice(bigger);
+            double value = 0;
+            for (int a = 0; a < base.length; a++) {
+                for (int b = 0; b < extra.length; b++) {
+                    if (base[a] == 0 || extra[b] == 0) continue;
+                    double weight = a / 4.0 + b;
+                    double jewels = 0;
+                    for (int index = 1; index < JewelTable.SIZE; index++) {
+                        double costValue = (weight * weight + 4 * weight) * JewelTable.VALUE_MODIFIERS[index] * 100.0;
+                        jewels += JewelTable.WEIGHTS[index] * (long) costValue;
+                    }
+                    value += base[a] * extra[b] * jewels / (JewelTable.TOTAL - JewelTable.WEIGHTS[0]);
+                }
+            }
+            expected += chance * value;
+        }
+        return expected;
+    }
+
+    /**
+     * @return the chance of each total of count six sided dice, indexed by the total
+     */
+    private static double[] dice(int count) {
+        double[] chance = {1};
+        for (int die = 0; die < count; die++) {
+            double[] next = new double[chance.length + 6];
+            for (int total = 0; total < chance.length; total++) {
+                for (int face = 1; face <= 6; face++) {
+                    next[total + face] += chance[total] / 6;
+                }
+            }
+            chance = next;
+        }
+        return chance;
+    }
+
+    /**
+     * Both estimates agree with the exact value, and stratifying with importance sampling is at
+     * least ten times as efficient as plain sampling.
+     */
+    @Test
+    public void estimates_matchExactValue() {
+        double exact = exactValue();
+        JewelValuation.Estimate plain = JewelValuation.plain(200000, 41);
+        JewelValuation.Estimate stratified = JewelValuation.stratified(1000, 20, 41);
+
+        assertEquals(200000, plain.builderCalls);
+        assertEquals(20000, stratified.builderCalls);
+        assertEquals(plain.toString(), exact, plain.mean, 4 * plain.standardError);
+        assertEquals(stratified.toString(), exact, stratified.mean, 4 * stratified.standardError);
+
+        // builder calls needed for the same confidence interval, plain over stratified
+        double efficiency = plain.standardError * plain.standardError * plain.builderCalls
+                / (stratified.standardError * stratified.standardError * stratified.builderCalls);
+        assertTrue("efficiency " + efficiency, efficiency >= 10);
+    }
+
+    /**
+     * The stratified estimate is repeatable and leaves the thread's random source as it was.
+     */
+    @Test
+    public void stratified_isRepeatable() {
+        RandomSource source = new SeededRandom(7);
+        RandomSource previous = TreasureBuilder.setRandomSource(source);
+        try {
+            JewelValuation.Estimate first = JewelValuation.stratified(200, 4, 3);
+            JewelValuation.Estimate second = JewelValuation.stratified(200, 4, 3);
+            assertEquals(first.mean, second.mean, 0);
+            assertEquals(first.standardError, second.standardError, 0);
+            assertTrue(TreasureBuilder.randomSource() == source);
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+    }
+
+    /**
+     * Each stratified draw covers its range once per sample, and unbiased draws keep a weight of 1.
+     */
+    @Test
+    public void strata_coverEveryNumber() {
+        int samples = 12;
+        StratifiedRandom random = new StratifiedRandom(samples, 2, 5);
+        int[][] counts = new int[2][samples];
+        for (int i = 0; i < samples; i++) {
+            random.startSample(i);
+            counts[0][random.nextInt(samples)]++;
+            counts[1][random.nextInt(samples)]++;
+            random.nextInt(samples);
+            assertEquals(1, random.weight(), 0);
+        }
+        for (int[] dimension : counts) {
+            for (int count : dimension) {
+                assertEquals(1, count);
+            }
+        }
+    }
+
+    /**
+     * A biased distribution must fit the table's total, cover every number, and add up to 1.
+     */
+    @Test
+    public void bias_rejectsBadDistributions() {
+        LootTable table = LootTable.compiled("Test", new String[]{"a", "b", "c"}, new int[]{1, 1, 1}, null, null, null);
+        StratifiedRandom random = new StratifiedRandom(10, 1, 0);
+        double[][] bad = {{0.5, 0.5}, {1, 0, 0}, {0.5, 0.25, 0.125}};
+        for (double[] probabilities : bad) {
+            try {
+                random.bias(table, probabilities);
+                fail("accepted a bad distribution");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        random.bias(table, new double[]{0.5, 0.25, 0.25});
+        random.startSample(0);
+        int n = random.nextInt(table);
+        assertEquals((1.0 / 3) / (n == 0 ? 0.5 : 0.25), random.weight(), 1e-12);
+    }
+
+    /**
+     * Only draws from the biased table are biased, not dice or other tables with the same total.
+     */
+    @Test
+    public void bias_onlyAppliesToItsTable() {
+        LootTable biased = LootTable.compiled("Biased", new String[]{"a", "b", "c"}, new int[]{1, 1, 1}, null, null, null);
+        LootTable other = LootTable.compiled("Other", new String[]{"a", "b", "c"}, new int[]{1, 1, 1}, null, null, null);
+        StratifiedRandom random = new StratifiedRandom(10, 0, 0);
+        random.bias(biased, new double[]{0.98, 0.01, 0.01});
+        for (int i = 0; i < 10; i++) {
+            random.startSample(i);
+            random.nextInt(3);
+            random.nextInt(other);
+            assertEquals(1, random.weight(), 0);
+        }
+    }
+
+    /**
+     * A plain estimate needs at least two samples for its standard error.
+     */
+    @Test
+    public void plain_rejectsTooFewSamples() {
+        try {
+            JewelValuation.plain(1, 41);
+            fail("accepted a single sample");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
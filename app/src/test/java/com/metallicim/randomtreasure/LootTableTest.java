@@ -0,0 +1,131 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Generated Loot Table Unit Tests</h1>
+ * Verifies the classes generated from src/main/tables select the same entry as
+ * selectFromProbabilityList for every number, so seeds and journals recorded before the tables
+ * were generated still give the same treasures, and that the definitions read while running hold
+ * what was generated.
+ *
+ * @since 2021-2-23
+ */
+public class LootTableTest {
+
+    private static void assertSelectMatches(int[] weights, int total, int size, Selector selector) {
+        assertEquals(weights.length, size);
+        assertEquals(TreasureBuilder.ArraySum(weights), total);
+        for (int num = -1; num <= total + 1; num++) {
+            assertEquals("num " + num, TreasureBuilder.selectFromProbabilityList(weights, num), selector.select(num));
+        }
+    }
+
+    private interface Selector {
+        int select(int num);
+    }
+
+    /**
+     * Every generated table maps every number to the same entry as the linear scan.
+     */
+    @Test
+    public void select_matchesLinearScan() {
+        assertSelectMatches(JewelTable.WEIGHTS, JewelTable.TOTAL, JewelTable.SIZE, JewelTable::select);
+        assertSelectMatches(SoftEmbellishmentTable.WEIGHTS, SoftEmbellishmentTable.TOTAL,
+                SoftEmbellishmentTable.SIZE, SoftEmbellishmentTable::select);
+        assertSelectMatches(HardEmbellishmentTable.WEIGHTS, HardEmbellishmentTable.TOTAL,
+                HardEmbellishmentTable.SIZE, HardEmbellishmentTable::select);
+        assertSelectMatches(RaceTable.WEIGHTS, RaceTable.TOTAL, RaceTable.SIZE, RaceTable::select);
+    }
+
+    /**
+     * The prefixes are applied to the names at build time, and the other columns line up with
+     * the names.
+     */
+    @Test
+    public void names_havePrefixesApplied() {
+        assertEquals("made of Fine Material", SoftEmbellishmentTable.NAMES[0]);
+        assertEquals("Dyed Cheaply", SoftEmbellishmentTable.NAMES[2]);
+        assertEquals("Jeweled", HardEmbellishmentTable.BASE_NAMES[HardEmbellishmentTable.SIZE - 1]);
+        assertEquals("Jeweled with", HardEmbellishmentTable.NAMES[HardEmbellishmentTable.SIZE - 1]);
+        assertEquals("", JewelTable.NAMES[0]);
+        assertEquals("Diamond", JewelTable.NAMES[JewelTable.SIZE - 1]);
+        assertEquals(40, JewelTable.VALUE_MODIFIERS[JewelTable.SIZE - 1], 0);
+        assertEquals(19, HardEmbellishmentTable.COST_FACTORS[1], 0);
+    }
+
+    /**
+     * Every definition in src/main/tables, read the way the app reloads it, has the names, weights,
+     * and numbers of the class generated from it.
+     */
+    @Test
+    public void definitions_matchGeneratedClasses() throws IOException {
+        List<LootTable> compiled = Arrays.asList(LootTables.COMPILED.jewels, LootTables.COMPILED.softEmbellishments,
+                LootTables.COMPILED.hardEmbellishments, LootTables.COMPILED.races);
+        File[] files = LootTablesTest.tableDir().listFiles();
+        assertNotNull(files);
+        int matched = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(".table")) {
+                continue;
+            }
+            TableDefinition definition;
+            try (Reader in = new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8"))) {
+                definition = TableDefinition.read(in, file.getName());
+            }
+            LootTable generated = null;
+            for (LootTable table : compiled) {
+                if (table.className.equals(definition.className)) {
+                    generated = table;
+                }
+            }
+            assertNotNull(file.getName(), generated);
+            assertEquals(generated.size(), definition.rows.size());
+            for (int i = 0; i < generated.size(); i++) {
+                assertEquals(generated.names[i], definition.name(i));
+                assertEquals(generated.weights[i], definition.weight(i));
+            }
+            for (int c = 0; c < definition.columns.size(); c++) {
+                if (definition.isNumberColumn(c)) {
+                    double[] numbers = new double[definition.rows.size()];
+                    for (int i = 0; i < numbers.length; i++) {
+                        numbers[i] = definition.number(c, i);
+                    }
+                    assertArrayEquals(generated.column(definition.columns.get(c)), numbers, 0);
+                }
+            }
+            matched++;
+        }
+        assertEquals(compiled.size(), matched);
+        assertTrue(definitionRejected("class T\ncolumns name weight prepend\nA | 1 | BEFORE\n"));
+        assertTrue(definitionRejected("class T\ncolumns name weight\nA | 1 | 2\n"));
+        assertTrue(definitionRejected("columns name weight\nA | 1\n"));
+    }
+
+    private static boolean definitionRejected(String text) {
+        try {
+            TableDefinition definition = TableDefinition.read(new StringReader(text), "test");
+            for (int i = 0; i < definition.rows.size(); i++) {
+                definition.name(i);
+            }
+            return false;
+        } catch (IOException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Loot Tables Unit Tests</h1>
+ * Reads the table definitions at run time and checks they match the compiled tables, that invalid
+ * reloads are refused without touching the published snapshot, and that generations keep the
+ * snapshot they started with while another thread reloads over and over.
+ *
+ * @since 2021-3-2
+ */
+public class LootTablesTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] FILES = {"hard_embellishments.table", "jewels.table", "races.table", "soft_embellishments.table"};
+
+    @After
+    public void restoreCompiled() {
+        LootTables.publish(LootTables.COMPILED);
+    }
+
+    /**
+     * The table definitions, found from either the app module or the project root
+     */
+    static File tableDir() {
+        File dir = new File("src/main/tables");
+        return dir.isDirectory() ? dir : new File("app/src/main/tables");
+    }
+
+    /**
+     * @return the text of each definition, in the order of FILES
+     */
+    private static String[] definitions() throws IOException {
+        String[] text = new String[FILES.length];
+        for (int i = 0; i < FILES.length; i++) {
+            text[i] = new String(Files.readAllBytes(new File(tableDir(), FILES[i]).toPath()), UTF_8);
+        }
+        return text;
+    }
+
+    private static LootTables read(String[] definitions) throws IOException {
+        Reader[] readers = new Reader[definitions.length];
+        for (int i = 0; i < definitions.length; i++) {
+            readers[i] = new StringReader(definitions[i]);
+        }
+        return LootTables.read(readers);
+    }
+
+    /**
+     * Bigger jewels three times as often, and Diamonds worth half again as much
+     */
+    static LootTables tuned() throws IOException {
+        String[] text = definitions();
+        text[1] = text[1].replace("\n | 2 | 0\n", "\n | 6 | 0\n").replace("Diamond | 1 | 40", "Diamond | 1 | 60");
+        text[0] = text[0].replace("Fine Material | 1 | 2 |", "Fine Material | 4 | 3 |");
+        return read(text);
+    }
+
+    private static void assertSameTable(LootTable expected, LootTable actual, String column) {
+        assertEquals(expected.className, actual.className);
+        assertArrayEquals(expected.names, actual.names);
+        assertArrayEquals(expected.weights, actual.weights);
+        assertEquals(expected.total, actual.total);
+        if (column != null) {
+            assertArrayEquals(expected.column(column), actual.column(column), 0);
+        }
+        for (int num = 0; num <= actual.total; num++) {
+            assertEquals(expected.select(num), actual.select(num));
+        }
+    }
+
+    /**
+     * Reading the definitions gives the same tables that were compiled in.
+     */
+    @Test
+    public void load_matchesCompiledTables() throws IOException {
+        LootTables loaded = LootTables.load(tableDir());
+        assertSameTable(LootTables.COMPILED.jewels, loaded.jewels, "valueModifier");
+        assertSameTable(LootTables.COMPILED.softEmbellishments, loaded.softEmbellishments, "costFactor");
+        assertSameTable(LootTables.COMPILED.hardEmbellishments, loaded.hardEmbellishments, "costFactor");
+        assertSameTable(LootTables.COMPILED.races, loaded.races, null);
+        assertNull(loaded.races.column("costFactor"));
+
+        // the same draws give the same treasures
+        LootTables.publish(loaded);
+        for (TreasureKind kind : TreasureKind.values()) {
+            for (int index = 0; index < 200; index++) {
+                TreasureComponent treasure = kind.build(7, index);
+                LootTables.publish(LootTables.COMPILED);
+                assertEquals(kind.build(7, index).toString(), treasure.toString());
+                LootTables.publish(loaded);
+            }
+        }
+    }
+
+    /**
+     * A reload with anything wrong fails and the published snapshot stays.
+     */
+    @Test
+    public void invalidReload_keepsPublished() throws IOException {
+        LootTables before = LootTables.published();
+        String[] good = definitions();
+        String[][] bad = {
+                {good[0], good[1].replace("Agate | 1 | 5", "Agate | -1 | 5"), good[2], good[3]},
+                {good[0], good[1].replace("Agate | 1 | 5", "Agate | 1 | NaN"), good[2], good[3]},
+                {good[0], good[1].replace("Agate | 1 | 5", "Agat | 1 | 5"), good[2], good[3]},
+                {good[0], good[1].replace("Agate | 1 | 5", "Agate | 1"), good[2], good[3]},
+                {good[0], good[1].replace("columns name weight valueModifier", "columns name weight price"), good[2], good[3]},
+                {good[0], good[1].replaceAll("\\| 1 \\|", "| 0 |"), good[2], good[3]},
+                {good[0].replace("Fine Material | 1 | 2 |", "Fine Material | 1 | 0.1 |"), good[1], good[2], good[3]},
+                {good[0], good[1], good[2]},
+                {good[0], good[1], good[2], good[3], good[3]},
+        };
+        for (String[] definitions : bad) {
+            try {
+                LootTables.publish(read(definitions));
+                fail("accepted invalid tables");
+            } catch (IOException e) {
+                // expected
+            }
+            assertSame(before, LootTables.published());
+        }
+        try {
+            LootTables.reload(new File(tableDir(), "missing"));
+            fail("reloaded from a missing directory");
+        } catch (IOException e) {
+            // expected
+        }
+        assertSame(before, LootTables.published());
+
+        // a Cost Factor held exactly in fixed point is fine, however fine the fraction
+        LootTables fraction = read(new String[]{
+                good[0].replace("Fine Material | 1 | 2 |", "Fine Material | 1 | 2.125 |"), good[1], good[2], good[3]});
+        assertEquals(2.125, fraction.hardCostFactors[0], 0);
+    }
+
+    /**
+     * A pinned generation keeps its snapshot when another is published, and new generations use
+     * the new one.
+     */
+    @Test
+    public void pinnedGeneration_keepsSnapshot() throws IOException {
+        LootTables tuned = tuned();
+        assertTrue(tuned.version > LootTables.COMPILED.version);
+        assertEquals(3, tuned.hardCostFactors[0], 0);
+
+        LootTables previous = LootTables.pin(LootTables.COMPILED);
+        try {
+            LootTables.publish(tuned);
+            assertSame(LootTables.COMPILED, LootTables.current());
+            for (int index = 0; index < 50; index++) {
+                assertEquals(expected(LootTables.COMPILED, TreasureKind.JEWEL, index), TreasureKind.JEWEL.build(3, index).toString());
+            }
+        } finally {
+            LootTables.pin(previous);
+        }
+        assertSame(tuned, LootTables.current());
+
+        int differences = 0;
+        for (int index = 0; index < 500; index++) {
+            if (!expected(LootTables.COMPILED, TreasureKind.JEWEL, index).equals(TreasureKind.JEWEL.build(3, index).toString())) {
+                differences++;
+            }
+        }
+        assertNotEquals(0, differences);
+    }
+
+    /**
+     * A builder called outside a pinned generation reads the published snapshot once, so a
+     * publish part way through a Jeweled embellishment doesn't reach its jewels.
+     */
+    @Test
+    public void unpinnedBuild_usesOneSnapshot() throws IOException {
+        final LootTables tuned = tuned();
+        final LootTable hard = LootTables.COMPILED.hardEmbellishments;
+        int jeweledIndex = Arrays.asList(HardEmbellishmentTable.BASE_NAMES).indexOf("Jeweled");
+        int num = 0;
+        while (hard.select(num) != jeweledIndex) {
+            num++;
+        }
+        final int jeweled = num;
+        final List<LootTable> drawn = new ArrayList<>();
+        RandomSource publishing = new TableRandomSource() {
+            @Override
+            public int nextInt(int max) { return 0; }
+
+            @Override
+            int nextInt(LootTable table) {
+                drawn.add(table);
+                LootTables.publish(tuned);
+                return table == hard ? jeweled : table.total - 1;
+            }
+        };
+
+        LootTables.publish(LootTables.COMPILED);
+        RandomSource previous = TreasureBuilder.setRandomSource(publishing);
+        try {
+            TreasureComponent decoration = TreasureBuilder.buildHardEmbellishment(0);
+            assertTrue(decoration.name(), decoration.name().startsWith(HardEmbellishmentTable.NAMES[jeweledIndex]));
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+        assertEquals(2, drawn.size());
+        assertSame(hard, drawn.get(0));
+        assertSame(LootTables.COMPILED.jewels, drawn.get(1));
+        assertSame(tuned, LootTables.current());
+    }
+
+    private static String expected(LootTables tables, TreasureKind kind, int index) {
+        LootTables previous = LootTables.pin(tables);
+        try {
+            return kind.build(3, index).toString();
+        } finally {
+            LootTables.pin(previous);
+        }
+    }
+
+    /**
+     * Many threads generate while another reloads continuously. Every treasure matches the
+     * snapshot its generation started with, so no generation ever sees a mix of two snapshots.
+     */
+    @Test
+    public void stress_reloadWhileGenerating() throws Exception {
+        final LootTables[] snapshots = {LootTables.COMPILED, tuned()};
+        final int items = 64;
+        final int threads = 8;
+        final TreasureKind[] kinds = TreasureKind.values();
+        final String[][][] expected = new String[snapshots.length][kinds.length][items];
+        for (int s = 0; s < snapshots.length; s++) {
+            for (int k = 0; k < kinds.length; k++) {
+                for (int index = 0; index < items; index++) {
+                    expected[s][k][index] = expected(snapshots[s], kinds[k], index);
+                }
+            }
+        }
+        final String[] text = definitions();
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong generations = new AtomicLong();
+        final AtomicLong reloads = new AtomicLong();
+        final CountDownLatch started = new CountDownLatch(threads + 1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int seedOffset = t;
+            workers.add(new Thread(() -> {
+                started.countDown();
+                int round = seedOffset;
+                try {
+                    while (running.get()) {
+                        LootTables tables = LootTables.published();
+                        // anything but the tuned tables is a copy of the compiled ones
+                        int s = tables == snapshots[1] ? 1 : 0;
+                        TreasureKind kind = kinds[round % kinds.length];
+                        LootTables previous = LootTables.pin(tables);
+                        try {
+                            for (int index = 0; index < items; index++) {
+                                String built = kind.build(3, index).toString();
+                                if (!built.equals(expected[s][kind.ordinal()][index])) {
+                                    throw new AssertionError(kind + " " + index + " from " + tables + ": " + built);
+                                }
+                            }
+                        } finally {
+                            LootTables.pin(previous);
+                        }
+                        generations.incrementAndGet();
+                        round++;
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        Thread reloader = new Thread(() -> {
+            started.countDown();
+            try {
+                while (running.get()) {
+                    long n = reloads.incrementAndGet();
+                    if (n % 8 == 0) {
+                        LootTables.publish(read(text));
+                    } else {
+                        LootTables.publish(snapshots[(int) (n % 2)]);
+                    }
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        reloader.start();
+        started.await();
+        Thread.sleep(1500);
+        running.set(false);
+        reloader.join();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("generation failed during reloads", failure.get());
+        }
+        assertTrue("reloads " + reloads.get(), reloads.get() > 100);
+        assertTrue("generations " + generations.get(), generations.get() > threads);
+    }
+}
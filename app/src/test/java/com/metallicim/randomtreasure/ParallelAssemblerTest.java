@@ -0,0 +1,135 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.metallicim.randomtreasure.TreasureTrees.size;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Parallel Assembler Unit Tests</h1>
+ * Verifies that assembling on several threads gives exactly what assembleTreasure gives, on a wide
+ * caravan, a deep tree, and a tree too small to split, and reports how long each takes.
+ *
+ * @since 2021-3-4
+ */
+public class ParallelAssemblerTest {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    private static void assertSameAssembly(TreasureComponent root) {
+        TreasureComponent expected = root.assembleTreasure();
+        for (int threads : THREADS) {
+            TreasureTrees.assertSameAssembly(expected, ParallelAssembler.assemble(root, threads));
+        }
+    }
+
+    private static TreasureComponent randomTree(Random random, int depth, int fanout) {
+        return TreasureTrees.randomTree(random, depth, fanout, null);
+    }
+
+    /**
+     * A caravan holding every treasure of a long run, one wide list of children.
+     */
+    private static TreasureComponent caravan(int treasures) {
+        TreasureComponent caravan = new TreasureComponent(0, TreasureComponentType.CONTAINER);
+        caravan.setName("Caravan of");
+        RandomSource previous = TreasureBuilder.randomSource();
+        try {
+            for (int index = 0; index < treasures; index++) {
+                TreasureBuilder.setRandomSource(SeededRandom.forItem(45, index));
+                caravan.addComponent(TreasureKind.fromOrdinal(index % 3).compose());
+            }
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+        return caravan;
+    }
+
+    /**
+     * A caravan of more than 10^5 components assembles the same on any number of threads.
+     */
+    @Test
+    public void wideCaravan_matchesSequential() {
+        TreasureComponent caravan = caravan(40000);
+        assertTrue(size(caravan) > 100000);
+        assertSameAssembly(caravan);
+    }
+
+    /**
+     * A deep tree, split below the root, and trees too small to split assemble the same.
+     */
+    @Test
+    public void deepAndSmallTrees_matchSequential() {
+        Random random = new Random(45);
+        TreasureComponent deep = randomTree(random, 6, 7);
+        assertTrue(size(deep) > 100000);
+        assertSameAssembly(deep);
+
+        assertSameAssembly(randomTree(random, 3, 5));
+        assertSameAssembly(randomTree(random, 0, 0));
+        for (TreasureKind kind : TreasureKind.values()) {
+            assertSameAssembly(kind.build(45, 0));
+        }
+        // just big enough to be split, and just too small
+        assertSameAssembly(randomTree(random, 1, ParallelAssembler.PARALLEL_MIN - 1));
+        assertSameAssembly(randomTree(random, 1, ParallelAssembler.PARALLEL_MIN - 2));
+    }
+
+    /**
+     * A value that overflows throws, as it does when assembled on one thread.
+     */
+    @Test
+    public void overflow_throwsLikeSequential() {
+        TreasureComponent root = randomTree(new Random(46), 1, 5 * ParallelAssembler.GRAIN);
+        TreasureComponent huge = root.component(3 * ParallelAssembler.GRAIN);
+        huge.setCost(Long.MAX_VALUE, 0);
+        try {
+            root.assembleTreasure();
+            fail("expected the value to overflow");
+        } catch (ArithmeticException expected) {
+            // the overflow was detected
+        }
+        for (int threads : THREADS) {
+            try {
+                ParallelAssembler.assemble(root, threads);
+                fail("expected the value to overflow on " + threads + " threads");
+            } catch (ArithmeticException expected) {
+                // the overflow was detected
+            }
+        }
+    }
+
+    /**
+     * Reports how long a caravan and a deep tree take to assemble on one thread and on every
+     * core. Only the timings are printed, since the speedup depends on the machine.
+     */
+    @Test
+    public void assemblyTime_report() {
+        TreasureComponent[] trees = {caravan(40000), randomTree(new Random(47), 6, 7)};
+        String[] names = {"caravan", "deep tree"};
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int t = 0; t < trees.length; t++) {
+            TreasureComponent tree = trees[t];
+            // warm up
+            for (int i = 0; i < 5; i++) {
+                tree.assembleTreasure();
+                ParallelAssembler.assemble(tree, threads);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                tree.assembleTreasure();
+            }
+            long sequential = (System.nanoTime() - start) / 10;
+            start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                ParallelAssembler.assemble(tree, threads);
+            }
+            long parallel = (System.nanoTime() - start) / 10;
+            System.out.println(String.format("%s of %d components: sequential %.2f ms, %d threads %.2f ms",
+                    names[t], size(tree), sequential / 1e6, threads, parallel / 1e6));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Price Accumulator Unit Tests</h1>
+ * Verifies the allocation free price arithmetic gives the same results as the Price object
+ * arithmetic, and that large totals are detected rather than silently overflowing.
+ *
+ * @since 2021-2-15
+ */
+public class PriceAccumulatorTest {
+
+    /**
+     * Accumulating values and cost factors gives the same total as adding Price objects.
+     */
+    @Test
+    public void accumulator_matchesPriceAdd() {
+        Random random = new Random(27);
+        Price price = new Price();
+        PriceAccumulator accumulator = new PriceAccumulator();
+        for (int i = 0; i < 1000; i++) {
+            int value = random.nextInt(100000);
+            double CF = random.nextInt(80) / 4.0 - 1;
+            price = price.add(new Price(value, CF));
+            accumulator.add(value, CF);
+        }
+        assertEquals(price.value(), accumulator.value());
+        assertEquals(price.CF(), accumulator.CF(), 0);
+
+        accumulator.reset();
+        assertEquals(0, accumulator.value());
+        assertEquals(0, accumulator.CF(), 0);
+    }
+
+    /**
+     * Applying a cost factor truncates exactly like the original int arithmetic in
+     * assembleTreasure.
+     */
+    @Test
+    public void applyCF_matchesOriginalRounding() {
+        Random random = new Random(28);
+        for (int i = 0; i < 100000; i++) {
+            int value = random.nextInt(1000000);
+            double CF = random.nextInt(120) / 4.0 - 1;
+            int original = (int) (value * (CF + 1));
+            assertEquals(original, Price.applyCF(value, Price.toFixedCF(CF)));
+        }
+    }
+
+    /**
+     * A hoard worth more than an int can hold is totalled correctly, and a total that would
+     * overflow a long is reported.
+     */
+    @Test
+    public void totalValue_detectsOverflow() {
+        List<TreasureComponent> hoard = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TreasureComponent treasure = new TreasureComponent(i, TreasureComponentType.JEWEL);
+            treasure.setCost(Integer.MAX_VALUE, 0);
+            hoard.add(treasure);
+        }
+        assertEquals(3L * Integer.MAX_VALUE, PriceAccumulator.totalValue(hoard));
+
+        TreasureComponent huge = new TreasureComponent(3, TreasureComponentType.JEWEL);
+        huge.setCost(Long.MAX_VALUE, 0);
+        hoard.add(huge);
+        try {
+            PriceAccumulator.totalValue(hoard);
+            fail("expected the total to overflow");
+        } catch (ArithmeticException expected) {
+            // the overflow was detected
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <h1>Quantity Unit Tests</h1>
+ * Verifies quantities render the same names the builder used to write out by hand, and that
+ * totalling a hoard from the typed quantities gives the same weight and volume as parsing every
+ * quantity's name.
+ *
+ * @since 2021-2-24
+ */
+public class QuantityTest {
+
+    private static final long SEED = 37;
+    private static final int HOARD_SIZE = 100000;
+
+    /**
+     * Names are rendered from the magnitude and unit.
+     */
+    @Test
+    public void name_renderedFromUnit() {
+        assertEquals("1.5 carat", new Quantity(0, 1.5, Unit.CARAT).name());
+        assertEquals("1.5 oz.", new Quantity(0, 1.5, Unit.OUNCE).name());
+        assertEquals("1.5 oz", new Quantity(0, 1.5, Unit.SPICE_OUNCE).name());
+        assertEquals("1 lb.", new Quantity(0, 1, Unit.POUND).name());
+        assertEquals("7.5 lbs.", new Quantity(0, 7.5, Unit.POUND).name());
+        assertEquals("200-sq-foot bolt of", new Quantity(0, 200, Unit.SQUARE_FOOT, "bolt").name());
+        assertEquals("3.0 pints", new Quantity(0, 3, Unit.PINT).name());
+        assertEquals("1.0 gallon", new Quantity(0, 1, Unit.GALLON).name());
+
+        Quantity quantity = new Quantity(0, 2, Unit.GALLON);
+        assertEquals(quantity.name(), quantity.assembleTreasure().name());
+        assertEquals(Unit.Dimension.VOLUME, quantity.dimension());
+        assertEquals(0.25, new Quantity(0, 2, Unit.PINT).baseMagnitude(), 0);
+        assertEquals(0.25, new Quantity(0, 4, Unit.OUNCE).baseMagnitude(), 0);
+    }
+
+    /**
+     * Parses a quantity's name the way a hoard had to be totalled before quantities were typed.
+     */
+    private static void addParsed(TreasureComponent component, double[] totals) {
+        if (component.type() == TreasureComponentType.QUANTITY) {
+            String name = component.name();
+            int end = 0;
+            while (end < name.length() && (Character.isDigit(name.charAt(end)) || name.charAt(end) == '.')) {
+                end++;
+            }
+            double magnitude = Double.parseDouble(name.substring(0, end));
+            String unit = name.substring(end).trim();
+            if (unit.startsWith("carat")) {
+                totals[0] += magnitude * 0.2 / 453.59237;
+            } else if (unit.startsWith("oz")) {
+                totals[0] += magnitude / 16;
+            } else if (unit.startsWith("lb")) {
+                totals[0] += magnitude;
+            } else if (unit.startsWith("pint")) {
+                totals[1] += magnitude / 8;
+            } else if (unit.startsWith("gallon")) {
+                totals[1] += magnitude;
+            }
+        }
+        for (int i = 0; i < component.componentCount(); i++) {
+            addParsed(component.component(i), totals);
+        }
+    }
+
+    /**
+     * A hoard of every kind of treasure totals to the same weight and volume either way.
+     */
+    @Test
+    public void accumulator_matchesParsedNames() {
+        List<TreasureComponent> hoard = new ArrayList<>();
+        RandomSource previous = TreasureBuilder.setRandomSource(new SeededRandom(SEED));
+        try {
+            for (int i = 0; i < HOARD_SIZE; i++) {
+                hoard.add(TreasureKind.fromOrdinal(i % 4).compose());
+            }
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+
+        long start = System.nanoTime();
+        QuantityAccumulator accumulator = new QuantityAccumulator().addAll(hoard);
+        long typedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        double[] parsed = new double[2];
+        for (TreasureComponent treasure : hoard) {
+            addParsed(treasure, parsed);
+        }
+        long parsedNanos = System.nanoTime() - start;
+
+        assertEquals(parsed[0], accumulator.weight(), parsed[0] * 1e-9);
+        assertEquals(parsed[1], accumulator.volume(), parsed[1] * 1e-9);
+        assertEquals(accumulator.weight(), QuantityAccumulator.totalWeight(hoard), 0);
+        assertEquals(accumulator.volume(), QuantityAccumulator.totalVolume(hoard), 0);
+        System.out.println("hoard of " + HOARD_SIZE + ": " + accumulator + ", typed "
+                + typedNanos / 1000000.0 + " ms, parsing names " + parsedNanos / 1000000.0 + " ms");
+    }
+}
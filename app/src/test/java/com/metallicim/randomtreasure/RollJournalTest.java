@@ -0,0 +1,216 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Roll Journal Unit Tests</h1>
+ * Verifies that treasures replayed from the journal are identical to the originals, and that the
+ * journal stays small.
+ *
+ * @since 2021-2-18
+ */
+public class RollJournalTest {
+
+    private static final TreasureKind[] KINDS = TreasureKind.values();
+
+    /**
+     * Every treasure replayed from the journal has the same name and value as when it was built.
+     */
+    @Test
+    public void replay_rebuildsExactTreasures() throws IOException {
+        int count = 5000;
+        TreasureComponent[] originals = new TreasureComponent[count];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RollJournal journal = new RollJournal(bytes);
+
+        RandomSource previous = TreasureBuilder.setRandomSource(new SeededRandom(31));
+        try {
+            for (int i = 0; i < count; i++) {
+                originals[i] = journal.record(KINDS[i % KINDS.length]);
+            }
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+        journal.flush();
+        assertEquals(count, journal.recorded());
+
+        byte[] written = bytes.toByteArray();
+        System.out.println("journal: " + written.length / (double) count + " bytes per treasure");
+        assertTrue(written.length < count * 16);
+
+        RollJournal.Reader reader = new RollJournal.Reader(new ByteArrayInputStream(written));
+        for (int i = 0; i < count; i++) {
+            TreasureComponent replayed = reader.next();
+            assertEquals(originals[i].name(), replayed.name());
+            assertEquals(originals[i].costValue(), replayed.costValue());
+        }
+        assertNull(reader.next());
+
+        // a disputed treasure can be found without replaying the ones before it
+        reader = new RollJournal.Reader(new ByteArrayInputStream(written));
+        reader.skip(1234);
+        assertEquals(originals[1234].name(), reader.next().name());
+    }
+
+    /**
+     * A journal that doesn't match the builder is reported rather than producing a wrong treasure.
+     */
+    @Test
+    public void replay_rejectsMismatchedJournal() {
+        try {
+            RollJournal.replay(TreasureKind.SPICE, new int[] {1}, 1);
+            fail("expected the short journal to be rejected");
+        } catch (IOException expected) {
+            // the journal ran out of draws
+        }
+    }
+
+    /**
+     * @return a journal of the current tables holding the given bytes after its header
+     */
+    private static byte[] withHeader(byte[] records) throws IOException {
+        ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        new RollJournal(journal).flush();
+        assertEquals(RollJournal.HEADER_LENGTH, journal.size());
+        journal.write(records);
+        return journal.toByteArray();
+    }
+
+    /**
+     * A corrupt record is reported as an IOException, like any other malformed journal.
+     */
+    @Test
+    public void reader_rejectsCorruptRecords() throws IOException {
+        byte[][] corrupt = {
+                withHeader(new byte[] {(byte) TreasureKind.values().length, 0}),
+                withHeader(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 0}),
+                withHeader(new byte[] {0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F}),
+                withHeader(new byte[] {0, 3, 1}),
+                withHeader(new byte[] {0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 1}),
+                withHeader(new byte[] {0, (byte) 0x81, (byte) 0x80, 0x40, 1}),
+                {0, 1, 2},
+        };
+        for (byte[] journal : corrupt) {
+            try {
+                new RollJournal.Reader(new ByteArrayInputStream(journal)).next();
+                fail("expected the corrupt journal to be rejected");
+            } catch (IOException expected) {
+                // the record couldn't be read
+            }
+        }
+        for (byte[] journal : new byte[][] {corrupt[0], corrupt[4]}) {
+            try {
+                new RollJournal.Reader(new ByteArrayInputStream(journal)).skip(1);
+                fail("expected the corrupt record to be rejected");
+            } catch (IOException expected) {
+                // the record couldn't be read
+            }
+        }
+        assertNull(new RollJournal.Reader(new ByteArrayInputStream(withHeader(new byte[0]))).next());
+    }
+
+    /**
+     * A journal replays with the tables it was recorded with, even once others are published,
+     * and is refused by a reader with different tables.
+     */
+    @Test
+    public void replay_usesRecordedTables() throws IOException {
+        LootTables loaded = LootTables.load(LootTablesTest.tableDir());
+        assertEquals(LootTables.COMPILED.fingerprint, loaded.fingerprint);
+        LootTables tuned = LootTablesTest.tuned();
+
+        int count = 500;
+        TreasureComponent[] originals = new TreasureComponent[count];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RollJournal journal = new RollJournal(bytes, tuned);
+        RandomSource previous = TreasureBuilder.setRandomSource(new SeededRandom(43));
+        try {
+            for (int i = 0; i < count; i++) {
+                originals[i] = journal.record(TreasureKind.JEWEL);
+            }
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+        journal.flush();
+        byte[] written = bytes.toByteArray();
+
+        try {
+            new RollJournal.Reader(new ByteArrayInputStream(written), loaded).next();
+            fail("expected a journal of other tables to be refused");
+        } catch (IOException expected) {
+            // the fingerprints differ
+        }
+        LootTables.publish(loaded);
+        try {
+            RollJournal.Reader reader = new RollJournal.Reader(new ByteArrayInputStream(written), tuned);
+            for (int i = 0; i < count; i++) {
+                TreasureComponent replayed = reader.next();
+                assertEquals(originals[i].name(), replayed.name());
+                assertEquals(originals[i].costValue(), replayed.costValue());
+            }
+            assertNull(reader.next());
+        } finally {
+            LootTables.publish(LootTables.COMPILED);
+        }
+    }
+
+    /**
+     * Reports the cost of journaling compared to building alone. The fastest of several rounds of
+     * each is compared, but timings on a shared machine still vary too much to assert on.
+     */
+    @Test
+    public void journalOverhead_report() throws IOException {
+        int count = 50000;
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        };
+        RollJournal journal = new RollJournal(sink);
+        long plain = Long.MAX_VALUE;
+        long journaled = Long.MAX_VALUE;
+        RandomSource previous = TreasureBuilder.setRandomSource(new SeededRandom(31));
+        try {
+            for (int round = 0; round < 12; round++) {
+                // the first rounds warm up, and the order alternates so neither always runs first
+                boolean journalFirst = round % 2 == 1;
+                long first = time(journalFirst ? journal : null, count);
+                long second = time(journalFirst ? null : journal, count);
+                if (round >= 4) {
+                    plain = Math.min(plain, journalFirst ? second : first);
+                    journaled = Math.min(journaled, journalFirst ? first : second);
+                }
+            }
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+        System.out.println(String.format("journal overhead: %.1f%%", 100.0 * (journaled - plain) / plain));
+    }
+
+    /**
+     * @return how long building count treasures takes, journaled if journal isn't null
+     */
+    private static long time(RollJournal journal, int count) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            if (journal == null) {
+                KINDS[i % KINDS.length].build();
+            } else {
+                journal.record(KINDS[i % KINDS.length]);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,316 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Sampler Conformance Tests</h1>
+ * Draws millions of samples from every weighted table and from rollD6, and checks the counts
+ * against the declared weights with a chi-squared test, and the dice against their exact
+ * distribution with a Kolmogorov-Smirnov test as well. Any faster sampler that replaces the
+ * current ones has to pass the same checks, so it can't skew the loot odds.
+ * <p>
+ * Each table is sampled in chunks on a thread pool, every chunk with its own seeded source, so
+ * the results are the same on every run and the suite finishes in seconds.
+ *
+ * @since 2021-2-19
+ */
+public class SamplerConformanceTest {
+
+    private static final int SAMPLES = 2000000;
+    private static final int CHUNKS = 16;
+    private static final long SEED = 32;
+    /**
+     * A p-value below this fails the test. The seeds are fixed, so a failure is never chance.
+     */
+    private static final double SIGNIFICANCE = 1e-4;
+
+    /**
+     * Something that draws an index from a table
+     */
+    private interface Sampler {
+        int sample();
+    }
+
+    /**
+     * A sampler and the weights it should follow
+     */
+    private static final class Check {
+        final String name;
+        final Sampler sampler;
+        final double[] weights;
+
+        Check(String name, Sampler sampler, double[] weights) {
+            this.name = name;
+            this.sampler = sampler;
+            this.weights = weights;
+        }
+    }
+
+    private static double[] weights(int[] probabilities) {
+        double[] weights = new double[probabilities.length];
+        for (int i = 0; i < probabilities.length; i++) {
+            weights[i] = probabilities[i];
+        }
+        return weights;
+    }
+
+    private static double[] uniform(int length) {
+        double[] weights = new double[length];
+        Arrays.fill(weights, 1);
+        return weights;
+    }
+
+    private static double[] flatten(int[][] probabilities) {
+        int length = 0;
+        for (int[] row : probabilities) {
+            length += row.length;
+        }
+        double[] weights = new double[length];
+        int i = 0;
+        for (int[] row : probabilities) {
+            for (int p : row) {
+                weights[i++] = p;
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * The exact distribution of the total of count d6, indexed by total - count
+     */
+    private static double[] diceWeights(int count) {
+        double[] weights = {1};
+        for (int die = 0; die < count; die++) {
+            double[] next = new double[weights.length + 5];
+            for (int i = 0; i < weights.length; i++) {
+                for (int face = 0; face < 6; face++) {
+                    next[i + face] += weights[i];
+                }
+            }
+            weights = next;
+        }
+        return weights;
+    }
+
+    /**
+     * Maps a draw from the fiber table to its position in the flattened fiber tables, the same way
+     * buildFiber finds the category and entry.
+     */
+    private static int fiberEntry(int num) {
+        int[] categories = TreasureBuilder.FIBER_CATEGORY_PROBABILITIES;
+        int category = TreasureBuilder.selectFromProbabilityList(categories, num);
+        int index = TreasureBuilder.selectFromProbabilityList(TreasureBuilder.FIBER_PROBABILITIES[category],
+                num - TreasureBuilder.PartialArraySum(categories, category));
+        int offset = 0;
+        for (int c = 0; c < category; c++) {
+            offset += TreasureBuilder.FIBER_PROBABILITIES[c].length;
+        }
+        return offset + index;
+    }
+
+    private static List<Check> tableChecks() {
+        List<Check> checks = new ArrayList<>();
+        checks.add(new Check("jewels", TreasureBuilder::drawJewel,
+                weights(JewelTable.WEIGHTS)));
+        checks.add(new Check("soft embellishments", TreasureBuilder::drawSoftEmbellishment,
+                weights(SoftEmbellishmentTable.WEIGHTS)));
+        checks.add(new Check("hard embellishments", TreasureBuilder::drawHardEmbellishment,
+                weights(HardEmbellishmentTable.WEIGHTS)));
+        checks.add(new Check("races", TreasureBuilder::drawRace,
+                weights(RaceTable.WEIGHTS)));
+        checks.add(new Check("fibers", () -> fiberEntry(TreasureBuilder.drawFiber()),
+                flatten(TreasureBuilder.FIBER_PROBABILITIES)));
+        checks.add(new Check("spices", TreasureBuilder::drawSpice,
+                uniform(TreasureBuilder.SPICES.length)));
+        checks.add(new Check("materials", TreasureBuilder::drawOtherMaterial,
+                uniform(TreasureBuilder.MATERIALS.length)));
+        for (int dice = 1; dice <= 3; dice++) {
+            final int count = dice;
+            checks.add(new Check(dice + "d6", () -> TreasureBuilder.rollD6(count) - count, diceWeights(dice)));
+        }
+        return checks;
+    }
+
+    /**
+     * Draws samples from a sampler in parallel chunks and counts how often each index came up.
+     */
+    private static long[] count(ExecutorService pool, final Check check, long seed) throws Exception {
+        List<Future<long[]>> chunks = new ArrayList<>();
+        for (int c = 0; c < CHUNKS; c++) {
+            final long chunkSeed = seed + c;
+            chunks.add(pool.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() {
+                    long[] counts = new long[check.weights.length];
+                    RandomSource previous = TreasureBuilder.setRandomSource(new SeededRandom(chunkSeed));
+                    try {
+                        for (int i = 0; i < SAMPLES / CHUNKS; i++) {
+                            counts[check.sampler.sample()]++;
+                        }
+                    } finally {
+                        TreasureBuilder.setRandomSource(previous);
+                    }
+                    return counts;
+                }
+            }));
+        }
+        long[] total = new long[check.weights.length];
+        for (Future<long[]> chunk : chunks) {
+            long[] counts = chunk.get();
+            for (int i = 0; i < total.length; i++) {
+                total[i] += counts[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * The chi-squared p-value of the counts given the weights
+     */
+    static double chiSquaredPValue(long[] counts, double[] weights) {
+        long n = 0;
+        double weightTotal = 0;
+        for (int i = 0; i < counts.length; i++) {
+            n += counts[i];
+            weightTotal += weights[i];
+        }
+        double statistic = 0;
+        int categories = 0;
+        for (int i = 0; i < counts.length; i++) {
+            double expected = n * weights[i] / weightTotal;
+            if (expected == 0) {
+                if (counts[i] != 0) return 0;
+                continue;
+            }
+            double difference = counts[i] - expected;
+            statistic += difference * difference / expected;
+            categories++;
+        }
+        return regularizedGammaQ((categories - 1) / 2.0, statistic / 2);
+    }
+
+    /**
+     * The largest distance between the observed and expected cumulative distributions, scaled by
+     * the square root of the sample size. Above about 1.95 is significant at the 0.001 level.
+     */
+    static double ksStatistic(long[] counts, double[] weights) {
+        long n = 0;
+        double weightTotal = 0;
+        for (int i = 0; i < counts.length; i++) {
+            n += counts[i];
+            weightTotal += weights[i];
+        }
+        double observed = 0;
+        double expected = 0;
+        double largest = 0;
+        for (int i = 0; i < counts.length; i++) {
+            observed += counts[i] / (double) n;
+            expected += weights[i] / weightTotal;
+            largest = Math.max(largest, Math.abs(observed - expected));
+        }
+        return largest * Math.sqrt(n);
+    }
+
+    /**
+     * The regularized upper incomplete gamma function Q(a, x), used for the chi-squared p-value
+     */
+    static double regularizedGammaQ(double a, double x) {
+        if (x <= 0) return 1;
+        if (x < a + 1) {
+            // series for P(a, x)
+            double term = 1 / a;
+            double sum = term;
+            for (int n = 1; n < 1000; n++) {
+                term *= x / (a + n);
+                sum += term;
+                if (Math.abs(term) < Math.abs(sum) * 1e-15) break;
+            }
+            return 1 - sum * Math.exp(-x + a * Math.log(x) - logGamma(a));
+        }
+        // continued fraction for Q(a, x)
+        double b = x + 1 - a;
+        double c = 1 / 1e-300;
+        double d = 1 / b;
+        double h = d;
+        for (int i = 1; i < 1000; i++) {
+            double an = -i * (i - a);
+            b += 2;
+            d = an * d + b;
+            if (Math.abs(d) < 1e-300) d = 1e-300;
+            c = b + an / c;
+            if (Math.abs(c) < 1e-300) c = 1e-300;
+            d = 1 / d;
+            double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1) < 1e-15) break;
+        }
+        return Math.exp(-x + a * Math.log(x) - logGamma(a)) * h;
+    }
+
+    /**
+     * The log of the gamma function, using the Lanczos approximation
+     */
+    private static double logGamma(double x) {
+        double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double series = 1.000000000190015;
+        for (double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+
+    /**
+     * Every table and dice roll follows its declared weights.
+     */
+    @Test
+    public void samplers_matchDeclaredWeights() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Check> checks = tableChecks();
+            for (int i = 0; i < checks.size(); i++) {
+                Check check = checks.get(i);
+                long[] counts = count(pool, check, SEED * 1000 + i * CHUNKS);
+                double p = chiSquaredPValue(counts, check.weights);
+                double ks = ksStatistic(counts, check.weights);
+                System.out.println(check.name + ": chi-squared p = " + p + ", KS = " + ks);
+                assertTrue(check.name + " chi-squared p = " + p, p > SIGNIFICANCE);
+                assertTrue(check.name + " KS = " + ks, ks < 1.95);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The harness is sensitive enough to catch a sampler that is only slightly off, such as one
+     * that never rolls for a bigger jewel.
+     */
+    @Test
+    public void skewedSampler_isRejected() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            Check skewed = new Check("skewed jewels", () -> {
+                int index = TreasureBuilder.drawJewel();
+                return index == 0 ? 1 : index;
+            }, weights(JewelTable.WEIGHTS));
+            double p = chiSquaredPValue(count(pool, skewed, SEED), skewed.weights);
+            assertTrue("skewed p = " + p, p < SIGNIFICANCE);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Treasure Cache Tests</h1>
+ * Verifies cached treasures match freshly built ones, eviction keeps the cache under its weight,
+ * and concurrent misses only build once. Also benchmarks the cache with Zipfian keys.
+ *
+ * @since 2021-2-21
+ */
+public class TreasureCacheTest {
+
+    /**
+     * Checks two lookups were served their own copies of the same cached treasure.
+     */
+    private static void assertSameTreasure(TreasureComponent expected, TreasureComponent actual) {
+        assertNotSame(expected, actual);
+        assertEquals(expected.name(), actual.name());
+        assertEquals(expected.costValue(), actual.costValue());
+        assertEquals(expected.sourceHash(), actual.sourceHash());
+    }
+
+    /**
+     * A cached treasure is the same as one built from the same seed.
+     */
+    @Test
+    public void cachedTreasure_matchesBuilder() {
+        TreasureCache cache = new TreasureCache(1000);
+        for (TreasureKind kind : TreasureKind.values()) {
+            TreasureComponent first = cache.get(kind, 34);
+            TreasureComponent built = kind.build(34, 0);
+            assertEquals(built.name(), first.name());
+            assertEquals(built.costValue(), first.costValue());
+            assertSameTreasure(first, cache.get(kind, 34));
+        }
+        assertEquals(4, cache.hits());
+        assertEquals(4, cache.misses());
+    }
+
+    /**
+     * A treasure built from one snapshot of the tables isn't served once another is published,
+     * and is found again by a generation that pins the old snapshot.
+     */
+    @Test
+    public void publishedTables_missOldSnapshot() throws IOException {
+        TreasureCache cache = new TreasureCache(1000);
+        TreasureComponent compiled = cache.get(TreasureKind.JEWEL, 34);
+        LootTables reloaded = LootTables.load(LootTablesTest.tableDir());
+        LootTables.publish(reloaded);
+        try {
+            TreasureComponent fresh = cache.get(TreasureKind.JEWEL, 34);
+            assertNotSame(compiled, fresh);
+            assertEquals(compiled.name(), fresh.name());
+            assertEquals(2, cache.loads());
+            assertSameTreasure(fresh, cache.get(TreasureKind.JEWEL, 34));
+            try (Generation generation = Generation.start(LootTables.COMPILED)) {
+                assertSame(LootTables.COMPILED, generation.tables());
+                assertSameTreasure(compiled, cache.get(TreasureKind.JEWEL, 34));
+            }
+        } finally {
+            LootTables.publish(LootTables.COMPILED);
+        }
+        assertEquals(2, cache.loads());
+    }
+
+    /**
+     * Changing a treasure the cache returned doesn't change what the cache serves next.
+     */
+    @Test
+    public void returnedTreasure_isCallersOwn() {
+        TreasureCache cache = new TreasureCache(1000);
+        TreasureComponent built = TreasureKind.JEWEL.build(34, 0);
+        TreasureComponent changed = cache.get(TreasureKind.JEWEL, 34);
+        changed.setName("changed");
+        changed.setCost(1, 0);
+        TreasureComponent again = cache.get(TreasureKind.JEWEL, 34);
+        assertEquals(1, cache.hits());
+        assertEquals(built.name(), again.name());
+        assertEquals(built.costValue(), again.costValue());
+        assertEquals(built.sourceHash(), again.sourceHash());
+    }
+
+    /**
+     * The least recently used treasures are evicted once the weight limit is passed.
+     */
+    @Test
+    public void eviction_keepsWeightUnderLimit() {
+        TreasureCache cache = new TreasureCache(100);
+        for (long seed = 0; seed < 1000; seed++) {
+            cache.get(TreasureKind.FIBER, seed);
+            // keep seed 0 recently used so it is never evicted
+            cache.get(TreasureKind.FIBER, 0);
+            assertTrue(cache.weight() <= 100);
+        }
+        assertTrue(cache.evictions() > 0);
+        long loads = cache.loads();
+        cache.get(TreasureKind.FIBER, 0);
+        assertEquals(loads, cache.loads());
+    }
+
+    /**
+     * Many threads missing on the same key build the treasure only once, including a thread that
+     * missed just before another finished building it.
+     */
+    @Test
+    public void concurrentMisses_loadOnce() throws Exception {
+        final TreasureCache cache = new TreasureCache(1000);
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (long seed = 0; seed < 500; seed++) {
+                final long key = seed;
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<TreasureComponent>> results = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    results.add(pool.submit(new Callable<TreasureComponent>() {
+                        @Override
+                        public TreasureComponent call() throws InterruptedException {
+                            start.await();
+                            return cache.get(TreasureKind.JEWEL, key);
+                        }
+                    }));
+                }
+                start.countDown();
+                TreasureComponent first = results.get(0).get();
+                for (int t = 1; t < threads; t++) {
+                    assertSameTreasure(first, results.get(t).get());
+                }
+            }
+            assertEquals(500, cache.loads());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Large caches are split into stripes that together stay under the weight limit, and small
+     * ones keep a single stripe.
+     */
+    @Test
+    public void stripes_shareWeightLimit() {
+        assertEquals(1, new TreasureCache(100).stripes());
+        assertEquals(1, new TreasureCache(2 * TreasureCache.MIN_STRIPE_WEIGHT - 1).stripes());
+        assertEquals(2, new TreasureCache(2 * TreasureCache.MIN_STRIPE_WEIGHT).stripes());
+        assertEquals(TreasureCache.MAX_STRIPES, new TreasureCache(Long.MAX_VALUE).stripes());
+
+        TreasureCache cache = new TreasureCache(8 * TreasureCache.MIN_STRIPE_WEIGHT);
+        assertEquals(8, cache.stripes());
+        for (long seed = 0; seed < 20000; seed++) {
+            cache.get(TreasureKind.values()[(int) (seed % 4)], seed);
+        }
+        assertTrue(cache.evictions() > 0);
+        assertTrue(cache.weight() <= 8 * TreasureCache.MIN_STRIPE_WEIGHT);
+        // every stripe is used, so the cache stays close to full
+        assertTrue(cache.weight() > 7 * TreasureCache.MIN_STRIPE_WEIGHT);
+    }
+
+    /**
+     * Draws keys from a Zipfian distribution, where the key of rank k is drawn in proportion to
+     * 1 / k.
+     */
+    private static final class Zipf {
+        final double[] cumulative;
+
+        Zipf(int keys, double exponent) {
+            cumulative = new double[keys];
+            double total = 0;
+            for (int k = 0; k < keys; k++) {
+                total += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = total;
+            }
+            for (int k = 0; k < keys; k++) {
+                cumulative[k] /= total;
+            }
+        }
+
+        int next(Random random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1);
+        }
+    }
+
+    /**
+     * Reports the hit rate and lookups per second with a Zipfian key distribution.
+     */
+    @Test
+    public void zipfianBenchmark() throws Exception {
+        final TreasureCache cache = new TreasureCache(20000);
+        final Zipf zipf = new Zipf(50000, 1.0);
+        final TreasureKind[] kinds = TreasureKind.values();
+        final int lookups = 200000;
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                done.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < lookups; i++) {
+                            int key = zipf.next(random);
+                            cache.get(kinds[key % kinds.length], key);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            long total = (long) lookups * threads;
+            System.out.println("zipfian benchmark: " + String.format("%.0f", total / (elapsed / 1e9))
+                    + " lookups/s, hit rate " + String.format("%.3f", cache.hits() / (double) total)
+                    + ", " + cache);
+            assertEquals(total, cache.hits() + cache.misses());
+            assertTrue(cache.weight() <= 20000);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.LinkedList;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Treasure Component Layout Tests</h1>
+ * Measures the memory footprint of treasure components with JOL and compares it against the
+ * original layout, where every component carried its own LinkedList and Price.
+ *
+ * @since 2021-2-14
+ */
+public class TreasureComponentLayoutTest {
+
+    /**
+     * A copy of the original treasure component layout, kept only so the two can be measured
+     * side by side.
+     */
+    @SuppressWarnings("unused")
+    private static class LegacyComponent {
+        private int id;
+        private TreasureComponentType type;
+        private String name;
+        private String bookReference;
+        private String description;
+        private Price cost = new Price();
+        private LinkedList<LegacyComponent> components = new LinkedList<>();
+    }
+
+    /**
+     * Builds a spice shaped tree: a spice with a single weight child.
+     */
+    private static TreasureComponent spiceTree() {
+        TreasureComponent spice = new TreasureComponent(0, TreasureComponentType.SPICE);
+        spice.setName("Salt");
+        spice.setCost(1500, 0);
+        TreasureComponent weight = new TreasureComponent(1, TreasureComponentType.QUANTITY);
+        weight.setName("3.0 oz");
+        weight.setCost(0, 2);
+        spice.addComponent(weight);
+        return spice;
+    }
+
+    /**
+     * Builds the same spice shaped tree using the original layout.
+     */
+    private static LegacyComponent legacySpiceTree() {
+        LegacyComponent spice = new LegacyComponent();
+        spice.type = TreasureComponentType.SPICE;
+        spice.name = "Salt";
+        spice.cost = new Price(1500, 0);
+        LegacyComponent weight = new LegacyComponent();
+        weight.id = 1;
+        weight.type = TreasureComponentType.QUANTITY;
+        weight.name = "3.0 oz";
+        weight.cost = new Price(0, 2);
+        spice.components.addLast(weight);
+        return spice;
+    }
+
+    /**
+     * A leaf component, such as a quantity, should take less memory than it used to.
+     */
+    @Test
+    public void leafFootprint_isSmaller() {
+        TreasureComponent leaf = new TreasureComponent(1, TreasureComponentType.QUANTITY);
+        LegacyComponent legacyLeaf = new LegacyComponent();
+        legacyLeaf.id = 1;
+        legacyLeaf.type = TreasureComponentType.QUANTITY;
+        leaf.setName("3.0 oz");
+        legacyLeaf.name = "3.0 oz";
+
+        long after = GraphLayout.parseInstance(leaf).totalSize();
+        long before = GraphLayout.parseInstance(legacyLeaf).totalSize();
+        System.out.println(ClassLayout.parseClass(TreasureComponent.class).toPrintable());
+        System.out.println("leaf: before " + before + " bytes, after " + after + " bytes");
+
+        assertTrue(after < before);
+    }
+
+    /**
+     * A small tree should take less memory than it used to, and names taken from a table should
+     * be shared rather than copied.
+     */
+    @Test
+    public void treeFootprint_isSmaller() {
+        long after = GraphLayout.parseInstance(spiceTree()).totalSize();
+        long before = GraphLayout.parseInstance(legacySpiceTree()).totalSize();
+        System.out.println("spice tree: before " + before + " bytes, after " + after + " bytes");
+        assertTrue(after < before);
+
+        // two embellishments from the same table entry share the same name
+        TreasureComponent first = TreasureBuilder.buildSoftEmbellishment(0);
+        TreasureComponent second;
+        do {
+            second = TreasureBuilder.buildSoftEmbellishment(0);
+        } while (!second.name().equals(first.name()));
+        assertTrue(first.name() == second.name());
+    }
+}
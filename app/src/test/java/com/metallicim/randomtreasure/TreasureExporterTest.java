@@ -0,0 +1,170 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Treasure Exporter Tests</h1>
+ * Checks the CSV and JSON exports, that JSON strings are escaped the same as the NDJSON output,
+ * and reports export throughput.
+ *
+ * @since 2021-2-22
+ */
+public class TreasureExporterTest {
+
+    private static String export(TreasureExporter.Format format, boolean includeTree, TreasureKind kind, int count)
+            throws IOException {
+        return export(format, includeTree, kind, count, ByteBuffer.allocate(TreasureExporter.BUFFER_SIZE));
+    }
+
+    private static String export(TreasureExporter.Format format, boolean includeTree, TreasureKind kind, int count,
+            ByteBuffer buffer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TreasureExporter exporter = new TreasureExporter(Channels.newChannel(out), format, includeTree, buffer);
+        exporter.export(kind, 35, 0, count);
+        exporter.finish();
+        assertEquals(count, exporter.items());
+        assertEquals(out.size(), exporter.bytes());
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Names with quotes, control characters, and surrogates, paired or not, are exported with the
+     * same JSON escapes as TreasureNdjson writes, and a lone surrogate is escaped rather than
+     * encoded as invalid UTF-8.
+     */
+    @Test
+    public void jsonStrings_matchNdjson() throws IOException {
+        String name = "\"Odd\" \\ \n\t\u0001 \uD83D\uDC8E \uD83D \uDC8E\uD83D";
+        TreasureComponent composed = new TreasureComponent(0, TreasureComponentType.JEWEL);
+        composed.setName(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TreasureExporter exporter = new TreasureExporter(Channels.newChannel(out), TreasureExporter.Format.JSON, false);
+        exporter.write(composed);
+        exporter.finish();
+        String escaped = TreasureNdjson.appendString(new StringBuilder(), name).toString();
+        assertEquals("\"\\\"Odd\\\" \\\\ \\n\\t\\u0001 \uD83D\uDC8E \\ud83d \\udc8e\\ud83d\"", escaped);
+        assertTrue(out.toString("UTF-8"), out.toString("UTF-8").startsWith("[\n{\"name\":" + escaped + ","));
+    }
+
+    /**
+     * The CSV has a header and one quoted row per treasure, matching the builders.
+     */
+    @Test
+    public void csvExport_matchesBuilder() throws IOException {
+        String[] lines = export(TreasureExporter.Format.CSV, false, TreasureKind.SPICE, 500).split("\n");
+        assertEquals(501, lines.length);
+        assertEquals("name,cents,type,bookReference", lines[0]);
+        for (int i = 0; i < 500; i++) {
+            TreasureComponent built = TreasureKind.SPICE.build(35, i);
+            assertEquals("\"" + built.name() + "\"," + built.costValue() + ",SPICE,\"Dungeon Fantasy 8 p. 11\"",
+                    lines[i + 1]);
+        }
+    }
+
+    /**
+     * The JSON is an array of objects, including the tree when asked.
+     */
+    @Test
+    public void jsonExport_includesTree() throws IOException {
+        String json = export(TreasureExporter.Format.JSON, true, TreasureKind.JEWEL, 3);
+        String[] lines = json.split("\n");
+        assertEquals("[", lines[0]);
+        assertEquals("]", lines[4]);
+        TreasureComponent built = TreasureKind.JEWEL.build(35, 0);
+        assertTrue(lines[1].startsWith("{\"name\":\"" + built.name() + "\",\"cents\":" + built.costValue()
+                + ",\"type\":\"JEWEL\",\"bookReference\":null,\"tree\":{\"type\":\"JEWEL\""));
+        assertTrue(lines[1].contains("\"components\":[{\"type\":\"QUANTITY\""));
+        assertEquals("[\n]\n", export(TreasureExporter.Format.JSON, false, TreasureKind.JEWEL, 0));
+    }
+
+    /**
+     * Nothing can be written once an export is finished, since it would come after the end of the
+     * JSON array.
+     */
+    @Test
+    public void writeAfterFinish_isRejected() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TreasureExporter exporter = new TreasureExporter(Channels.newChannel(out), TreasureExporter.Format.JSON, false);
+        exporter.export(TreasureKind.JEWEL, 35, 0, 2);
+        exporter.finish();
+        String finished = out.toString("UTF-8");
+        try {
+            exporter.write(TreasureKind.JEWEL.compose());
+            fail("expected the write to be rejected");
+        } catch (IllegalStateException expected) {
+            // the export is finished
+        }
+        try {
+            exporter.export(TreasureKind.JEWEL, 35, 2, 1);
+            fail("expected the export to be rejected");
+        } catch (IllegalStateException expected) {
+            // the export is finished
+        }
+        exporter.finish();
+        assertEquals(finished, out.toString("UTF-8"));
+        assertEquals(2, exporter.items());
+    }
+
+    /**
+     * One buffer can be reused export after export, and even the smallest buffer gives the same
+     * export.
+     */
+    @Test
+    public void sharedBuffer_givesSameExport() throws IOException {
+        ByteBuffer shared = ByteBuffer.allocateDirect(TreasureExporter.BUFFER_SIZE);
+        for (TreasureExporter.Format format : TreasureExporter.Format.values()) {
+            String expected = export(format, true, TreasureKind.MATERIAL, 300);
+            assertEquals(expected, export(format, true, TreasureKind.MATERIAL, 300, shared));
+            assertEquals(expected, export(format, true, TreasureKind.MATERIAL, 300, shared));
+            assertEquals(expected, export(format, true, TreasureKind.MATERIAL, 300,
+                    ByteBuffer.allocate(TreasureExporter.MIN_BUFFER_SIZE)));
+        }
+        try {
+            new TreasureExporter(Channels.newChannel(new ByteArrayOutputStream()), TreasureExporter.Format.CSV, false,
+                    ByteBuffer.allocate(TreasureExporter.MIN_BUFFER_SIZE - 1));
+            fail("expected the buffer to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // too small for a UTF-8 character
+        }
+    }
+
+    /**
+     * Reports megabytes and treasures exported per second.
+     */
+    @Test
+    public void exportThroughput() throws IOException {
+        WritableByteChannel sink = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int written = src.remaining();
+                src.position(src.limit());
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() { return true; }
+
+            @Override
+            public void close() {}
+        };
+        for (TreasureExporter.Format format : TreasureExporter.Format.values()) {
+            TreasureExporter exporter = new TreasureExporter(sink, format, true);
+            long start = System.nanoTime();
+            exporter.export(TreasureKind.FIBER, 35, 0, 200000);
+            exporter.finish();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(format + " export: " + String.format("%.1f", exporter.bytes() / 1e6 / seconds)
+                    + " MB/s, " + String.format("%.0f", exporter.items() / seconds) + " items/s");
+        }
+    }
+}
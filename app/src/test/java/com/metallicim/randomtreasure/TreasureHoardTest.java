@@ -0,0 +1,156 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Treasure Hoard Unit Tests</h1>
+ * Checks the structural hash assembly works out matches the tree, that the hoard keeps every
+ * distinct treasure once with the right counts and value, and reports how much memory grouping
+ * saves on hoards of realistic sizes, measured with JOL.
+ *
+ * @since 2021-3-3
+ */
+public class TreasureHoardTest {
+
+    private static final long SEED = 44;
+    private static final TreasureKind[] KINDS = TreasureKind.values();
+
+    private static TreasureComponent compose(TreasureKind kind, long index) {
+        RandomSource previous = TreasureBuilder.setRandomSource(SeededRandom.forItem(SEED, index));
+        try {
+            return kind.compose();
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+    }
+
+    private static TreasureComponent salt(double ounces) {
+        TreasureComponent spice = new TreasureComponent(0, TreasureComponentType.SPICE);
+        spice.setName("Salt");
+        spice.setCost(15, 0);
+        spice.addComponent(new Quantity(1, ounces, Unit.SPICE_OUNCE));
+        return spice;
+    }
+
+    /**
+     * Assembly gives the structural hash of the tree, and equal trees have equal hashes.
+     */
+    @Test
+    public void structuralHash_matchesAssembly() {
+        for (TreasureKind kind : KINDS) {
+            for (int index = 0; index < 200; index++) {
+                TreasureComponent composed = compose(kind, index);
+                TreasureComponent again = compose(kind, index);
+                assertEquals(composed.structuralHash(), composed.assembleTreasure().sourceHash());
+                assertEquals(composed.structuralHash(), composed.reassemble().sourceHash());
+                assertTrue(composed.structurallyEquals(again));
+                assertEquals(composed.structuralHash(), again.structuralHash());
+            }
+        }
+
+        TreasureComponent salt = salt(3);
+        assertTrue(salt.structurallyEquals(salt(3)));
+        assertFalse(salt.structurallyEquals(salt(4)));
+        assertNotEquals(salt.structuralHash(), salt(4).structuralHash());
+        TreasureComponent cheaper = salt(3);
+        cheaper.setCost(14, 0);
+        assertFalse(salt.structurallyEquals(cheaper));
+        TreasureComponent renumbered = salt(3);
+        renumbered.setID(9);
+        assertTrue(salt.structurallyEquals(renumbered));
+
+        // a reassembled tree keeps its hash up to date
+        salt.reassemble();
+        salt.component(0).setName("4.0 oz");
+        assertEquals(salt.structuralHash(), salt.reassemble().sourceHash());
+        assertEquals(salt.structuralHash(), salt(4).structuralHash());
+    }
+
+    /**
+     * Identical treasures are kept once and rendered with a count.
+     */
+    @Test
+    public void identicalTreasures_areGrouped() {
+        TreasureHoard hoard = new TreasureHoard();
+        TreasureComponent first = salt(3);
+        assertEquals(0, hoard.add(first));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, hoard.add(salt(3)));
+        }
+        assertEquals(1, hoard.add(salt(4)));
+        assertEquals(2, hoard.size());
+        assertEquals(5, hoard.totalCount());
+        assertEquals(4, hoard.count(0));
+        assertSame(first, hoard.treasure(0));
+        assertEquals("3.0 oz Salt \u00D74\n4.0 oz Salt\n", hoard.toString());
+        assertEquals(5 * 15, hoard.totalValue());
+    }
+
+    /**
+     * A generated hoard keeps every treasure, in the group of a structurally equal tree.
+     */
+    @Test
+    public void generatedHoard_keepsEveryTreasure() {
+        TreasureHoard hoard = new TreasureHoard();
+        long value = 0;
+        int count = 3000;
+        for (TreasureKind kind : KINDS) {
+            hoard.add(kind, SEED, 0, count);
+            for (int index = 0; index < count; index++) {
+                value += kind.build(SEED, index).costValue();
+            }
+        }
+        assertEquals(KINDS.length * count, hoard.totalCount());
+        assertEquals(value, hoard.totalValue());
+        long counted = 0;
+        for (int group = 0; group < hoard.size(); group++) {
+            counted += hoard.count(group);
+            assertEquals(hoard.treasure(group).assembleTreasure().name(), hoard.assembled(group).name());
+        }
+        assertEquals(hoard.totalCount(), counted);
+
+        TreasureHoard again = new TreasureHoard();
+        for (int index = 0; index < count; index++) {
+            int group = again.add(compose(TreasureKind.SPICE, index));
+            assertTrue(compose(TreasureKind.SPICE, index).structurallyEquals(again.treasure(group)));
+        }
+        assertTrue(again.size() < count);
+    }
+
+    /**
+     * Reports the memory a grouped hoard saves over keeping every treasure, on hoards of a few
+     * realistic sizes with every kind mixed in.
+     */
+    @Test
+    public void memorySaved_report() {
+        int[] sizes = {100, 1000, 10000};
+        for (int size : sizes) {
+            List<TreasureComponent> everyTree = new ArrayList<>(size * 2);
+            TreasureHoard hoard = new TreasureHoard();
+            for (int index = 0; index < size; index++) {
+                TreasureKind kind = KINDS[index % KINDS.length];
+                TreasureComponent composed = compose(kind, index);
+                everyTree.add(composed);
+                everyTree.add(composed.assembleTreasure());
+                hoard.add(compose(kind, index));
+            }
+            long separate = GraphLayout.parseInstance(everyTree).totalSize();
+            long grouped = GraphLayout.parseInstance(hoard).totalSize();
+            System.out.println(String.format("hoard of %d: %d distinct, every tree %d bytes, grouped %d bytes, %.1f%% saved",
+                    size, hoard.size(), separate, grouped, 100.0 * (separate - grouped) / separate));
+            if (size >= 1000) {
+                assertTrue(grouped < separate);
+            }
+        }
+    }
+}
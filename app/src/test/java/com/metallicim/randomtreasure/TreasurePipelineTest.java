@@ -0,0 +1,108 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Treasure Pipeline Unit Tests</h1>
+ * Verifies that building treasures in batches gives exactly the same treasures as building them
+ * one at a time with TreasureBuilder, and that the trace of a batch tells its treasures apart.
+ *
+ * @since 2021-2-16
+ */
+public class TreasurePipelineTest {
+
+    private interface Builder {
+        TreasureComponent build();
+    }
+
+    /**
+     * Builds a treasure one at a time with the builder, using the same random source the pipeline
+     * uses for that index.
+     */
+    private static TreasureComponent buildWith(Builder builder, long seed, long index) {
+        RandomSource previous = TreasureBuilder.setRandomSource(SeededRandom.forItem(seed, index));
+        try {
+            return builder.build();
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+    }
+
+    /**
+     * Checks every treasure of a bulk run against the one at a time path.
+     */
+    private static void assertMatches(TreasurePipeline pipeline, Builder builder) {
+        long seed = 28;
+        int count = TreasurePipeline.BATCH_SIZE * 3 + 17;
+        TreasureComponent[] bulk = pipeline.build(seed, 5, count);
+        for (int i = 0; i < count; i++) {
+            TreasureComponent single = buildWith(builder, seed, 5 + i);
+            assertEquals(single.name(), bulk[i].name());
+            assertEquals(single.costValue(), bulk[i].costValue());
+
+            TreasureComponent one = pipeline.buildOne(seed, 5 + i);
+            assertEquals(single.name(), one.name());
+            assertEquals(single.costValue(), one.costValue());
+        }
+    }
+
+    @Test
+    public void spicePipeline_matchesBuilder() {
+        assertMatches(TreasurePipeline.SPICE, TreasureBuilder::buildSpice);
+    }
+
+    @Test
+    public void fiberPipeline_matchesBuilder() {
+        assertMatches(TreasurePipeline.FIBER, TreasureBuilder::buildFiber);
+    }
+
+    @Test
+    public void otherMaterialPipeline_matchesBuilder() {
+        assertMatches(TreasurePipeline.OTHER_MATERIAL, TreasureBuilder::buildOtherMaterial);
+    }
+
+    /**
+     * The events of each treasure in a traced batch, gathered from its BEGIN and RESUME lines, are
+     * the events of building that treasure on its own.
+     */
+    @Test
+    public void trace_separatesItems() {
+        long seed = 28;
+        int count = 4;
+        List<StringBuilder> items = new ArrayList<>();
+        String[] expected = new String[count];
+        TreasureTrace.clear();
+        TreasureTrace.setEnabled(true);
+        try {
+            for (int i = 0; i < count; i++) {
+                buildWith(TreasureBuilder::buildSpice, seed, 5 + i);
+                String single = TreasureTrace.dump(1);
+                assertTrue(single, single.startsWith("BEGIN SPICE\n"));
+                expected[i] = single.substring(single.indexOf('\n') + 1);
+                items.add(new StringBuilder());
+            }
+            TreasureTrace.clear();
+            TreasurePipeline.SPICE.build(seed, 5, count);
+            StringBuilder current = null;
+            for (String line : TreasureTrace.dump(count).split("\n")) {
+                if (line.startsWith("BEGIN SPICE #") || line.startsWith("RESUME #")) {
+                    current = items.get(Integer.parseInt(line.substring(line.indexOf('#') + 1)) - 5);
+                } else {
+                    current.append(line).append('\n');
+                }
+            }
+        } finally {
+            TreasureTrace.setEnabled(false);
+            TreasureTrace.clear();
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected[i], items.get(i).toString());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.metallicim.randomtreasure.TreasureTrees.randomLeaf;
+import static com.metallicim.randomtreasure.TreasureTrees.randomTree;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Treasure Reassembly Unit Tests</h1>
+ * Verifies that reassembling a treasure after re-rolling or replacing part of it gives exactly
+ * what assembling the whole tree again gives, and reports how much faster it is on a large tree.
+ *
+ * @since 2021-2-26
+ */
+public class TreasureReassemblyTest {
+
+    private static void assertSameAssembly(TreasureComponent root) {
+        TreasureTrees.assertSameAssembly(root.assembleTreasure(), root.reassemble());
+    }
+
+    /**
+     * Re-rolling the embellishment of a decorative treasure, or the jewels of a Jeweled one,
+     * reassembles to the same treasure as a full assembly.
+     */
+    @Test
+    public void reroll_matchesFullAssembly() {
+        RandomSource previous = TreasureBuilder.setRandomSource(new SeededRandom(39));
+        int rerolled = 0;
+        int jeweled = 0;
+        try {
+            for (int i = 0; i < 5000; i++) {
+                TreasureComponent root = TreasureKind.fromOrdinal(i % 3).compose();
+                assertSameAssembly(root);
+                if (root.type() != TreasureComponentType.SOFTEMBELLISHMENT
+                        && root.type() != TreasureComponentType.HARDEMBELLISHMENT) {
+                    continue;
+                }
+                String before = root.reassemble().name();
+                TreasureBuilder.rerollEmbellishment(root);
+                assertSameAssembly(root);
+                rerolled++;
+                if (root.name().startsWith("Jeweled with ")) {
+                    TreasureBuilder.rerollEmbellishmentJewels(root);
+                    assertSameAssembly(root);
+                    jeweled++;
+                }
+                // the contents are untouched
+                String contents = root.component(0).assembleTreasure().name();
+                assertTrue(before.startsWith(contents));
+            }
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+        assertTrue(rerolled > 0);
+        assertTrue(jeweled > 0);
+    }
+
+    /**
+     * Any mix of renames, price changes, replaced subtrees, and added children, made between
+     * reassemblies, gives the same result as a full assembly.
+     */
+    @Test
+    public void randomEdits_matchFullAssembly() {
+        Random random = new Random(39);
+        List<TreasureComponent> nodes = new ArrayList<>();
+        TreasureComponent root = randomTree(random, 5, 3, nodes);
+        assertSameAssembly(root);
+        for (int round = 0; round < 500; round++) {
+            int edits = 1 + random.nextInt(3);
+            for (int e = 0; e < edits; e++) {
+                TreasureComponent node = nodes.get(random.nextInt(nodes.size()));
+                switch (random.nextInt(4)) {
+                    case 0: {
+                        node.setName("renamed" + round);
+                    } break;
+                    case 1: {
+                        node.setCost(random.nextInt(1000), random.nextInt(8) / 4.0);
+                    } break;
+                    case 2: {
+                        if (node.componentCount() > 0) {
+                            List<TreasureComponent> added = new ArrayList<>();
+                            TreasureComponent replacement = randomTree(random, random.nextInt(3), 2, added);
+                            node.replaceComponent(random.nextInt(node.componentCount()), replacement);
+                            nodes.addAll(added);
+                        }
+                    } break;
+                    default: {
+                        TreasureComponent leaf = randomLeaf(random);
+                        node.addComponent(leaf);
+                        nodes.add(leaf);
+                    } break;
+                }
+            }
+            assertSameAssembly(root);
+        }
+    }
+
+    /**
+     * Replacing one leaf of a tree with over 10^5 components only reassembles the path to it. The
+     * rest of the full name is still copied, but in bulk rather than component by component.
+     */
+    @Test
+    public void benchmark() {
+        Random random = new Random(39);
+        List<TreasureComponent> nodes = new ArrayList<>();
+        TreasureComponent root = randomTree(random, 6, 7, nodes);
+        assertTrue(nodes.size() > 100000);
+        root.reassemble();
+
+        TreasureComponent parent = root;
+        while (parent.component(0).componentCount() > 0) {
+            parent = parent.component(0);
+        }
+        int rounds = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            parent.replaceComponent(i % parent.componentCount(), randomLeaf(random));
+            root.reassemble();
+        }
+        long incrementalNanos = (System.nanoTime() - start) / rounds;
+
+        start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            root.assembleTreasure();
+        }
+        long fullNanos = (System.nanoTime() - start) / 5;
+
+        assertSameAssembly(root);
+        System.out.println("reassembly of " + nodes.size() + " components: full " + fullNanos / 1000000.0
+                + " ms, one leaf re-rolled " + incrementalNanos / 1000000.0 + " ms");
+    }
+}
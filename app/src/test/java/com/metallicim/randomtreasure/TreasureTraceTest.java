@@ -0,0 +1,108 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Treasure Trace Unit Tests</h1>
+ * Verifies the trace records the generation path of each treasure when enabled, whichever way it
+ * is built and on whichever thread, and records nothing when disabled.
+ *
+ * @since 2021-2-17
+ */
+public class TreasureTraceTest {
+
+    @After
+    public void disableTrace() {
+        TreasureTrace.setEnabled(false);
+        TreasureTrace.clear();
+    }
+
+    /**
+     * Nothing is recorded while tracing is off.
+     */
+    @Test
+    public void disabledTrace_recordsNothing() {
+        TreasureTrace.clear();
+        TreasureBuilder.buildSpice();
+        TreasureBuilder.buildJewel();
+        assertEquals("", TreasureTrace.dump(10));
+    }
+
+    /**
+     * The dump covers only the last treasures asked for, and includes their draws and rolls.
+     */
+    @Test
+    public void dump_describesLastTreasures() {
+        RandomSource previous = TreasureBuilder.setRandomSource(new SeededRandom(30));
+        try {
+            TreasureTrace.clear();
+            TreasureTrace.setEnabled(true);
+            TreasureBuilder.buildFiber();
+            TreasureBuilder.buildSpice();
+            TreasureBuilder.buildJewel();
+        } finally {
+            TreasureBuilder.setRandomSource(previous);
+        }
+
+        String lastTwo = TreasureTrace.dump(2);
+        assertFalse(lastTwo.contains("BEGIN FIBER"));
+        assertTrue(lastTwo.startsWith("BEGIN SPICE\n  DRAW PROPERTIES"));
+        assertTrue(lastTwo.contains("DRAW SPICE"));
+        assertTrue(lastTwo.contains("ROLL 1d6"));
+        assertTrue(lastTwo.contains("BEGIN JEWEL"));
+        assertTrue(lastTwo.contains("VALUE JEWEL"));
+        assertTrue(TreasureTrace.dump(3).startsWith("BEGIN FIBER"));
+    }
+
+    /**
+     * The ring keeps only the most recent events once it wraps around.
+     */
+    @Test
+    public void ring_keepsMostRecentEvents() {
+        TreasureTrace.clear();
+        TreasureTrace.setEnabled(true);
+        for (int i = 0; i < TreasureTrace.CAPACITY; i++) {
+            TreasureBuilder.buildSpice();
+        }
+        String dump = TreasureTrace.dump(Integer.MAX_VALUE);
+        int lines = dump.split("\n").length;
+        assertTrue(lines <= TreasureTrace.CAPACITY);
+        assertTrue(dump.startsWith("BEGIN SPICE"));
+    }
+
+    /**
+     * A treasure composed without TreasureBuilder's build functions still begins in the trace.
+     */
+    @Test
+    public void compose_beginsTreasure() {
+        TreasureTrace.setEnabled(true);
+        TreasureTrace.Table[] tables = {TreasureTrace.Table.SPICE, TreasureTrace.Table.FIBER,
+                TreasureTrace.Table.MATERIAL, TreasureTrace.Table.JEWEL};
+        for (TreasureKind kind : TreasureKind.values()) {
+            TreasureTrace.clear();
+            kind.compose();
+            String dump = TreasureTrace.dump(1);
+            assertTrue(dump, dump.startsWith("BEGIN " + tables[kind.ordinal()] + "\n"));
+        }
+    }
+
+    /**
+     * Events recorded on another thread can be seen once it has finished.
+     */
+    @Test
+    public void dumpAllThreads_includesOtherThreads() throws InterruptedException {
+        TreasureTrace.clear();
+        TreasureTrace.setEnabled(true);
+        Thread builder = new Thread(TreasureBuilder::buildFiber, "trace-builder");
+        builder.start();
+        builder.join();
+        assertEquals("", TreasureTrace.dump(1));
+        String all = TreasureTrace.dumpAllThreads();
+        assertTrue(all, all.contains("THREAD trace-builder\nBEGIN FIBER\n  DRAW PROPERTIES"));
+    }
+}
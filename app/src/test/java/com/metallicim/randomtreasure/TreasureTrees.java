@@ -0,0 +1,72 @@
+package com.metallicim.randomtreasure;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <h1>Treasure Trees</h1>
+ * Random trees of plain components and assertions on their assembly, shared by the tests that
+ * assemble the same tree in different ways.
+ *
+ * @since 2021-3-5
+ */
+final class TreasureTrees {
+
+    private TreasureTrees() {}
+
+    /**
+     * @return a leaf with a random name, value, and Cost Factor
+     */
+    static TreasureComponent randomLeaf(Random random) {
+        TreasureComponent leaf = new TreasureComponent(0, TreasureComponentType.TYPE);
+        leaf.setName("leaf" + random.nextInt(1000));
+        leaf.setCost(random.nextInt(1000), random.nextInt(8) / 4.0);
+        return leaf;
+    }
+
+    /**
+     * Builds a tree with the given number of levels below the root.
+     * @param nodes where to add every component of the tree, or null
+     */
+    static TreasureComponent randomTree(Random random, int depth, int fanout, List<TreasureComponent> nodes) {
+        if (depth == 0) {
+            TreasureComponent leaf = randomLeaf(random);
+            if (nodes != null) {
+                nodes.add(leaf);
+            }
+            return leaf;
+        }
+        TreasureComponent node = new TreasureComponent(depth, TreasureComponentType.CONTAINER);
+        node.setName("node" + depth);
+        node.setCost(random.nextInt(100), random.nextInt(4) / 4.0);
+        if (nodes != null) {
+            nodes.add(node);
+        }
+        for (int i = 0; i < fanout; i++) {
+            node.addComponent(randomTree(random, depth - 1, fanout, nodes));
+        }
+        return node;
+    }
+
+    /**
+     * @return the number of components in a tree
+     */
+    static int size(TreasureComponent component) {
+        int size = 1;
+        for (int i = 0; i < component.componentCount(); i++) {
+            size += size(component.component(i));
+        }
+        return size;
+    }
+
+    /**
+     * Checks two assemblies of the same tree give the same treasure.
+     */
+    static void assertSameAssembly(TreasureComponent expected, TreasureComponent actual) {
+        assertEquals(expected.name(), actual.name());
+        assertEquals(expected.costValue(), actual.costValue());
+        assertEquals(expected.sourceHash(), actual.sourceHash());
+    }
+}
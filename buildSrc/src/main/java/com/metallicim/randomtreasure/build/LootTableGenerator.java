@@ -0,0 +1,210 @@
+package com.metallicim.randomtreasure.build;
+
+import com.metallicim.randomtreasure.TableDefinition;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * <h1>Loot Table Generator</h1>
+ * Turns the loot table definitions in src/main/tables into specialized Java classes at build time.
+ * Each generated class holds its table as constant arrays, with any "made of " or "with " prefixes
+ * already applied to the names, and selects an entry with an unrolled binary search over the
+ * cumulative weights. The search maps every number to the same entry as
+ * TreasureBuilder.selectFromProbabilityList, so seeds and journals give the same treasures.
+ * <p>
+ * A definition file looks like this, with columns separated by '|':
+ * <pre>
+ * # comments start with a hash
+ * class SoftEmbellishmentTable
+ * columns name weight costFactor prepend
+ * Fine Material | 2 | 2 | MADEOF
+ * </pre>
+ * The name and weight columns are required. A costFactor or value column becomes a double array,
+ * and a prepend column (NONE, MADEOF, WITH, or POSTWITH) is applied to the names. Definitions
+ * are read with the app's TableDefinition, which buildSrc compiles in, so the app reloads its
+ * tables with exactly the same reader.
+ *
+ * @since 2021-2-23
+ */
+public class LootTableGenerator {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Generates a class for every .table file in a directory.
+     * @param tableDir  the directory of table definitions
+     * @param outputDir the root directory for the generated sources
+     * @param pkg       the package of the generated classes
+     * @throws IOException if a definition could not be read or a class could not be written
+     */
+    public static void generate(File tableDir, File outputDir, String pkg) throws IOException {
+        File[] files = tableDir.listFiles();
+        if (files == null) {
+            throw new IOException("No table directory at " + tableDir);
+        }
+        Arrays.sort(files);
+        File packageDir = new File(outputDir, pkg.replace('.', File.separatorChar));
+        if (!packageDir.isDirectory() && !packageDir.mkdirs()) {
+            throw new IOException("Could not create " + packageDir);
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".table")) {
+                TableDefinition table;
+                try (Reader in = new InputStreamReader(new FileInputStream(file), UTF_8)) {
+                    table = TableDefinition.read(in, file.getName());
+                }
+                File out = new File(packageDir, table.className + ".java");
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(out), UTF_8)) {
+                    writer.write(generate(table, pkg, file.getName()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates the class for a table definition
+     * @param table  the definition
+     * @param pkg    the package of the class
+     * @param source the name of the definition file
+     * @return the source of the class
+     */
+    static String generate(TableDefinition table, String pkg, String source) {
+        String className = table.className;
+        int size = table.rows.size();
+        boolean prepends = table.column("prepend") >= 0;
+
+        String[] baseNames = new String[size];
+        String[] names = new String[size];
+        int[] weights = new int[size];
+        int[] cumulative = new int[size];
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            baseNames[i] = table.baseName(i);
+            names[i] = table.name(i);
+            weights[i] = table.weight(i);
+            total += weights[i];
+            cumulative[i] = total;
+        }
+
+        StringBuilder out = new StringBuilder();
+        out.append("package ").append(pkg).append(";\n\n");
+        out.append("/**\n");
+        out.append(" * Generated from tables/").append(source).append(" by LootTableGenerator. Do not edit.\n");
+        out.append(" */\n");
+        out.append("final class ").append(className).append(" {\n\n");
+        out.append("    /**\n     * The sum of every weight in the table\n     */\n");
+        out.append("    static final int TOTAL = ").append(total).append(";\n\n");
+        out.append("    /**\n     * The number of entries in the table\n     */\n");
+        out.append("    static final int SIZE = ").append(size).append(";\n\n");
+        if (prepends) {
+            out.append("    /**\n     * The names as they appear in the table\n     */\n");
+            appendStrings(out, "BASE_NAMES", baseNames);
+            out.append("    /**\n     * The names with their prefix or suffix applied\n     */\n");
+        } else {
+            out.append("    /**\n     * The names of the entries\n     */\n");
+        }
+        appendStrings(out, "NAMES", names);
+        out.append("    /**\n     * The weight of each entry\n     */\n");
+        out.append("    static final int[] WEIGHTS = {");
+        for (int i = 0; i < weights.length; i++) {
+            out.append(i == 0 ? "" : ", ").append(weights[i]);
+        }
+        out.append("};\n\n");
+        for (int c = 0; c < table.columns.size(); c++) {
+            if (!table.isNumberColumn(c)) {
+                continue;
+            }
+            String column = table.columns.get(c);
+            String field = constantName(column) + "S";
+            out.append("    /**\n     * The ").append(column).append(" of each entry\n     */\n");
+            out.append("    static final double[] ").append(field).append(" = {");
+            for (int i = 0; i < size; i++) {
+                out.append(i == 0 ? "" : ", ").append(table.number(c, i));
+            }
+            out.append("};\n\n");
+        }
+
+        out.append("    private ").append(className).append("() {}\n\n");
+        out.append("    /**\n");
+        out.append("     * Finds the entry a number falls on, the same as\n");
+        out.append("     * TreasureBuilder.selectFromProbabilityList(WEIGHTS, num).\n");
+        out.append("     * @param num a number between 0 and TOTAL exclusive\n");
+        out.append("     * @return the index of the entry, or -1 if num is TOTAL or more\n");
+        out.append("     */\n");
+        out.append("    static int select(int num) {\n");
+        appendSearch(out, cumulative, 0, size, 2);
+        out.append("    }\n\n");
+        out.append("    /**\n");
+        out.append("     * Draws an entry using the current thread's random source.\n");
+        out.append("     * @return the index of the entry\n");
+        out.append("     */\n");
+        out.append("    static int draw() {\n");
+        out.append("        return select(TreasureBuilder.randomInt(TOTAL));\n");
+        out.append("    }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * Writes an unrolled binary search for the first entry whose cumulative weight is more than
+     * num. The answer is known to be between lo and hi inclusive, and hi means no entry.
+     */
+    static void appendSearch(StringBuilder out, int[] cumulative, int lo, int hi, int depth) {
+        char[] indentChars = new char[depth * 4];
+        Arrays.fill(indentChars, ' ');
+        String indent = new String(indentChars);
+        if (lo == hi) {
+            out.append(indent).append("return ").append(lo == cumulative.length ? -1 : lo).append(";\n");
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        out.append(indent).append("if (num < ").append(cumulative[mid]).append(") {\n");
+        appendSearch(out, cumulative, lo, mid, depth + 1);
+        out.append(indent).append("} else {\n");
+        appendSearch(out, cumulative, mid + 1, hi, depth + 1);
+        out.append(indent).append("}\n");
+    }
+
+    static void appendStrings(StringBuilder out, String field, String[] values) {
+        out.append("    static final String[] ").append(field).append(" = {");
+        for (int i = 0; i < values.length; i++) {
+            out.append(i == 0 ? "" : ", ").append('"');
+            for (char c : values[i].toCharArray()) {
+                if (c == '"' || c == '\\') out.append('\\');
+                out.append(c);
+            }
+            out.append('"');
+        }
+        out.append("};\n\n");
+    }
+
+    /**
+     * costFactor becomes COST_FACTOR
+     */
+    static String constantName(String column) {
+        StringBuilder out = new StringBuilder();
+        for (char c : column.toCharArray()) {
+            if (Character.isUpperCase(c)) out.append('_');
+            out.append(Character.toUpperCase(c));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Generates the tables from the command line, for building outside Gradle.
+     * @param args the table directory, the output directory, and the package
+     * @throws IOException if the tables could not be generated
+     */
+    public static void main(String[] args) throws IOException {
+        generate(new File(args[0]), new File(args[1]), args[2]);
+    }
+}
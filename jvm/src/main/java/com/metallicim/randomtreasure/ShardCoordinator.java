@@ -0,0 +1,269 @@
+package com.metallicim.randomtreasure;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>Shard Coordinator</h1>
+ * Runs a generation job that is too big for one JVM across several local worker processes. The
+ * job's index range is split into disjoint shards, each shard is generated by a ShardWorker
+ * process, and the outputs are joined in index order while the stats are summed. A treasure only
+ * depends on the master seed and its index, so the merged output and stats are the same for any
+ * number of shards or processes.
+ * <p>
+ * Workers generate with the coordinator's loot tables. They start with the compiled tables, so
+ * a coordinator running with reloaded tables must be given the directory they were loaded from,
+ * and each worker checks the tables it loads have the coordinator's fingerprint. A job whose
+ * tables the workers can't get is refused before any worker starts.
+ * <p>
+ * A worker that exits with an error, leaves no output, or runs past the timeout has its shard run
+ * again, up to the maximum number of attempts. A worker that runs past the timeout, or is still
+ * running when the job fails, is killed rather than left behind. Workers only talk to the
+ * coordinator through files in the work directory, so nothing but a local java command is needed.
+ *
+ * @since 2021-2-27
+ */
+public class ShardCoordinator {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final GenerationJob job;
+    private final File workDir;
+    private final int shards;
+    private final int processes;
+    private int maxAttempts = 3;
+    private long timeoutMillis = TimeUnit.MINUTES.toMillis(30);
+    private final List<String> jvmArguments = new ArrayList<>();
+    private File tableDir;
+    private String workerClass = ShardWorker.class.getName();
+    private LootTables tables;
+
+    private final AtomicInteger launches = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile boolean failed;
+
+    /**
+     * Creates a coordinator
+     * @param job       the job to run
+     * @param workDir   where the shards' files are written, it must exist
+     * @param shards    the number of shards to split the job into
+     * @param processes the most worker processes to run at once
+     */
+    ShardCoordinator(GenerationJob job, File workDir, int shards, int processes) {
+        if (shards < 1 || processes < 1) {
+            throw new IllegalArgumentException("A job needs at least one shard and one process");
+        }
+        this.job = job;
+        this.workDir = workDir;
+        this.shards = shards;
+        this.processes = processes;
+    }
+
+    /**
+     * @param maxAttempts how many times a shard is run before the job fails
+     */
+    void setMaxAttempts(int maxAttempts) { this.maxAttempts = maxAttempts; }
+
+    /**
+     * @param timeout how long a worker may run before it is killed and its shard run again, 30
+     *                minutes unless set
+     * @param unit    the unit of the timeout
+     */
+    void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("The timeout must be positive");
+        }
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * @param tableDir the directory the loot tables being generated with were loaded from, for
+     *                 the workers to load the same ones, or null if they are the compiled tables
+     */
+    void setTableDir(File tableDir) { this.tableDir = tableDir; }
+
+    /**
+     * @param workerClass the main class the workers run, ShardWorker unless set. It takes the
+     *                    same arguments as ShardWorker.
+     */
+    void setWorkerClass(Class<?> workerClass) { this.workerClass = workerClass.getName(); }
+
+    /**
+     * @param argument an argument for the worker JVMs, such as -Xmx512m
+     */
+    void addJvmArgument(String argument) { jvmArguments.add(argument); }
+
+    /**
+     * @return the number of worker processes started
+     */
+    int launches() { return launches.get(); }
+
+    /**
+     * @return the number of worker processes that failed and had their shard run again
+     */
+    int failures() { return failures.get(); }
+
+    /**
+     * @param shard the index of a shard
+     * @return the index of the first treasure of the shard
+     */
+    long shardStart(int shard) {
+        long size = job.count() / shards;
+        long extra = job.count() % shards;
+        return shard * size + Math.min(shard, extra);
+    }
+
+    /**
+     * Runs every shard, then writes the merged output.
+     * @param out where to write the NDJSON of the whole job, in index order
+     * @return the merged stats
+     * @throws IOException if the workers can't get the current thread's loot tables, a shard
+     * failed every attempt, or a file could not be read or written
+     */
+    GenerationStats run(OutputStream out) throws IOException {
+        tables = LootTables.current();
+        LootTables workerTables = tableDir != null ? LootTables.load(tableDir) : LootTables.COMPILED;
+        if (workerTables.fingerprint != tables.fingerprint) {
+            throw new IOException(tableDir != null
+                    ? "The tables in " + tableDir + " aren't the ones being generated with"
+                    : "The loot tables have been reloaded, so the workers need the directory they came from");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(processes);
+        CompletionService<GenerationStats> completion = new ExecutorCompletionService<>(executor);
+        List<Future<GenerationStats>> results = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                final int s = shard;
+                results.add(completion.submit(new Callable<GenerationStats>() {
+                    @Override
+                    public GenerationStats call() throws IOException, InterruptedException {
+                        return runShard(s);
+                    }
+                }));
+            }
+            // shards are waited on as they finish, so the first to fail stops the job at once
+            for (int shard = 0; shard < shards; shard++) {
+                completion.take().get();
+            }
+            GenerationStats merged = new GenerationStats();
+            for (int shard = 0; shard < shards; shard++) {
+                merged.merge(results.get(shard).get());
+            }
+            byte[] buffer = new byte[64 * 1024];
+            for (int shard = 0; shard < shards; shard++) {
+                File output = outputFile(shard);
+                try (InputStream in = new FileInputStream(output)) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                output.delete();
+                statsFile(shard).delete();
+            }
+            out.flush();
+            return merged;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the workers", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs one shard in a worker process until it succeeds or runs out of attempts.
+     * @return the shard's stats, or null if another shard has already failed the job
+     */
+    private GenerationStats runShard(int shard) throws IOException, InterruptedException {
+        long first = shardStart(shard);
+        long count = shardStart(shard + 1) - first;
+        File output = outputFile(shard);
+        File stats = statsFile(shard);
+        File log = new File(workDir, "shard-" + shard + ".log");
+        if (failed) {
+            return null;
+        }
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            output.delete();
+            stats.delete();
+            launches.incrementAndGet();
+            Process process = new ProcessBuilder(command(first, count, output, stats))
+                    .redirectErrorStream(true)
+                    .redirectOutput(log)
+                    .start();
+            boolean exited = false;
+            try {
+                exited = process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+            } finally {
+                if (!exited) {
+                    // timed out, or the job was given up on while waiting
+                    process.destroyForcibly();
+                }
+            }
+            if (exited && process.exitValue() == 0 && output.isFile() && stats.isFile()) {
+                try (Reader in = new InputStreamReader(new FileInputStream(stats), UTF_8)) {
+                    GenerationStats shardStats = GenerationStats.read(in);
+                    if (shardStats.totalCount() == count) {
+                        log.delete();
+                        return shardStats;
+                    }
+                } catch (IOException e) {
+                    // the stats are unreadable, so run the shard again
+                }
+            }
+            failures.incrementAndGet();
+        }
+        failed = true;
+        throw new IOException("Shard " + shard + " (" + first + " to " + (first + count)
+                + ") failed " + maxAttempts + " times, see " + log);
+    }
+
+    private List<String> command(long first, long count, File output, File stats) {
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(jvmArguments);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(workerClass);
+        command.add(job.mixString());
+        command.add(Long.toString(job.seed()));
+        command.add(Long.toString(job.count()));
+        command.add(Long.toString(first));
+        command.add(Long.toString(count));
+        command.add(output.getPath());
+        command.add(stats.getPath());
+        command.add(Long.toHexString(tables.fingerprint));
+        if (tableDir != null) {
+            command.add(tableDir.getPath());
+        }
+        return command;
+    }
+
+    private File outputFile(int shard) { return new File(workDir, "shard-" + shard + ".ndjson"); }
+
+    private File statsFile(int shard) { return new File(workDir, "shard-" + shard + ".stats"); }
+}
@@ -0,0 +1,85 @@
+package com.metallicim.randomtreasure;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * <h1>Shard Worker</h1>
+ * The entry point of a worker process started by ShardCoordinator. It generates one range of a
+ * job into an NDJSON file and writes the range's stats to a second file. Both are written under
+ * a temporary name and renamed once complete, so a worker that dies leaves no output behind and
+ * its range can simply be run again.
+ * <p>
+ * The arguments are the mix, the master seed, the job's total count, the first index, the number
+ * of treasures, the output file, the stats file, the fingerprint of the coordinator's loot tables,
+ * and the directory to load them from if they aren't the compiled ones. A worker whose tables
+ * don't have the fingerprint exits without generating anything.
+ *
+ * @since 2021-2-27
+ */
+public class ShardWorker {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ShardWorker() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 8 && args.length != 9) {
+            System.err.println("usage: ShardWorker <mix> <seed> <total> <first> <count> <output> <stats> <fingerprint> [table dir]");
+            System.exit(2);
+        }
+        GenerationJob job = new GenerationJob(GenerationJob.parseMix(args[0]), Long.parseLong(args[2]), Long.parseLong(args[1]));
+        long first = Long.parseLong(args[3]);
+        long count = Long.parseLong(args[4]);
+        File output = new File(args[5]);
+        File stats = new File(args[6]);
+        long fingerprint = Long.parseUnsignedLong(args[7], 16);
+        LootTables tables = args.length == 9 ? LootTables.load(new File(args[8])) : LootTables.COMPILED;
+        if (tables.fingerprint != fingerprint) {
+            System.err.println("The loot tables have fingerprint " + Long.toHexString(tables.fingerprint)
+                    + ", but the coordinator's have " + args[7]);
+            System.exit(3);
+        }
+        // the process only runs this shard, so the tables are simply published
+        LootTables.publish(tables);
+        run(job, first, count, output, stats);
+    }
+
+    /**
+     * Generates a range of a job into its output and stats files.
+     * @param job    the job
+     * @param first  the index of the first treasure
+     * @param count  the number of treasures
+     * @param output where to write the treasures
+     * @param stats  where to write the stats
+     * @throws IOException if a file could not be written
+     */
+    static void run(GenerationJob job, long first, long count, File output, File stats) throws IOException {
+        File outputPart = new File(output.getPath() + ".part");
+        File statsPart = new File(stats.getPath() + ".part");
+        GenerationStats rangeStats = new GenerationStats();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputPart), 64 * 1024)) {
+            job.generate(first, count, out, rangeStats);
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(statsPart), UTF_8)) {
+            rangeStats.write(out);
+        }
+        rename(outputPart, output);
+        rename(statsPart, stats);
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (to.exists() && !to.delete()) {
+            throw new IOException("Could not replace " + to);
+        }
+        if (!from.renameTo(to)) {
+            throw new IOException("Could not rename " + from + " to " + to);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.metallicim.randomtreasure;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <h1>Treasure Server</h1>
+ * A small HTTP server for generating treasures on the JVM, for tabletop integrations and load
+ * testing. Android has no com.sun.net.httpserver, so the server lives in the jvm module rather
+ * than in the app, and the generation and NDJSON encoding it serves come from TreasureNdjson.
+ * <p>
+ * Run it with -Dsun.net.httpserver.nodelay=true, as the jvm module's run task and start scripts
+ * do. Streamed responses are written in pieces, and without it each one waits on a delayed ACK.
+ * <p>
+ * GET /treasure/{spice|fiber|material|jewel}?count=N&amp;seed=S streams N treasures as NDJSON while
+ * they are generated. Without a seed a random one is used, and count defaults to 1.
+ * Each request runs on its own virtual thread when the JVM has them, otherwise on a cached pool.
+ *
+ * @since 2021-2-20
+ */
+public class TreasureServer {
+
+    /**
+     * The most treasures a single request may ask for
+     */
+    static final long MAX_COUNT = 10000000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a server on the loopback address
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port could not be bound
+     */
+    TreasureServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = newPerRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/treasure/", this::handle);
+    }
+
+    /**
+     * One virtual thread per request where the JVM supports it, otherwise a cached thread pool.
+     */
+    private static ExecutorService newPerRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    void start() { server.start(); }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    int port() { return server.getAddress().getPort(); }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                error(exchange, 405, "only GET is supported");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            TreasureKind kind = TreasureKind.fromName(path.substring("/treasure/".length()));
+            if (kind == null) {
+                error(exchange, 404, "unknown treasure kind");
+                return;
+            }
+
+            long count = 1;
+            long seed = (long) (Long.MAX_VALUE * Math.random());
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    int equals = parameter.indexOf('=');
+                    if (equals < 0) continue;
+                    String name = parameter.substring(0, equals);
+                    String value = parameter.substring(equals + 1);
+                    try {
+                        if (name.equals("count")) count = Long.parseLong(value);
+                        else if (name.equals("seed")) seed = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        error(exchange, 400, name + " must be a number");
+                        return;
+                    }
+                }
+            }
+            if (count < 0 || count > MAX_COUNT) {
+                error(exchange, 400, "count must be between 0 and " + MAX_COUNT);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            // a length of 0 means the response is chunked, so it streams as it is generated
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                TreasureNdjson.write(body, kind, seed, 0, count);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void error(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = ("{\"error\":" + TreasureNdjson.appendString(new StringBuilder(), message) + "}\n").getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Runs the server until the process is stopped.
+     * @param args the port, 8080 if not given
+     * @throws IOException if the port could not be bound
+     */
+    public static void main(String[] args) throws IOException {
+        TreasureServer server = new TreasureServer(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+        server.start();
+        System.out.println("Serving treasure on http://localhost:" + server.port() + "/treasure/");
+    }
+}
@@ -0,0 +1,62 @@
+package com.metallicim.randomtreasure;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <h1>Faulty Shard Worker</h1>
+ * A worker for testing ShardCoordinator with real processes. It takes the same arguments as
+ * ShardWorker, and runs it unless a fault property names a marker file that doesn't exist yet.
+ * Only the worker that creates the marker fails: it writes half its range to the temporary
+ * output, as a real worker would have by then, and then dies or hangs.
+ *
+ * @since 2021-2-27
+ */
+public class FaultyShardWorker {
+
+    /**
+     * The system property that makes one worker die half way through its shard
+     */
+    static final String CRASH_ONCE_PROPERTY = "randomtreasure.shard.crashOnce";
+    /**
+     * The exit code of a worker killed by CRASH_ONCE_PROPERTY
+     */
+    static final int CRASH_EXIT_CODE = 70;
+    /**
+     * The system property that makes one worker hang half way through its shard
+     */
+    static final String HANG_ONCE_PROPERTY = "randomtreasure.shard.hangOnce";
+
+    private FaultyShardWorker() {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (claimed(CRASH_ONCE_PROPERTY)) {
+            generateHalf(args);
+            Runtime.getRuntime().halt(CRASH_EXIT_CODE);
+        }
+        if (claimed(HANG_ONCE_PROPERTY)) {
+            generateHalf(args);
+            Thread.sleep(Long.MAX_VALUE);
+        }
+        ShardWorker.main(args);
+    }
+
+    /**
+     * @return whether the property names a marker file this worker was the first to create
+     */
+    private static boolean claimed(String property) throws IOException {
+        String marker = System.getProperty(property);
+        return marker != null && new File(marker).createNewFile();
+    }
+
+    private static void generateHalf(String[] args) throws IOException {
+        GenerationJob job = new GenerationJob(GenerationJob.parseMix(args[0]), Long.parseLong(args[2]), Long.parseLong(args[1]));
+        long first = Long.parseLong(args[3]);
+        long count = Long.parseLong(args[4]);
+        try (OutputStream out = new FileOutputStream(args[5] + ".part")) {
+            job.generate(first, count / 2, out, new GenerationStats());
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Shard Coordinator Unit Tests</h1>
+ * Runs a job in real worker processes with different numbers of shards, and checks the merged
+ * output and stats are byte for byte what generating the job in one go gives, including when a
+ * worker dies or hangs part way through, and that workers generate with reloaded tables.
+ *
+ * @since 2021-2-27
+ */
+public class ShardCoordinatorTest {
+
+    private static final long SEED = 40;
+    private static final int COUNT = 20000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static GenerationJob job() {
+        return new GenerationJob(GenerationJob.parseMix("spice=3,fiber=2,material=2,jewel=1"), COUNT, SEED);
+    }
+
+    private static GenerationStats reference(ByteArrayOutputStream out) throws IOException {
+        GenerationStats stats = new GenerationStats();
+        job().generate(0, COUNT, out, stats);
+        return stats;
+    }
+
+    /**
+     * The merged output and stats don't depend on the number of shards or processes.
+     */
+    @Test
+    public void merge_isIndependentOfShards() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        GenerationStats expectedStats = reference(expected);
+        assertEquals(COUNT, expectedStats.totalCount());
+
+        int[][] layouts = {{1, 1}, {3, 2}, {7, 4}};
+        for (int[] layout : layouts) {
+            ShardCoordinator coordinator = new ShardCoordinator(job(), folder.newFolder(), layout[0], layout[1]);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            GenerationStats stats = coordinator.run(out);
+            assertArrayEquals(layout[0] + " shards", expected.toByteArray(), out.toByteArray());
+            assertEquals(expectedStats, stats);
+            assertEquals(layout[0], coordinator.launches());
+            assertEquals(0, coordinator.failures());
+        }
+    }
+
+    /**
+     * A worker that dies half way through has its shard run again, and the result is unchanged.
+     */
+    @Test
+    public void crashedShard_isRerun() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        GenerationStats expectedStats = reference(expected);
+
+        File marker = new File(folder.getRoot(), "crashed");
+        ShardCoordinator coordinator = new ShardCoordinator(job(), folder.newFolder(), 4, 4);
+        coordinator.setWorkerClass(FaultyShardWorker.class);
+        coordinator.addJvmArgument("-D" + FaultyShardWorker.CRASH_ONCE_PROPERTY + "=" + marker.getPath());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GenerationStats stats = coordinator.run(out);
+
+        assertTrue(marker.exists());
+        assertEquals(1, coordinator.failures());
+        assertEquals(5, coordinator.launches());
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+        assertEquals(expectedStats, stats);
+    }
+
+    /**
+     * A worker that hangs is killed when it runs past the timeout, and its shard is run again.
+     */
+    @Test
+    public void hungShard_isKilledAndRerun() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        GenerationStats expectedStats = reference(expected);
+
+        File marker = new File(folder.getRoot(), "hung");
+        ShardCoordinator coordinator = new ShardCoordinator(job(), folder.newFolder(), 2, 2);
+        coordinator.setTimeout(10, TimeUnit.SECONDS);
+        coordinator.setWorkerClass(FaultyShardWorker.class);
+        coordinator.addJvmArgument("-D" + FaultyShardWorker.HANG_ONCE_PROPERTY + "=" + marker.getPath());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GenerationStats stats = coordinator.run(out);
+
+        assertTrue(marker.exists());
+        assertEquals(1, coordinator.failures());
+        assertEquals(3, coordinator.launches());
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+        assertEquals(expectedStats, stats);
+    }
+
+    /**
+     * A shard that fails every attempt fails the job instead of leaving a gap in the output. The
+     * shards run one at a time, so the second is never started.
+     */
+    @Test
+    public void failingShard_failsJob() throws IOException {
+        ShardCoordinator coordinator = new ShardCoordinator(job(), folder.newFolder(), 2, 1);
+        coordinator.setMaxAttempts(2);
+        coordinator.addJvmArgument("-XX:ThisOptionDoesNotExist");
+        try {
+            coordinator.run(new ByteArrayOutputStream());
+            fail("the job should fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("failed 2 times"));
+        }
+        assertEquals(2, coordinator.launches());
+    }
+
+    /**
+     * Copies the table definitions into a new directory with Diamonds worth half again as much.
+     */
+    private File tunedTableDir() throws IOException {
+        File source = new File("../app/src/main/tables");
+        if (!source.isDirectory()) {
+            source = new File("app/src/main/tables");
+        }
+        File dir = folder.newFolder();
+        Charset utf8 = Charset.forName("UTF-8");
+        for (File file : source.listFiles()) {
+            String text = new String(Files.readAllBytes(file.toPath()), utf8);
+            text = text.replace("Diamond | 1 | 40", "Diamond | 1 | 60");
+            Files.write(new File(dir, file.getName()).toPath(), text.getBytes(utf8));
+        }
+        return dir;
+    }
+
+    /**
+     * With reloaded tables the workers load them from the coordinator's directory and generate
+     * the same as the coordinator would, and without the directory the job is refused.
+     */
+    @Test
+    public void reloadedTables_reachWorkers() throws IOException {
+        File tableDir = tunedTableDir();
+        LootTables tuned = LootTables.load(tableDir);
+        assertTrue(tuned.fingerprint != LootTables.COMPILED.fingerprint);
+        LootTables.publish(tuned);
+        try {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            GenerationStats expectedStats = reference(expected);
+            ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+            try (Generation generation = Generation.start(LootTables.COMPILED)) {
+                assertSame(LootTables.COMPILED, generation.tables());
+                reference(compiled);
+            }
+            assertFalse(Arrays.equals(expected.toByteArray(), compiled.toByteArray()));
+
+            ShardCoordinator refused = new ShardCoordinator(job(), folder.newFolder(), 2, 2);
+            try {
+                refused.run(new ByteArrayOutputStream());
+                fail("sharded without the reloaded tables");
+            } catch (IOException e) {
+                assertEquals(0, refused.launches());
+            }
+
+            ShardCoordinator coordinator = new ShardCoordinator(job(), folder.newFolder(), 2, 2);
+            coordinator.setTableDir(tableDir);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            GenerationStats stats = coordinator.run(out);
+            assertArrayEquals(expected.toByteArray(), out.toByteArray());
+            assertEquals(expectedStats, stats);
+            assertEquals(0, coordinator.failures());
+        } finally {
+            LootTables.publish(LootTables.COMPILED);
+        }
+    }
+
+    /**
+     * Mix weights that add up to more than an int holds are refused rather than wrapping.
+     */
+    @Test
+    public void mix_rejectsOverflowingWeights() {
+        int[] mix = GenerationJob.parseMix("spice=" + Integer.MAX_VALUE + ",jewel=2");
+        try {
+            new GenerationJob(mix, COUNT, SEED);
+            fail("accepted a mix that overflows");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // the largest total still draws across the whole mix
+        GenerationJob job = new GenerationJob(GenerationJob.parseMix("jewel=" + Integer.MAX_VALUE), COUNT, SEED);
+        for (int index = 0; index < 100; index++) {
+            assertEquals(TreasureKind.JEWEL, job.kindOf(index));
+        }
+    }
+
+    /**
+     * Stats survive being written and read back, and merging is the same as adding.
+     */
+    @Test
+    public void stats_roundTripAndMerge() throws IOException {
+        GenerationStats first = new GenerationStats();
+        GenerationStats second = new GenerationStats();
+        GenerationStats all = new GenerationStats();
+        GenerationJob job = job();
+        for (int index = 0; index < 1000; index++) {
+            TreasureKind kind = job.kindOf(index);
+            long value = index * 37L;
+            (index < 400 ? first : second).add(kind, value);
+            all.add(kind, value);
+        }
+        assertEquals(all, new GenerationStats().merge(first).merge(second));
+
+        StringWriter written = new StringWriter();
+        all.write(written);
+        assertEquals(all, GenerationStats.read(new StringReader(written.toString())));
+        assertEquals(0, GenerationStats.bucket(0));
+        assertEquals(1, GenerationStats.bucket(1));
+        assertEquals(2, GenerationStats.bucket(3));
+        assertEquals(GenerationStats.BUCKETS - 1, GenerationStats.bucket(Long.MAX_VALUE));
+    }
+}
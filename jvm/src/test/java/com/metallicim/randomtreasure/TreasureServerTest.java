@@ -0,0 +1,140 @@
+package com.metallicim.randomtreasure;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Treasure Server Tests</h1>
+ * Checks the HTTP endpoints, and load tests the server on localhost, reporting latency and
+ * requests per second.
+ *
+ * @since 2021-2-20
+ */
+public class TreasureServerTest {
+
+    private TreasureServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new TreasureServer(0);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + server.port() + path).openConnection();
+    }
+
+    /**
+     * Reads the whole response body, returning the number of lines
+     */
+    private static List<String> readLines(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * A seeded request returns the same treasures as the builders do for that seed.
+     */
+    @Test
+    public void seededRequest_matchesBuilder() throws IOException {
+        HttpURLConnection connection = open("/treasure/spice?count=50&seed=33");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("application/x-ndjson", connection.getContentType());
+        List<String> lines = readLines(connection.getInputStream());
+        assertEquals(50, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String expected = TreasureNdjson.appendJson(new StringBuilder(), TreasureKind.SPICE, 33, i,
+                    TreasureKind.SPICE.build(33, i)).toString();
+            assertEquals(expected, lines.get(i));
+        }
+    }
+
+    /**
+     * A large request streams every treasure.
+     */
+    @Test
+    public void largeRequest_streams() throws IOException {
+        HttpURLConnection connection = open("/treasure/fiber?count=200000&seed=1");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(200000, readLines(connection.getInputStream()).size());
+    }
+
+    /**
+     * Unknown kinds and bad parameters are rejected.
+     */
+    @Test
+    public void badRequests_areRejected() throws IOException {
+        assertEquals(404, open("/treasure/dragon").getResponseCode());
+        assertEquals(400, open("/treasure/jewel?count=lots").getResponseCode());
+        assertEquals(400, open("/treasure/jewel?count=-1").getResponseCode());
+    }
+
+    /**
+     * Sends many concurrent requests and reports p50 and p99 latency and requests per second.
+     */
+    @Test
+    public void loadTest() throws Exception {
+        final int requests = 2000;
+        final String[] kinds = {"spice", "fiber", "material", "jewel"};
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Long>> latencies = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                final String path = "/treasure/" + kinds[i % kinds.length] + "?count=20&seed=" + i;
+                latencies.add(clients.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        long requestStart = System.nanoTime();
+                        HttpURLConnection connection = open(path);
+                        assertEquals(200, connection.getResponseCode());
+                        assertEquals(20, readLines(connection.getInputStream()).size());
+                        return System.nanoTime() - requestStart;
+                    }
+                }));
+            }
+            long[] sorted = new long[requests];
+            for (int i = 0; i < requests; i++) {
+                sorted[i] = latencies.get(i).get();
+            }
+            long elapsed = System.nanoTime() - start;
+            Arrays.sort(sorted);
+            System.out.println("load test: " + requests + " requests, "
+                    + String.format("%.0f", requests / (elapsed / 1e9)) + " requests/s, p50 "
+                    + String.format("%.2f", sorted[requests / 2] / 1e6) + " ms, p99 "
+                    + String.format("%.2f", sorted[requests * 99 / 100] / 1e6) + " ms");
+            assertTrue(sorted[0] > 0);
+        } finally {
+            clients.shutdown();
+        }
+    }
+}